@@ -0,0 +1,79 @@
+package slatepowered.veru.db.v1;
+
+import slatepowered.veru.data.Values;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A query resolved once from a {@link QueryPool} and bound to
+ * the database of that pool, which can be cached by callers so
+ * executing it does not require looking up the query again.
+ *
+ * Queries registered to the pool after resolving are not
+ * reflected by an existing bound query.
+ *
+ * @param <R> The result type.
+ * @param <D> The database type.
+ */
+public class BoundQuery<R, D extends Database> {
+
+    // the resolved query
+    final DatabaseQuery<R, D> query;
+
+    // the database to execute on
+    final D database;
+
+    public BoundQuery(DatabaseQuery<R, D> query, D database) {
+        this.query = query;
+        this.database = database;
+    }
+
+    public DatabaseQuery<R, D> getQuery() {
+        return query;
+    }
+
+    public D getDatabase() {
+        return database;
+    }
+
+    public R sync(Values vals) {
+        return query.doSync(database, vals);
+    }
+
+    public R sync(Object... vals) {
+        return query.doSync(database, Values.ofVarargs(vals));
+    }
+
+    public CompletableFuture<R> async(Values vals) {
+        return query.doAsync(database, vals);
+    }
+
+    public CompletableFuture<R> async(Object... vals) {
+        return query.doAsync(database, Values.ofVarargs(vals));
+    }
+
+    public CompletableFuture<R> async(Values vals, long timeout, TimeUnit unit) {
+        return query.doAsync(database, vals, timeout, unit);
+    }
+
+    /**
+     * Execute the query with the given arguments in the order
+     * of its parameters, without looking it up again.
+     *
+     * @param args The arguments.
+     * @return The result.
+     * @throws IllegalStateException If the query declares no parameters.
+     */
+    public R call(Object... args) {
+        return query.doSync(database, query.arguments(args));
+    }
+
+    /**
+     * @see #call(Object...)
+     */
+    public CompletableFuture<R> callAsync(Object... args) {
+        return query.doAsync(database, query.arguments(args));
+    }
+
+}
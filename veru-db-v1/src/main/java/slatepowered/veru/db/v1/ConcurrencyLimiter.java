@@ -0,0 +1,323 @@
+package slatepowered.veru.db.v1;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Limits the amount of concurrently executing async queries on a database,
+ * adapting the limit to the observed latency with additive increase and
+ * multiplicative decrease (AIMD).
+ *
+ * Every execution completing within the latency threshold grows the limit
+ * by about one per limit executions, every slow or failed execution shrinks
+ * it by the backoff ratio. Cancelled executions and executions timing out
+ * while queued do not change the limit, as they are caused by the caller
+ * giving up rather than by the database. Executions over the limit are
+ * rejected or queued depending on the {@link Policy}.
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * What to do with executions over the limit.
+     */
+    public enum Policy {
+        /**
+         * Fail the execution immediately with a {@link QueryRejectedException}.
+         */
+        REJECT,
+
+        /**
+         * Queue the execution until a slot is free, rejecting
+         * it if the queue is full.
+         */
+        QUEUE
+    }
+
+    // an execution waiting for a slot
+    static final class Pending<T> {
+
+        final Supplier<CompletableFuture<T>> task;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Pending(Supplier<CompletableFuture<T>> task) {
+            this.task = task;
+        }
+
+    }
+
+    // the bounds of the limit
+    volatile int minLimit = 1;
+    volatile int maxLimit = 1000;
+
+    // the current limit, only the integer
+    // part is used to admit executions
+    volatile double limit = 20;
+
+    // the latency above which the limit is decreased in nanoseconds
+    volatile long latencyThreshold = TimeUnit.MILLISECONDS.toNanos(250);
+
+    // the factor to multiply the limit with on a slow execution
+    volatile double backoffRatio = 0.9;
+
+    // the time of the last decrease
+    long lastDecrease = System.nanoTime();
+
+    // the policy for executions over the limit
+    volatile Policy policy = Policy.REJECT;
+
+    // the maximum amount of queued executions
+    volatile int maxQueued = 1000;
+
+    // the amount of executing queries
+    final AtomicInteger inflight = new AtomicInteger();
+
+    // the queued executions
+    final ConcurrentLinkedQueue<Pending<?>> queue = new ConcurrentLinkedQueue<>();
+    final AtomicInteger queued = new AtomicInteger();
+
+    /* Statistics */
+    final LongAdder rejected = new LongAdder();
+    final LongAdder decreases = new LongAdder();
+
+    /**
+     * Set the bounds of the limit.
+     *
+     * @param min The minimum limit.
+     * @param max The maximum limit.
+     * @return This.
+     */
+    public ConcurrencyLimiter limits(int min, int max) {
+        if (min < 1 || max < min)
+            throw new IllegalArgumentException("invalid limits [" + min + ", " + max + "]");
+        this.minLimit = min;
+        this.maxLimit = max;
+        this.limit = Math.max(min, Math.min(max, limit));
+        return this;
+    }
+
+    /**
+     * Set the current limit, which adapts from there.
+     *
+     * @param limit The limit.
+     * @return This.
+     */
+    public ConcurrencyLimiter initialLimit(int limit) {
+        this.limit = Math.max(minLimit, Math.min(maxLimit, limit));
+        return this;
+    }
+
+    /**
+     * Set the latency above which an execution counts as slow and
+     * decreases the limit.
+     *
+     * @param threshold The threshold.
+     * @param unit The time unit.
+     * @return This.
+     */
+    public ConcurrencyLimiter latencyThreshold(long threshold, TimeUnit unit) {
+        this.latencyThreshold = unit.toNanos(threshold);
+        return this;
+    }
+
+    /**
+     * Set the factor the limit is multiplied with on a slow
+     * or failed execution.
+     *
+     * @param backoffRatio The ratio between 0 and 1.
+     * @return This.
+     */
+    public ConcurrencyLimiter backoffRatio(double backoffRatio) {
+        if (backoffRatio <= 0 || backoffRatio >= 1)
+            throw new IllegalArgumentException("backoff ratio must be in (0, 1)");
+        this.backoffRatio = backoffRatio;
+        return this;
+    }
+
+    /**
+     * Set the policy for executions over the limit.
+     *
+     * @param policy The policy.
+     * @return This.
+     */
+    public ConcurrencyLimiter policy(Policy policy) {
+        this.policy = policy;
+        return this;
+    }
+
+    /**
+     * Set the maximum amount of executions queued with the
+     * {@link Policy#QUEUE} policy.
+     *
+     * @param maxQueued The maximum queue size.
+     * @return This.
+     */
+    public ConcurrencyLimiter maxQueued(int maxQueued) {
+        this.maxQueued = maxQueued;
+        return this;
+    }
+
+    /**
+     * Start the given execution if under the limit, otherwise
+     * reject or queue it according to the policy.
+     *
+     * @param task The task starting the execution.
+     * @param <T> The result type.
+     * @return The future of the result.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> task) {
+        Pending<T> pending = new Pending<>(task);
+        if (tryAcquire()) {
+            start(pending);
+            return pending.future;
+        }
+
+        if (policy == Policy.QUEUE && queued.incrementAndGet() <= maxQueued) {
+            queue.add(pending);
+            // a slot may have been freed before queuing
+            drain();
+            return pending.future;
+        } else if (policy == Policy.QUEUE) {
+            queued.decrementAndGet();
+        }
+
+        rejected.increment();
+        pending.future.completeExceptionally(new QueryRejectedException(
+                "concurrency limit of " + getLimit() + " reached (" + getInflight() + " in flight, " + getQueued() + " queued)"));
+        return pending.future;
+    }
+
+    private boolean tryAcquire() {
+        for (;;) {
+            int current = inflight.get();
+            if (current >= (int) limit)
+                return false;
+            if (inflight.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+
+    // starts the given execution with an acquired slot
+    private <T> void start(Pending<T> pending) {
+        long start = System.nanoTime();
+        CompletableFuture<T> execution;
+        try {
+            execution = pending.task.get();
+        } catch (Throwable t) {
+            release(start, t);
+            pending.future.completeExceptionally(t);
+            return;
+        }
+
+        execution.whenComplete((result, t) -> {
+            release(start, t);
+            if (t != null) pending.future.completeExceptionally(t);
+            else pending.future.complete(result);
+        });
+
+        // pass cancellation and timeouts on to the execution
+        // so it is skipped if it has not started yet
+        pending.future.whenComplete((result, t) -> {
+            if (t != null && !execution.isDone())
+                execution.cancel(false);
+        });
+    }
+
+    // frees the slot and adapts the limit to the execution
+    // unless the caller gave up on it
+    private void release(long start, Throwable error) {
+        long now = System.nanoTime();
+        inflight.decrementAndGet();
+        if (!isAbandoned(error))
+            adapt(start, now, error != null || now - start > latencyThreshold);
+        drain();
+    }
+
+    // whether the error is a cancellation or queued timeout
+    private static boolean isAbandoned(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null)
+            error = error.getCause();
+        return error instanceof CancellationException || error instanceof QueryTimeoutException;
+    }
+
+    private synchronized void adapt(long start, long now, boolean slow) {
+        double current = limit;
+        if (slow) {
+            // only decrease once for all executions which
+            // were already running at the last decrease
+            if (start - lastDecrease <= 0)
+                return;
+            lastDecrease = now;
+            decreases.increment();
+            limit = Math.max(minLimit, current * backoffRatio);
+        } else if (current < maxLimit) {
+            limit = Math.min(maxLimit, current + 1 / current);
+        }
+    }
+
+    // starts queued executions while slots are free
+    private void drain() {
+        while (!queue.isEmpty() && tryAcquire()) {
+            Pending<?> pending = queue.poll();
+            if (pending == null) {
+                inflight.decrementAndGet();
+                continue;
+            }
+
+            queued.decrementAndGet();
+            if (pending.future.isDone()) {
+                // cancelled while queued
+                inflight.decrementAndGet();
+                continue;
+            }
+
+            start(pending);
+        }
+    }
+
+    /**
+     * Get the current limit.
+     *
+     * @return The limit.
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    public int getQueued() {
+        return Math.max(0, queued.get());
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getDecreases() {
+        return decreases.sum();
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrencyLimiter{" +
+                "limit=" + getLimit() +
+                ", inflight=" + getInflight() +
+                ", queued=" + getQueued() +
+                ", rejected=" + getRejected() +
+                ", policy=" + policy +
+                '}';
+    }
+
+}
@@ -15,6 +15,13 @@ public abstract class Database {
     // the universal query pool
     public final QueryPool universalQueryPool;
 
+    // the executor override for async work,
+    // uses the manager executor if null
+    protected DatabaseExecutor executor;
+
+    // the limiter of concurrent async queries, null if unlimited
+    protected volatile ConcurrencyLimiter concurrencyLimiter;
+
     public Database(DatabaseManager manager,
                     String name,
                     DatabaseType type) {
@@ -39,6 +46,44 @@ public abstract class Database {
         return name;
     }
 
+    /**
+     * Get the executor used to run asynchronous work on
+     * this database, this is the executor of the manager
+     * unless overridden with {@link #executor(DatabaseExecutor)}.
+     *
+     * @return The executor.
+     */
+    public DatabaseExecutor executor() {
+        return executor != null ? executor : manager.executor();
+    }
+
+    /**
+     * Set the executor used to run asynchronous work on this database.
+     *
+     * @param executor The executor or null to use the manager executor.
+     * @return This.
+     */
+    public Database executor(DatabaseExecutor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Set the limiter of concurrently executing async queries
+     * on this database.
+     *
+     * @param limiter The limiter or null to not limit.
+     * @return This.
+     */
+    public Database concurrencyLimiter(ConcurrencyLimiter limiter) {
+        this.concurrencyLimiter = limiter;
+        return this;
+    }
+
     public void login(Login login) {
         type.login(this, login);
     }
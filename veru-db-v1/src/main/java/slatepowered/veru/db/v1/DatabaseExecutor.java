@@ -0,0 +1,274 @@
+package slatepowered.veru.db.v1;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The execution layer used to run asynchronous database
+ * work, like {@link DatabaseQuery#doAsync(Database, slatepowered.veru.data.Values)}.
+ *
+ * One executor is meant to be shared by all queries of a
+ * database (or all databases of a manager), instead of every
+ * query owning its own thread pool.
+ */
+public abstract class DatabaseExecutor implements Executor {
+
+    /**
+     * Create a bounded thread pool executor with the given amount
+     * of threads and queue capacity. When the queue is full the task
+     * is executed on the calling thread instead of being rejected.
+     *
+     * @param threads The maximum amount of worker threads.
+     * @param queueCapacity The maximum amount of queued tasks.
+     * @return The executor.
+     */
+    public static DatabaseExecutor bounded(int threads, int queueCapacity) {
+        return new Bounded(threads, queueCapacity);
+    }
+
+    /**
+     * Create a bounded executor sized by the amount of available processors.
+     *
+     * @return The executor.
+     */
+    public static DatabaseExecutor bounded() {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        return bounded(threads, threads * 64);
+    }
+
+    /**
+     * Create an executor which starts a new virtual thread for every
+     * task, this is only available on Java 21 and above.
+     *
+     * @return The executor.
+     * @throws UnsupportedOperationException If virtual threads are not available.
+     */
+    public static DatabaseExecutor virtual() {
+        ExecutorService service = createVirtualThreadExecutor();
+        if (service == null)
+            throw new UnsupportedOperationException("virtual threads are not supported by the current Java runtime");
+        return new Delegating(service);
+    }
+
+    /**
+     * Create a virtual thread executor if supported by the current
+     * runtime, otherwise falls back to {@link #bounded()}.
+     *
+     * @return The executor.
+     */
+    public static DatabaseExecutor virtualOrBounded() {
+        ExecutorService service = createVirtualThreadExecutor();
+        return service != null ? new Delegating(service) : bounded();
+    }
+
+    /**
+     * Create an executor which runs every task on the calling thread.
+     *
+     * @return The executor.
+     */
+    public static DatabaseExecutor callerRuns() {
+        return new CallerRuns();
+    }
+
+    /**
+     * Get the bounded executor shared by async work which is not bound
+     * to a database, like queries of a pool without a current database.
+     * It is created on first use and must not be shut down.
+     *
+     * @return The executor.
+     */
+    public static DatabaseExecutor shared() {
+        return SharedHolder.EXECUTOR;
+    }
+
+    // lazily creates the shared executor
+    private static final class SharedHolder {
+        static final DatabaseExecutor EXECUTOR = bounded();
+    }
+
+    // tries to create a new virtual thread per task executor
+    // reflectively, returns null if not supported
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (Exception e) {
+            throw new IllegalStateException("failed to create virtual thread executor", e);
+        }
+    }
+
+    ///////////////////////////////////
+
+    // the amount of tasks currently executing
+    protected final AtomicInteger active = new AtomicInteger();
+
+    // the amount of tasks completed
+    protected final LongAdder completed = new LongAdder();
+
+    // the amount of tasks which ran on the caller thread
+    protected final LongAdder callerRuns = new LongAdder();
+
+    // wraps the given task to track metrics
+    protected Runnable track(Runnable task) {
+        return () -> {
+            active.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                active.decrementAndGet();
+                completed.increment();
+            }
+        };
+    }
+
+    /**
+     * Get the amount of tasks waiting to be executed.
+     *
+     * @return The queue depth.
+     */
+    public abstract int queueDepth();
+
+    /**
+     * Get the amount of tasks currently being executed.
+     *
+     * @return The active task count.
+     */
+    public int activeCount() {
+        return active.get();
+    }
+
+    /**
+     * Get the total amount of tasks completed by this executor.
+     *
+     * @return The completed task count.
+     */
+    public long completedCount() {
+        return completed.sum();
+    }
+
+    /**
+     * Get the amount of tasks which were executed on the submitting
+     * thread because the executor was saturated.
+     *
+     * @return The caller runs count.
+     */
+    public long callerRunsCount() {
+        return callerRuns.sum();
+    }
+
+    /**
+     * Shut down this executor, already submitted tasks
+     * will still be completed.
+     */
+    public abstract void shutdown();
+
+    /* Implementations */
+
+    static class Bounded extends DatabaseExecutor {
+
+        // the backing thread pool
+        final ThreadPoolExecutor pool;
+
+        Bounded(int threads, int queueCapacity) {
+            if (threads < 1)
+                throw new IllegalArgumentException("thread count must be at least 1");
+            if (queueCapacity < 1)
+                throw new IllegalArgumentException("queue capacity must be at least 1");
+
+            AtomicInteger threadCounter = new AtomicInteger();
+            this.pool = new ThreadPoolExecutor(
+                    threads, threads,
+                    60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    r -> {
+                        Thread thread = new Thread(r, "veru-db-worker-" + threadCounter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    (r, executor) -> {
+                        if (executor.isShutdown())
+                            throw new RejectedExecutionException("database executor has been shut down");
+
+                        // run on the caller if saturated
+                        callerRuns.increment();
+                        r.run();
+                    }
+            );
+
+            // dont keep idle threads around
+            this.pool.allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            pool.execute(track(command));
+        }
+
+        @Override
+        public int queueDepth() {
+            return pool.getQueue().size();
+        }
+
+        @Override
+        public void shutdown() {
+            pool.shutdown();
+        }
+
+    }
+
+    static class Delegating extends DatabaseExecutor {
+
+        // the executor service to delegate to
+        final ExecutorService service;
+
+        Delegating(ExecutorService service) {
+            this.service = service;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            try {
+                service.execute(track(command));
+            } catch (RejectedExecutionException e) {
+                callerRuns.increment();
+                track(command).run();
+            }
+        }
+
+        @Override
+        public int queueDepth() {
+            return 0;
+        }
+
+        @Override
+        public void shutdown() {
+            service.shutdown();
+        }
+
+    }
+
+    static class CallerRuns extends DatabaseExecutor {
+
+        @Override
+        public void execute(Runnable command) {
+            callerRuns.increment();
+            track(command).run();
+        }
+
+        @Override
+        public int queueDepth() {
+            return 0;
+        }
+
+        @Override
+        public void shutdown() {
+
+        }
+
+    }
+
+}
@@ -1,5 +1,7 @@
 package slatepowered.veru.db.v1;
 
+import java.util.Objects;
+
 /**
  * Represents one item in a database.
  */
@@ -44,11 +46,121 @@ public abstract class DatabaseItem {
      */
     public abstract <T> T get(String key, Class<T> type);
 
+    /**
+     * Remove a value from this item by key, in, for example, MongoDB this
+     * would remove the key from the BSON document, while in SQL this would
+     * set the column to null. By default this sets the value to null.
+     * @param key The key.
+     */
+    public void unset(String key) {
+        set(key, null);
+    }
+
     public <T> T get(String key, Class<T> type, T def) {
         T v = get(key, type);
         return v == null ? def : v;
     }
 
+    /**
+     * Add the given number to a numeric value, treating an
+     * absent value as zero. Implementations apply this atomically
+     * on the database on push where supported.
+     * @param key The key.
+     * @param delta The number to add.
+     * @return This.
+     */
+    public DatabaseItem increment(String key, Number delta) {
+        apply(UpdateOperation.increment(key, delta));
+        return this;
+    }
+
+    /**
+     * Set a value to the given value if it is smaller than the
+     * current value or the value is absent.
+     * @param key The key.
+     * @param val The value.
+     * @return This.
+     */
+    public DatabaseItem min(String key, Object val) {
+        apply(UpdateOperation.min(key, val));
+        return this;
+    }
+
+    /**
+     * Set a value to the given value if it is larger than the
+     * current value or the value is absent.
+     * @param key The key.
+     * @param val The value.
+     * @return This.
+     */
+    public DatabaseItem max(String key, Object val) {
+        apply(UpdateOperation.max(key, val));
+        return this;
+    }
+
+    /**
+     * Add an element to a list value if it is not contained yet.
+     * @param key The key.
+     * @param element The element.
+     * @return This.
+     */
+    public DatabaseItem addToSet(String key, Object element) {
+        apply(UpdateOperation.addToSet(key, element));
+        return this;
+    }
+
+    /**
+     * Add an element to the end of a list value.
+     * @param key The key.
+     * @param element The element.
+     * @return This.
+     */
+    public DatabaseItem append(String key, Object element) {
+        apply(UpdateOperation.append(key, element));
+        return this;
+    }
+
+    /**
+     * Remove the first or last element of a list value.
+     * @param key The key.
+     * @param first Whether to remove the first instead of the last element.
+     * @return This.
+     */
+    public DatabaseItem pop(String key, boolean first) {
+        apply(UpdateOperation.pop(key, first));
+        return this;
+    }
+
+    /**
+     * Set a value, usually a version field, only if it currently
+     * equals the expected value. Implementations supporting this
+     * check the stored value on the next push and fail the push with
+     * an {@link ItemConflictException} if it was changed concurrently,
+     * the default implementation only checks the local copy.
+     * @param key The key.
+     * @param expected The expected current value, null for absent.
+     * @param val The new value.
+     * @return This.
+     * @throws ItemConflictException If the local value does not match.
+     */
+    public DatabaseItem compareAndSet(String key, Object expected, Object val) {
+        if (!Objects.equals(get(key, Object.class), expected))
+            throw new ItemConflictException(key(), key, expected);
+        set(key, val);
+        return this;
+    }
+
+    /**
+     * Apply the given update operation, by default this is not
+     * atomic and sets the value calculated from the local copy.
+     * @param operation The operation.
+     */
+    protected void apply(UpdateOperation operation) {
+        Object val = operation.apply(get(operation.getPath(), Object.class));
+        if (val != UpdateOperation.UNCHANGED)
+            set(operation.getPath(), val);
+    }
+
     /**
      * Will update the data in the item in the database,
      * like pushing the changes into the database, hence
@@ -67,6 +179,17 @@ public abstract class DatabaseItem {
      */
     public abstract DatabaseItem pull();
 
+    /**
+     * Will update the local copy of the data from the
+     * database, if the implementation caches items this
+     * can be used to bypass the cache.
+     * @param forceRefresh Whether to always read from the database.
+     * @return This or a copy.
+     */
+    public DatabaseItem pull(boolean forceRefresh) {
+        return pull();
+    }
+
     /**
      * If the current item is available, this can
      * be used to check the result of an operation like
@@ -4,8 +4,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Database management.
@@ -13,6 +18,8 @@ import java.util.function.Consumer;
 @SuppressWarnings("rawtypes")
 public class DatabaseManager {
 
+    private static final Logger LOGGER = Logger.getLogger("veru-db");
+
     // databases
     final ArrayList<Database>       db = new ArrayList<>();
     final HashMap<String, Database> dbByName = new HashMap<>();
@@ -21,6 +28,22 @@ public class DatabaseManager {
     final ArrayList<DatabaseType<Database>>           dbt = new ArrayList<>();
     final HashMap<String, DatabaseType<Database>> dbtById = new HashMap<>();
 
+    // the shared executor for async database work
+    volatile DatabaseExecutor executor;
+    // whether the executor was created by this manager
+    // and should be shut down when replaced or closed
+    boolean ownsExecutor; // guarded by this
+
+    // the query metrics by operation name and database type
+    final ConcurrentHashMap<String, ConcurrentHashMap<DatabaseType<?>, QueryMetrics>> queryMetrics = new ConcurrentHashMap<>();
+
+    // whether query executions should be measured
+    volatile boolean metricsEnabled = true;
+
+    // the execution time in nanoseconds after which
+    // a query is logged as slow, disabled if zero or less
+    volatile long slowQueryThreshold = 0;
+
     /**
      * Get a list of all created databases.
      *
@@ -81,6 +104,182 @@ public class DatabaseManager {
         return this;
     }
 
+    /**
+     * Get the executor shared by all databases of this manager,
+     * by default this is a bounded pool created on first use.
+     *
+     * @return The executor.
+     */
+    public DatabaseExecutor executor() {
+        DatabaseExecutor ex = executor;
+        if (ex == null) {
+            synchronized (this) {
+                if ((ex = executor) == null) {
+                    executor = ex = DatabaseExecutor.bounded();
+                    ownsExecutor = true;
+                }
+            }
+        }
+
+        return ex;
+    }
+
+    /**
+     * Set the executor shared by all databases of this manager. The
+     * default executor is shut down if it is replaced, executors set
+     * through this are never shut down by the manager.
+     *
+     * @param executor The executor.
+     * @return This.
+     */
+    public DatabaseManager executor(DatabaseExecutor executor) {
+        DatabaseExecutor old;
+        synchronized (this) {
+            old = ownsExecutor && this.executor != executor ? this.executor : null;
+            this.executor = executor;
+            ownsExecutor = false;
+        }
+
+        if (old != null)
+            old.shutdown();
+        return this;
+    }
+
+    /**
+     * Set whether query executions should be measured.
+     *
+     * @param metricsEnabled Whether to measure queries.
+     * @return This.
+     */
+    public DatabaseManager metricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+        return this;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * Set the execution time after which a query is logged as slow,
+     * including its operation, database and parameters.
+     *
+     * @param time The threshold, zero or less to disable.
+     * @param unit The time unit.
+     * @return This.
+     */
+    public DatabaseManager slowQueryThreshold(long time, TimeUnit unit) {
+        this.slowQueryThreshold = unit.toNanos(time);
+        return this;
+    }
+
+    public long getSlowQueryThreshold(TimeUnit unit) {
+        return unit.convert(slowQueryThreshold, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get or create the metrics for the given operation on the given
+     * database type, so queries with the same operation for different
+     * types are measured separately.
+     *
+     * @param op The operation name.
+     * @param type The database type.
+     * @return The metrics.
+     */
+    public QueryMetrics queryMetrics(String op, DatabaseType<?> type) {
+        return queryMetrics.computeIfAbsent(op, __ -> new ConcurrentHashMap<>()).computeIfAbsent(type, __ -> {
+            QueryMetrics metrics = new QueryMetrics(op, type);
+            metrics.manager = this;
+            return metrics;
+        });
+    }
+
+    /**
+     * Get the metrics for the given operation on the given database type.
+     *
+     * @param op The operation name.
+     * @param type The database type.
+     * @return The metrics or null if the operation was not executed yet.
+     */
+    public QueryMetrics getQueryMetrics(String op, DatabaseType<?> type) {
+        Map<DatabaseType<?>, QueryMetrics> byType = queryMetrics.get(op);
+        return byType != null ? byType.get(type) : null;
+    }
+
+    /**
+     * Get the metrics for the given operation, which must
+     * only have been executed on one database type.
+     *
+     * @param op The operation name.
+     * @return The metrics or null if the operation was not executed yet.
+     * @throws IllegalStateException If the operation was executed on multiple types.
+     * @see #getQueryMetrics(String, DatabaseType)
+     */
+    public QueryMetrics getQueryMetrics(String op) {
+        Map<DatabaseType<?>, QueryMetrics> byType = queryMetrics.get(op);
+        if (byType == null || byType.isEmpty())
+            return null;
+        if (byType.size() > 1)
+            throw new IllegalStateException("operation '" + op + "' was executed on " + byType.size() + " database types");
+        return byType.values().iterator().next();
+    }
+
+    /**
+     * Get the metrics of all executed operations.
+     *
+     * @return The metrics.
+     */
+    public List<QueryMetrics> getAllQueryMetrics() {
+        List<QueryMetrics> list = new ArrayList<>();
+        for (Map<DatabaseType<?>, QueryMetrics> byType : queryMetrics.values())
+            list.addAll(byType.values());
+        return list;
+    }
+
+    /**
+     * Reset the metrics of all operations.
+     */
+    public void resetQueryMetrics() {
+        for (QueryMetrics metrics : getAllQueryMetrics())
+            metrics.reset();
+    }
+
+    // logs the given execution as a slow query
+    void logSlowQuery(DatabaseQuery<?, ?> query, Database database, Object vals,
+                      long nanos, long queueWaitNanos) {
+        if (!LOGGER.isLoggable(Level.WARNING))
+            return;
+        LOGGER.warning("Slow query '" + query.op + "' on database '" + (database != null ? database.name : null) +
+                "' took " + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms" +
+                (queueWaitNanos >= 0 ? " (queued " + TimeUnit.NANOSECONDS.toMillis(queueWaitNanos) + "ms)" : "") +
+                " with parameters " + vals);
+    }
+
+    /**
+     * Close all databases of this manager and shut down the default
+     * executor if it was created, queued work is still executed.
+     */
+    public void close() {
+        for (Database database : new ArrayList<>(db)) {
+            try {
+                database.close();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Failed to close database '" + database.name + "'", e);
+            }
+        }
+
+        DatabaseExecutor old;
+        synchronized (this) {
+            old = ownsExecutor ? executor : null;
+            if (old != null)
+                executor = null;
+            ownsExecutor = false;
+        }
+
+        if (old != null)
+            old.shutdown();
+    }
+
     /**
      * Get the global query pool.
      *
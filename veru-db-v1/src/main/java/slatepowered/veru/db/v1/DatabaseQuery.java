@@ -3,19 +3,58 @@ package slatepowered.veru.db.v1;
 import slatepowered.veru.data.Values;
 import slatepowered.veru.functional.TriFunction;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public class DatabaseQuery<R, D extends Database> {
 
-    Executor executor = Executors.newFixedThreadPool(2);
+    // the executor override for async execution,
+    // uses the database executor if null
+    Executor executor;
+
+    // the metrics of this query, resolved from the
+    // manager of the database it was last executed on
+    volatile QueryMetrics metrics;
+
+    // whether identical concurrent async executions
+    // share one execution, only safe for reads
+    volatile boolean coalesce = false;
+
+    // the in-flight coalesced executions by database and values
+    final ConcurrentHashMap<InFlightKey, InFlight<R>> inFlight = new ConcurrentHashMap<>();
+
+    // the cached results, null if results are not cached
+    volatile QueryResultCache resultCache;
+
+    // the cache tags invalidated by successful executions, null if none
+    volatile String[] invalidatedTags;
+
+    // the result caches by tag of the pool tree this query is in
+    volatile QueryCacheTags cacheTags;
 
     ////////////////////////////////////////////
 
     final String op;
     final DatabaseType<D> type;
+    // the function called with values, null if
+    // the query is called with arguments
     final TriFunction<DatabaseQuery<R, D>, D, Values, R> func;
+    // the function called with arguments, null if
+    // the query is called with values
+    final TriFunction<DatabaseQuery<R, D>, D, QueryArguments, R> argsFunc;
+
+    // the declared positional parameters, null if none
+    volatile QueryParameters parameters;
+
+    // the default timeout of executions in nanoseconds, 0 if none
+    volatile long timeoutNanos = 0;
 
     public DatabaseQuery(String op,
                          DatabaseType<D> type,
@@ -23,6 +62,28 @@ public class DatabaseQuery<R, D extends Database> {
         this.op   = op;
         this.type = type;
         this.func = func;
+        this.argsFunc = null;
+    }
+
+    /**
+     * Create a query which is called with typed arguments
+     * for the given parameters. Calls with {@link Values} are
+     * bound to the parameters by name.
+     *
+     * @param op The operation name.
+     * @param type The database type.
+     * @param parameters The parameters.
+     * @param func The function.
+     */
+    public DatabaseQuery(String op,
+                         DatabaseType<D> type,
+                         QueryParameters parameters,
+                         TriFunction<DatabaseQuery<R, D>, D, QueryArguments, R> func) {
+        this.op   = op;
+        this.type = type;
+        this.func = null;
+        this.argsFunc = func;
+        this.parameters = Objects.requireNonNull(parameters, "parameters").freeze();
     }
 
     public DatabaseType<D> getType() {
@@ -33,17 +94,597 @@ public class DatabaseQuery<R, D extends Database> {
         return op;
     }
 
+    public QueryParameters getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Declare the positional parameters of this query, which lets a
+     * query reading {@link Values} be called with arguments, which are
+     * converted to values by parameter name. No parameters can be
+     * added to the given parameters afterwards.
+     *
+     * @param parameters The parameters.
+     * @return This.
+     */
+    public DatabaseQuery<R, D> parameters(QueryParameters parameters) {
+        if (argsFunc != null && parameters != this.parameters)
+            throw new IllegalStateException("parameters of query '" + op + "' are fixed by its function");
+        this.parameters = parameters != null ? parameters.freeze() : null;
+        return this;
+    }
+
+    /**
+     * Create the arguments for a call of this query.
+     *
+     * @param args The values in parameter order.
+     * @return The arguments.
+     * @throws IllegalStateException If this query declares no parameters.
+     */
+    public QueryArguments arguments(Object... args) {
+        QueryParameters parameters = this.parameters;
+        if (parameters == null)
+            throw new IllegalStateException("query '" + op + "' declares no parameters");
+        return parameters.arguments(args);
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Set the executor to use for asynchronous execution of this
+     * query, by default the executor of the database is used, or
+     * the {@link DatabaseExecutor#shared()} executor without one.
+     *
+     * @param executor The executor or null to use the database executor.
+     * @return This.
+     */
+    public DatabaseQuery<R, D> executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    // gets the executor to run async work on the given database on
+    Executor executorFor(D db) {
+        if (executor != null)
+            return executor;
+        return db != null ? db.executor() : DatabaseExecutor.shared();
+    }
+
+    public boolean isCoalescing() {
+        return coalesce;
+    }
+
+    /**
+     * Set whether concurrent async executions of this query on the same
+     * database with equal values share one in-flight execution and its
+     * result, instead of each calling the database.
+     *
+     * This must only be enabled for queries which do not write, as
+     * collapsed calls are not executed. The shared execution has no
+     * deadline, the timeout of every caller only applies to its own
+     * future, and the execution is cancelled once all callers gave up.
+     *
+     * @param coalesce Whether to coalesce.
+     * @return This.
+     */
+    public DatabaseQuery<R, D> coalesce(boolean coalesce) {
+        this.coalesce = coalesce;
+        return this;
+    }
+
+    /**
+     * Cache the results of this query by database and values. The
+     * cached results are dropped after the given time to live or when
+     * a write query in the same pool tree invalidates one of the tags.
+     *
+     * Only use this for reads of which the results are not mutated.
+     *
+     * @param maxSize The maximum amount of cached results.
+     * @param ttl The time to live of a cached result.
+     * @param unit The time unit.
+     * @param tags The tags which invalidate the cache.
+     * @return This.
+     * @throws IllegalStateException If the results can not be cached, like cursors of a {@link StreamQuery}.
+     * @see #invalidates(String...)
+     */
+    public DatabaseQuery<R, D> cache(int maxSize, long ttl, TimeUnit unit, String... tags) {
+        if (!isCacheable())
+            throw new IllegalStateException("results of query '" + op + "' can not be cached");
+        QueryResultCache cache = new QueryResultCache(maxSize, ttl, unit, tags);
+        QueryResultCache old = resultCache;
+        QueryCacheTags cacheTags = this.cacheTags;
+        if (cacheTags != null) {
+            if (old != null)
+                cacheTags.unregister(old);
+            cacheTags.register(cache);
+        }
+
+        resultCache = cache;
+        return this;
+    }
+
+    // whether the results of this query can be cached
+    boolean isCacheable() {
+        return true;
+    }
+
+    /**
+     * Stop caching the results of this query.
+     *
+     * @return This.
+     */
+    public DatabaseQuery<R, D> noCache() {
+        QueryResultCache old = resultCache;
+        resultCache = null;
+        QueryCacheTags cacheTags = this.cacheTags;
+        if (old != null && cacheTags != null)
+            cacheTags.unregister(old);
+        return this;
+    }
+
+    /**
+     * Get the result cache of this query.
+     *
+     * @return The cache or null if results are not cached.
+     */
+    public QueryResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Declare this query as a write which invalidates the cached results
+     * of all queries with any of the given tags when it succeeds.
+     *
+     * @param tags The tags.
+     * @return This.
+     */
+    public DatabaseQuery<R, D> invalidates(String... tags) {
+        this.invalidatedTags = tags.length == 0 ? null : tags.clone();
+        return this;
+    }
+
+    // attaches this query to the cache tags of a pool tree
+    void attach(QueryCacheTags cacheTags) {
+        this.cacheTags = cacheTags;
+        QueryResultCache cache = resultCache;
+        if (cache != null)
+            cacheTags.register(cache);
+    }
+
+    // invalidates the declared tags after a successful execution
+    private void invalidateTags() {
+        String[] tags = invalidatedTags;
+        QueryCacheTags cacheTags = this.cacheTags;
+        if (tags != null && cacheTags != null)
+            cacheTags.invalidate(tags);
+    }
+
+    /**
+     * Get the default timeout of executions.
+     *
+     * @param unit The time unit.
+     * @return The timeout or 0 if executions have no deadline.
+     */
+    public long getTimeout(TimeUnit unit) {
+        return unit.convert(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Set the default timeout of executions of this query. Async calls
+     * not completed within it fail with a {@link QueryTimeoutException},
+     * and the remaining time is passed to the database driver as
+     * the deadline of the operation by implementations supporting it.
+     *
+     * Queued executions are skipped if their deadline passed before they
+     * started, running executions are not interrupted.
+     *
+     * @param timeout The timeout or 0 for none.
+     * @param unit The time unit.
+     * @return This.
+     */
+    public DatabaseQuery<R, D> timeout(long timeout, TimeUnit unit) {
+        if (timeout < 0)
+            throw new IllegalArgumentException("negative timeout " + timeout);
+        this.timeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * Get the metrics of this query in the manager of the
+     * database it was last executed on.
+     *
+     * @return The metrics or null if the query was not executed yet.
+     */
+    public QueryMetrics getMetrics() {
+        return metrics;
+    }
+
     public R doSync(D db, Values vals) {
-        final Values fvals = vals == null ? new Values() : vals;
-        return func.apply(this, db, fvals);
+        return sync(db, vals == null ? new Values() : vals, deadline(timeoutNanos));
+    }
+
+    /**
+     * Execute this query on the calling thread with the given arguments.
+     *
+     * @param db The database.
+     * @param args The arguments.
+     * @return The result.
+     */
+    public R doSync(D db, QueryArguments args) {
+        return sync(db, args, deadline(timeoutNanos));
     }
 
     public CompletableFuture<R> doAsync(final D db, final Values vals) {
-        final Values fvals = vals == null ? new Values() : vals;
-        return CompletableFuture.supplyAsync(
-                () -> func.apply(this, db, fvals),
-                executor
-        );
+        return async(db, vals == null ? new Values() : vals, timeoutNanos);
+    }
+
+    /**
+     * Execute this query asynchronously with the given timeout instead
+     * of the default timeout of this query.
+     *
+     * @param db The database.
+     * @param vals The values.
+     * @param timeout The timeout or 0 for none.
+     * @param unit The time unit.
+     * @return The future of the result, which fails with a
+     *         {@link QueryTimeoutException} if the timeout passes.
+     * @see #timeout(long, TimeUnit)
+     */
+    public CompletableFuture<R> doAsync(final D db, final Values vals, long timeout, TimeUnit unit) {
+        return async(db, vals == null ? new Values() : vals, unit.toNanos(timeout));
+    }
+
+    /**
+     * Execute this query asynchronously with the given arguments.
+     *
+     * @param db The database.
+     * @param args The arguments.
+     * @return The future of the result.
+     */
+    public CompletableFuture<R> doAsync(final D db, final QueryArguments args) {
+        return async(db, args, timeoutNanos);
+    }
+
+    /**
+     * Execute this query asynchronously with the given arguments
+     * and timeout instead of the default timeout of this query.
+     *
+     * @param db The database.
+     * @param args The arguments.
+     * @param timeout The timeout or 0 for none.
+     * @param unit The time unit.
+     * @return The future of the result.
+     */
+    public CompletableFuture<R> doAsync(final D db, final QueryArguments args, long timeout, TimeUnit unit) {
+        return async(db, args, unit.toNanos(timeout));
+    }
+
+    // gets the deadline for the given timeout, 0 if none
+    private static long deadline(long timeoutNanos) {
+        if (timeoutNanos <= 0)
+            return 0;
+        long deadline = System.nanoTime() + timeoutNanos;
+        return deadline == 0 ? 1 : deadline;
+    }
+
+    // executes with the given values or arguments on the calling thread
+    @SuppressWarnings("unchecked")
+    private R sync(D db, Object input, long deadline) {
+        QueryResultCache cache = resultCache;
+        if (cache == null) {
+            R result = execute(db, input, false, 0, deadline);
+            invalidateTags();
+            return result;
+        }
+
+        InFlightKey key = new InFlightKey(this, db, input);
+        Object cached = cache.get(key);
+        if (cached != null)
+            return cached == QueryResultCache.NULL ? null : (R) cached;
+        long generation = cache.generation();
+        R result = execute(db, input, false, 0, deadline);
+        cache.put(key, result, generation);
+        invalidateTags();
+        return result;
+    }
+
+    // executes with the given values or arguments asynchronously
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<R> async(D db, Object input, long timeoutNanos) {
+        long deadline = deadline(timeoutNanos);
+        QueryResultCache cache = resultCache;
+        CompletableFuture<R> future;
+        if (cache == null) {
+            CompletableFuture<R> source = call(db, input, deadline);
+            future = invalidatedTags == null ? source : cancelling(source.thenApply(result -> {
+                invalidateTags();
+                return result;
+            }), source);
+        } else {
+            InFlightKey key = new InFlightKey(this, db, input);
+            Object cached = cache.get(key);
+            if (cached != null)
+                return CompletableFuture.completedFuture(cached == QueryResultCache.NULL ? null : (R) cached);
+            long generation = cache.generation();
+            CompletableFuture<R> source = call(db, input, deadline);
+            future = cancelling(source.thenApply(result -> {
+                cache.put(key, result, generation);
+                invalidateTags();
+                return result;
+            }), source);
+        }
+
+        if (deadline == 0)
+            return future;
+        QueryMetrics m = metrics(db);
+        return QueryTimer.timeout(future, timeoutNanos,
+                "query '" + op + "' timed out after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms",
+                m != null ? m.timeouts::increment : null);
+    }
+
+    // cancels the source execution when the dependent future is
+    // cancelled or timed out, so it is skipped if not started yet
+    private static <T> CompletableFuture<T> cancelling(CompletableFuture<T> dependent, CompletableFuture<?> source) {
+        dependent.whenComplete((result, t) -> {
+            if (t != null && !source.isDone())
+                source.cancel(false);
+        });
+
+        return dependent;
+    }
+
+    // executes asynchronously, joining an identical
+    // in-flight execution if coalescing
+    private CompletableFuture<R> call(D db, Object input, long deadline) {
+        if (!coalesce)
+            return submit(db, input, deadline);
+
+        InFlightKey key = new InFlightKey(this, db, input);
+        for (;;) {
+            // join an identical in-flight execution
+            InFlight<R> shared = inFlight.get(key);
+            if (shared != null) {
+                if (!shared.join()) {
+                    // all callers gave up on it
+                    inFlight.remove(key, shared);
+                    continue;
+                }
+
+                QueryMetrics m = metrics(db);
+                if (m != null)
+                    m.collapsed.increment();
+                return shared.dependent();
+            }
+
+            InFlight<R> created = new InFlight<>();
+            if (inFlight.putIfAbsent(key, created) != null)
+                continue;
+
+            // the shared execution must not time out with the deadline
+            // of this caller, as later callers may wait longer
+            try {
+                CompletableFuture<R> source = submit(db, input, 0);
+                created.source = source;
+                source.whenComplete((result, t) -> {
+                    inFlight.remove(key, created);
+                    if (t != null) created.future.completeExceptionally(t);
+                    else created.future.complete(result);
+                });
+            } catch (RuntimeException e) {
+                inFlight.remove(key, created);
+                created.future.completeExceptionally(e);
+                throw e;
+            }
+
+            return created.dependent();
+        }
+    }
+
+    // submits the execution to the executor, through
+    // the concurrency limiter of the database if set
+    private CompletableFuture<R> submit(D db, Object input, long deadline) {
+        ConcurrencyLimiter limiter = db != null ? db.concurrencyLimiter : null;
+        if (limiter == null)
+            return execute(db, input, deadline);
+        return limiter.submit(() -> execute(db, input, deadline));
+    }
+
+    // runs the execution on the executor, skipping it if
+    // it was cancelled or its deadline passed while queued
+    private CompletableFuture<R> execute(D db, Object input, long deadline) {
+        final long queuedAt = System.nanoTime();
+        final CompletableFuture<R> future = new CompletableFuture<>();
+        executorFor(db).execute(() -> {
+            if (future.isDone()) {
+                QueryMetrics m = metrics(db);
+                if (m != null)
+                    m.cancelled.increment();
+                return;
+            }
+
+            if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+                QueryMetrics m = metrics(db);
+                if (future.completeExceptionally(new QueryTimeoutException("query '" + op + "' timed out while queued")) && m != null) {
+                    m.cancelled.increment();
+                    m.timeouts.increment();
+                }
+
+                return;
+            }
+
+            try {
+                future.complete(execute(db, input, true, queuedAt, deadline));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+
+        return future;
+    }
+
+    // gets or resolves the metrics, null if disabled
+    private QueryMetrics metrics(D db) {
+        DatabaseManager manager = db != null ? db.manager() : null;
+        if (manager == null || !manager.metricsEnabled)
+            return null;
+        QueryMetrics m = metrics;
+        if (m == null || m.manager != manager)
+            metrics = m = manager.queryMetrics(op, type);
+        return m;
+    }
+
+    // calls the function matching the input, converting it if needed
+    private R invoke(D db, Object input) {
+        if (input instanceof QueryArguments) {
+            QueryArguments args = (QueryArguments) input;
+            return argsFunc != null ? argsFunc.apply(this, db, args) : func.apply(this, db, args.toValues());
+        }
+
+        Values vals = (Values) input;
+        return func != null ? func.apply(this, db, vals) : argsFunc.apply(this, db, parameters.arguments(vals));
+    }
+
+    // executes the query function in its context
+    R execute(D db, Object input, boolean async, long queuedAt, long deadline) {
+        QueryContext context = QueryContext.enter(this, db, input, deadline);
+        try {
+            return measure(db, input, async, queuedAt);
+        } finally {
+            context.exit();
+        }
+    }
+
+    // executes the query function, measuring it if enabled
+    private R measure(D db, Object input, boolean async, long queuedAt) {
+        // metrics may be disabled concurrently, so only check once
+        QueryMetrics m = metrics(db);
+        if (m == null)
+            return invoke(db, input);
+
+        DatabaseManager manager = db.manager();
+        long start = System.nanoTime();
+        long queueWait = -1;
+        if (async) {
+            queueWait = start - queuedAt;
+            m.queueWait.record(queueWait);
+        }
+
+        boolean failed = true;
+        try {
+            R result = invoke(db, input);
+            failed = false;
+            return result;
+        } finally {
+            long time = System.nanoTime() - start;
+            m.record(time, failed);
+
+            long threshold = manager.slowQueryThreshold;
+            if (threshold > 0 && time >= threshold)
+                manager.logSlowQuery(this, db, input, time, queueWait);
+        }
+    }
+
+    /**
+     * An in-flight coalesced execution and the amount
+     * of callers which still wait for its result.
+     */
+    static final class InFlight<R> {
+
+        // completed with the result of the execution
+        final CompletableFuture<R> future = new CompletableFuture<>();
+
+        // the submitted execution, cancelled once no caller waits
+        volatile CompletableFuture<R> source;
+
+        // the amount of callers waiting
+        final AtomicInteger waiting = new AtomicInteger(1);
+
+        // registers another caller, false if all callers
+        // gave up and the execution was cancelled
+        boolean join() {
+            for (;;) {
+                int n = waiting.get();
+                if (n == 0)
+                    return false;
+                if (waiting.compareAndSet(n, n + 1))
+                    return true;
+            }
+        }
+
+        // creates the future of a caller, so completing or cancelling it
+        // does not affect the others, and cancels the execution once the
+        // last waiting caller gave up
+        CompletableFuture<R> dependent() {
+            CompletableFuture<R> dependent = future.thenApply(Function.identity());
+            dependent.whenComplete((result, t) -> {
+                if (t != null && !future.isDone() && waiting.decrementAndGet() == 0) {
+                    CompletableFuture<R> source = this.source;
+                    if (source != null)
+                        source.cancel(false);
+                }
+            });
+
+            return dependent;
+        }
+
+    }
+
+    /**
+     * Identifies coalesced executions and cached results, holding
+     * a copy of the values or arguments as they may be mutated later.
+     *
+     * Calls with values and with arguments are keyed by what the function
+     * receives, so the same call made either way shares its result.
+     */
+    static final class InFlightKey {
+
+        final Database database;
+        final Object values;
+        final int hash;
+
+        InFlightKey(DatabaseQuery<?, ?> query, Database database, Object input) {
+            this.database = database;
+            this.values = keyOf(query, input);
+            this.hash = System.identityHashCode(database) * 31 + this.values.hashCode();
+        }
+
+        // converts the input like it is passed to the function
+        static Object keyOf(DatabaseQuery<?, ?> query, Object input) {
+            if (input instanceof QueryArguments) {
+                QueryArguments args = (QueryArguments) input;
+                return query.argsFunc != null ?
+                        Arrays.asList(args.values.clone()) :
+                        new HashMap<>(args.toValues().getMap());
+            }
+
+            Values vals = (Values) input;
+            QueryParameters parameters = query.parameters;
+            if (query.argsFunc != null && parameters != null) {
+                try {
+                    return Arrays.asList(parameters.arguments(vals).values);
+                } catch (IllegalArgumentException e) {
+                    // fails when executed
+                }
+            }
+
+            return new HashMap<>(vals.getMap());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof InFlightKey)) return false;
+            InFlightKey key = (InFlightKey) o;
+            return database == key.database && hash == key.hash && values.equals(key.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
     }
 
 }
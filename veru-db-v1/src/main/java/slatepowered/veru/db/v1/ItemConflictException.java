@@ -0,0 +1,30 @@
+package slatepowered.veru.db.v1;
+
+/**
+ * Thrown when a conditional push of a {@link DatabaseItem} fails
+ * because the stored value of the compared field did not match the
+ * expected value, meaning the item was changed concurrently.
+ */
+public class ItemConflictException extends RuntimeException {
+
+    // the key of the item
+    final Object key;
+
+    // the field which was compared
+    final String field;
+
+    public ItemConflictException(Object key, String field, Object expected) {
+        super("item " + key + " was modified concurrently, expected '" + field + "' to be " + expected);
+        this.key = key;
+        this.field = field;
+    }
+
+    public Object getKey() {
+        return key;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+}
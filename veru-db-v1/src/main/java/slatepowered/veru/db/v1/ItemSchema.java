@@ -0,0 +1,94 @@
+package slatepowered.veru.db.v1;
+
+import java.util.*;
+
+/**
+ * Declares the fields of a {@link DatabaseItem} which are required
+ * by the user of the item, so implementations can load only those
+ * fields instead of the full item.
+ */
+public class ItemSchema {
+
+    /**
+     * Create a schema declaring the given fields, which
+     * may be dotted paths to nested values.
+     *
+     * @param fields The fields.
+     * @return The schema.
+     */
+    public static ItemSchema of(String... fields) {
+        return new ItemSchema(Arrays.asList(fields));
+    }
+
+    /**
+     * Create a schema declaring the given fields.
+     *
+     * @param fields The fields.
+     * @return The schema.
+     */
+    public static ItemSchema of(Collection<String> fields) {
+        return new ItemSchema(fields);
+    }
+
+    ///////////////////////////////////
+
+    // the declared fields
+    final Set<String> fields;
+
+    ItemSchema(Collection<String> fields) {
+        if (fields.isEmpty())
+            throw new IllegalArgumentException("schema must declare at least one field");
+        this.fields = Collections.unmodifiableSet(new LinkedHashSet<>(fields));
+    }
+
+    public Set<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * Check whether the value at the given path is fully covered
+     * by the fields in this schema, which is the case if the path
+     * or any of its parents is declared.
+     *
+     * @param path The path.
+     * @return Whether the path is included.
+     */
+    public boolean includes(String path) {
+        return includes(fields, path);
+    }
+
+    /**
+     * Check whether the value at the given path is fully
+     * covered by the given set of fields.
+     *
+     * @param fields The fields.
+     * @param path The path.
+     * @return Whether the path is included.
+     */
+    public static boolean includes(Set<String> fields, String path) {
+        if (fields.contains(path))
+            return true;
+        for (int i = path.indexOf('.'); i != -1; i = path.indexOf('.', i + 1))
+            if (fields.contains(path.substring(0, i)))
+                return true;
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return fields.equals(((ItemSchema) o).fields);
+    }
+
+    @Override
+    public int hashCode() {
+        return fields.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "ItemSchema" + fields;
+    }
+
+}
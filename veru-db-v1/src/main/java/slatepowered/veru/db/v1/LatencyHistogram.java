@@ -0,0 +1,138 @@
+package slatepowered.veru.db.v1;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of durations in nanoseconds using log-linear
+ * buckets: every power of two is split into 8 linear sub buckets,
+ * giving percentiles with a relative error of at most 12.5%.
+ */
+public class LatencyHistogram {
+
+    // the amount of sub buckets per power of two, as bits
+    static final int SUB_BITS = 3;
+    static final int SUB_COUNT = 1 << SUB_BITS;
+    static final int BUCKET_COUNT = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+    // calculates the bucket index for the given value
+    static int indexOf(long value) {
+        if (value < SUB_COUNT)
+            return (int) Math.max(0, value);
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    // calculates the upper bound of the values in the given bucket
+    static long upperBoundOf(int index) {
+        if (index < SUB_COUNT)
+            return index;
+        int exponent = index / SUB_COUNT + SUB_BITS - 1;
+        long sub = index % SUB_COUNT;
+        long lower = (SUB_COUNT + sub) << (exponent - SUB_BITS);
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    ///////////////////////////////////
+
+    // the counts per bucket
+    final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    // the total count, sum and maximum
+    final LongAdder count = new LongAdder();
+    final LongAdder sum = new LongAdder();
+    final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Record the given duration.
+     *
+     * @param nanos The duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        buckets.incrementAndGet(indexOf(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax(TimeUnit unit) {
+        return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public double getMean(TimeUnit unit) {
+        long c = count.sum();
+        if (c == 0)
+            return 0;
+        return (double) sum.sum() / c / unit.toNanos(1);
+    }
+
+    /**
+     * Get the value at the given percentile, as the upper
+     * bound of the bucket the percentile falls into.
+     *
+     * @param percentile The percentile between 0 and 100.
+     * @param unit The unit to return the value in.
+     * @return The value.
+     */
+    public double getPercentile(double percentile, TimeUnit unit) {
+        long total = 0;
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            total += counts[i] = buckets.get(i);
+        if (total == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(percentile / 100 * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] != 0)
+                return (double) Math.min(upperBoundOf(i), max.get()) / unit.toNanos(1);
+        }
+
+        return (double) max.get() / unit.toNanos(1);
+    }
+
+    public double getP50(TimeUnit unit) {
+        return getPercentile(50, unit);
+    }
+
+    public double getP99(TimeUnit unit) {
+        return getPercentile(99, unit);
+    }
+
+    public double getP999(TimeUnit unit) {
+        return getPercentile(99.9, unit);
+    }
+
+    /**
+     * Reset all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            buckets.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    @Override
+    public String toString() {
+        TimeUnit unit = TimeUnit.MICROSECONDS;
+        return "LatencyHistogram{" +
+                "count=" + getCount() +
+                ", p50=" + getP50(unit) + "us" +
+                ", p99=" + getP99(unit) + "us" +
+                ", p999=" + getP999(unit) + "us" +
+                ", max=" + getMax(unit) + "us" +
+                '}';
+    }
+
+}
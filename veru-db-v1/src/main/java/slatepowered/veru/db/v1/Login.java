@@ -1,11 +1,22 @@
 package slatepowered.veru.db.v1;
 
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
 public class Login {
 
     public static URILogin ofURI(String uri, String db) {
         return new URILogin(uri, db);
     }
 
+    public static PathLogin ofPath(Path path) {
+        return new PathLogin(path);
+    }
+
+    public static JdbcLogin ofJdbc(String url, String username, String password) {
+        return new JdbcLogin(url, username, password);
+    }
+
     //////////////////////
 
     public static class URILogin extends Login {
@@ -13,6 +24,19 @@ public class Login {
         protected final String uri;
         protected final String db;
 
+        // whether to share the client with other
+        // databases logged in with the same settings
+        protected boolean shareClient = true;
+        // the connection pool bounds, -1 for the driver default
+        protected int minPoolSize = -1;
+        protected int maxPoolSize = -1;
+        // the time an idle pooled connection is kept open
+        // in milliseconds, -1 for the driver default
+        protected long maxConnectionIdleMillis = -1;
+        // whether to open the minimum amount of
+        // connections on login instead of on first use
+        protected boolean warmUp = false;
+
         public URILogin(String uri, String db) {
             this.uri = uri;
             this.db  = db;
@@ -26,6 +50,119 @@ public class Login {
             return db;
         }
 
+        /**
+         * Set whether the client may be shared with other databases
+         * logged in to the same URI with the same pool settings, in
+         * which case the client is closed when the last database using
+         * it is closed.
+         *
+         * @param shareClient Whether to share the client.
+         * @return This.
+         */
+        public URILogin shareClient(boolean shareClient) {
+            this.shareClient = shareClient;
+            return this;
+        }
+
+        public boolean isShareClient() {
+            return shareClient;
+        }
+
+        /**
+         * Set the bounds of the connection pool per server.
+         *
+         * @param minPoolSize The minimum amount of open connections.
+         * @param maxPoolSize The maximum amount of open connections.
+         * @return This.
+         */
+        public URILogin poolSize(int minPoolSize, int maxPoolSize) {
+            if (minPoolSize < 0 || maxPoolSize < 1 || minPoolSize > maxPoolSize)
+                throw new IllegalArgumentException("invalid pool size bounds " + minPoolSize + ".." + maxPoolSize);
+            this.minPoolSize = minPoolSize;
+            this.maxPoolSize = maxPoolSize;
+            return this;
+        }
+
+        public int getMinPoolSize() {
+            return minPoolSize;
+        }
+
+        public int getMaxPoolSize() {
+            return maxPoolSize;
+        }
+
+        public URILogin maxConnectionIdleTime(long time, TimeUnit unit) {
+            this.maxConnectionIdleMillis = unit.toMillis(time);
+            return this;
+        }
+
+        public long getMaxConnectionIdleMillis() {
+            return maxConnectionIdleMillis;
+        }
+
+        /**
+         * Set whether to connect to the servers and fill the pool
+         * to its minimum size on login, so the first queries
+         * don't pay for opening connections.
+         *
+         * @param warmUp Whether to warm up the pool.
+         * @return This.
+         */
+        public URILogin warmUp(boolean warmUp) {
+            this.warmUp = warmUp;
+            return this;
+        }
+
+        public boolean isWarmUp() {
+            return warmUp;
+        }
+
+    }
+
+    /**
+     * Login for embedded databases stored in a directory.
+     */
+    public static class PathLogin extends Login {
+
+        protected final Path path;
+
+        public PathLogin(Path path) {
+            this.path = path;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+    }
+
+    /**
+     * Login for SQL databases through JDBC.
+     */
+    public static class JdbcLogin extends Login {
+
+        protected final String url;
+        protected final String username;
+        protected final String password;
+
+        public JdbcLogin(String url, String username, String password) {
+            this.url      = url;
+            this.username = username;
+            this.password = password;
+        }
+
+        public String getURL() {
+            return url;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
     }
 
 }
@@ -0,0 +1,195 @@
+package slatepowered.veru.db.v1;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+
+/**
+ * A size bounded, least recently used cache where
+ * every entry also expires after a fixed time to live.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+public class LruCache<K, V> {
+
+    // the maximum amount of entries
+    final int maxSize;
+
+    // the time to live of an entry in nanoseconds,
+    // or a value of zero or less for no expiry
+    final long ttl;
+
+    // the entries in access order
+    final LinkedHashMap<K, CachedValue<V>> map;
+
+    /* Statistics */
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+    final LongAdder expirations = new LongAdder();
+
+    public LruCache(int maxSize, long ttl, TimeUnit unit) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("max size must be at least 1");
+        this.maxSize = maxSize;
+        this.ttl = unit.toNanos(ttl);
+        this.map = new LinkedHashMap<K, CachedValue<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+                if (size() > LruCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the value cached for the given key, counting a hit
+     * or miss.
+     *
+     * @param key The key.
+     * @return The value or null if absent or expired.
+     */
+    public V get(K key) {
+        synchronized (map) {
+            CachedValue<V> entry = map.get(key);
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+
+            if (ttl > 0 && entry.isExpired(System.nanoTime())) {
+                map.remove(key);
+                expirations.increment();
+                misses.increment();
+                return null;
+            }
+
+            hits.increment();
+            return entry.value;
+        }
+    }
+
+    /**
+     * Put the given value in the cache, evicting the least
+     * recently used entry if the cache is full.
+     *
+     * @param key The key.
+     * @param value The value.
+     */
+    public void put(K key, V value) {
+        long expiresAt = System.nanoTime() + ttl;
+        synchronized (map) {
+            map.put(key, new CachedValue<>(value, expiresAt));
+        }
+    }
+
+    /**
+     * Remove the entry for the given key.
+     *
+     * @param key The key.
+     */
+    public void invalidate(K key) {
+        synchronized (map) {
+            map.remove(key);
+        }
+    }
+
+    /**
+     * Remove all entries matching the given predicate.
+     *
+     * @param predicate The predicate.
+     */
+    public void invalidateIf(BiPredicate<K, V> predicate) {
+        synchronized (map) {
+            Iterator<Map.Entry<K, CachedValue<V>>> iterator = map.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<K, CachedValue<V>> entry = iterator.next();
+                if (predicate.test(entry.getKey(), entry.getValue().value))
+                    iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void invalidateAll() {
+        synchronized (map) {
+            map.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * Get the ratio of hits to total lookups.
+     *
+     * @return The hit ratio or 0 if there were no lookups.
+     */
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "LruCache{" +
+                "size=" + size() +
+                ", maxSize=" + maxSize +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                ", expirations=" + getExpirations() +
+                '}';
+    }
+
+    static final class CachedValue<V> {
+
+        final V value;
+        final long expiresAt;
+
+        CachedValue(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+
+    }
+
+}
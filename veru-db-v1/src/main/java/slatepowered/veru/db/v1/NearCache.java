@@ -0,0 +1,359 @@
+package slatepowered.veru.db.v1;
+
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps designated items resident in memory and refreshes them in the
+ * background before they expire (refresh-ahead), so reading them never
+ * waits on the database.
+ *
+ * Every refresh pulls a new item from the loader and replaces the cached
+ * one, so items returned by {@link #get(Object)} are never changed after
+ * they are published and must be treated as read-only. If a refresh fails
+ * the previous item stays readable and the refresh is retried.
+ *
+ * Refreshes are scheduled by time, change notifications like MongoDB change
+ * streams can additionally request them through {@link #refresh(Object)}.
+ *
+ * @param <I> The item type.
+ */
+public class NearCache<I extends DatabaseItem> implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger("veru-db");
+
+    // a pinned item
+    final class Entry {
+
+        final Object key;
+        final Supplier<? extends I> loader;
+
+        // the current item and the System#nanoTime it was loaded at
+        volatile I item;
+        volatile long loadedAt;
+
+        // the future completed by the next refresh, null
+        // if no refresh was requested since the last one
+        final AtomicReference<CompletableFuture<I>> pending = new AtomicReference<>();
+
+        // whether a refresh is running on the scheduler
+        final AtomicBoolean running = new AtomicBoolean();
+
+        // the scheduled refresh
+        volatile ScheduledFuture<?> scheduled;
+
+        volatile boolean unpinned;
+
+        Entry(Object key, Supplier<? extends I> loader) {
+            this.key = key;
+            this.loader = loader;
+        }
+
+    }
+
+    // the database the items are in
+    final Database database;
+
+    // the time after which an item counts as stale in nanoseconds
+    final long ttl;
+
+    // the time after loading at which the item is refreshed in nanoseconds
+    volatile long refreshAfter;
+
+    // the delay before retrying a failed refresh in nanoseconds
+    volatile long retryDelay;
+
+    // the pinned items by key
+    final ConcurrentHashMap<Object, Entry> entries = new ConcurrentHashMap<>();
+
+    // schedules and runs the refreshes, never on the thread reading
+    // the cache, which the database executor may fall back to
+    final ScheduledThreadPoolExecutor scheduler;
+
+    volatile boolean closed = false;
+
+    /* Statistics */
+    final LongAdder hits = new LongAdder();
+    final LongAdder staleReads = new LongAdder();
+    final LongAdder refreshes = new LongAdder();
+    final LongAdder refreshFailures = new LongAdder();
+
+    /**
+     * Create a near cache refreshing its items at 80% of the
+     * given time to live.
+     *
+     * @param database The database the items are in.
+     * @param ttl The time after which an item counts as stale.
+     * @param unit The time unit.
+     */
+    public NearCache(Database database, long ttl, TimeUnit unit) {
+        if (ttl <= 0)
+            throw new IllegalArgumentException("ttl must be positive");
+        this.database = Objects.requireNonNull(database, "database");
+        this.ttl = unit.toNanos(ttl);
+        this.refreshAfter = this.ttl / 5 * 4;
+        this.retryDelay = Math.min(this.ttl / 10, TimeUnit.SECONDS.toNanos(1));
+        this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "veru-db-near-cache-" + database.name());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Set at which fraction of the time to live items are refreshed.
+     *
+     * @param ratio The ratio between 0 and 1.
+     * @return This.
+     */
+    public NearCache<I> refreshAhead(double ratio) {
+        if (ratio <= 0 || ratio > 1)
+            throw new IllegalArgumentException("refresh ratio must be in (0, 1]");
+        this.refreshAfter = (long) (ttl * ratio);
+        return this;
+    }
+
+    public NearCache<I> retryDelay(long delay, TimeUnit unit) {
+        this.retryDelay = unit.toNanos(delay);
+        return this;
+    }
+
+    /**
+     * Pin the item with the given key, loading it on the calling thread
+     * if it is not pinned yet. The loader is called for every refresh
+     * and should return a new item which is then pulled.
+     *
+     * Entries are only published once loaded, so concurrent pins of the
+     * same key may both load but only the first one is kept.
+     *
+     * @param key The key.
+     * @param loader The loader creating the item.
+     * @return The current item.
+     */
+    public I pin(Object key, Supplier<? extends I> loader) {
+        if (closed)
+            throw new IllegalStateException("near cache is closed");
+        Entry existing = entries.get(key);
+        if (existing != null)
+            return existing.item;
+
+        Entry entry = new Entry(key, loader);
+        load(entry);
+        existing = entries.putIfAbsent(key, entry);
+        if (existing != null)
+            return existing.item;
+
+        schedule(entry, refreshAfter);
+        return entry.item;
+    }
+
+    /**
+     * Stop keeping the item with the given key resident.
+     *
+     * @param key The key.
+     * @return Whether it was pinned.
+     */
+    public boolean unpin(Object key) {
+        Entry entry = entries.remove(key);
+        if (entry == null)
+            return false;
+        entry.unpinned = true;
+        ScheduledFuture<?> scheduled = entry.scheduled;
+        if (scheduled != null)
+            scheduled.cancel(false);
+        return true;
+    }
+
+    public boolean isPinned(Object key) {
+        return entries.containsKey(key);
+    }
+
+    public Set<Object> keys() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * Get the current item for the given key without waiting on the
+     * database. A stale item is still returned if refreshing it failed
+     * and a refresh is requested.
+     *
+     * @param key The key.
+     * @return The item or null if not pinned.
+     */
+    public I get(Object key) {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+        hits.increment();
+        if (System.nanoTime() - entry.loadedAt > ttl) {
+            staleReads.increment();
+            refresh(entry);
+        }
+
+        return entry.item;
+    }
+
+    /**
+     * Request the item with the given key to be refreshed in the background,
+     * for example when it is known to have changed. Requests
+     * while a refresh is running cause another refresh after it.
+     *
+     * @param key The key.
+     * @return The future of the refreshed item or null if not pinned.
+     */
+    public CompletableFuture<I> refresh(Object key) {
+        Entry entry = entries.get(key);
+        return entry != null ? refresh(entry) : null;
+    }
+
+    /**
+     * Request all pinned items to be refreshed.
+     *
+     * @return The future completed when all were refreshed.
+     */
+    public CompletableFuture<Void> refreshAll() {
+        return CompletableFuture.allOf(entries.values().stream()
+                .map(this::refresh)
+                .toArray(CompletableFuture[]::new));
+    }
+
+    private CompletableFuture<I> refresh(Entry entry) {
+        CompletableFuture<I> future = new CompletableFuture<>();
+        for (;;) {
+            CompletableFuture<I> pending = entry.pending.get();
+            if (pending != null)
+                return pending;
+            if (entry.pending.compareAndSet(null, future))
+                break;
+        }
+
+        if (entry.running.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(() -> run(entry));
+            } catch (RejectedExecutionException e) {
+                // closed concurrently, the current item stays readable
+                entry.running.set(false);
+                entry.pending.compareAndSet(future, null);
+                future.complete(entry.item);
+            }
+        }
+
+        return future;
+    }
+
+    // performs the requested refreshes one at a time
+    private void run(Entry entry) {
+        for (;;) {
+            CompletableFuture<I> future = entry.pending.getAndSet(null);
+            if (future == null) {
+                entry.running.set(false);
+                // a refresh may have been requested after
+                // the check but before clearing the flag
+                if (entry.pending.get() != null && entry.running.compareAndSet(false, true))
+                    continue;
+                return;
+            }
+
+            if (entry.unpinned || closed) {
+                future.complete(entry.item);
+                continue;
+            }
+
+            try {
+                load(entry);
+                schedule(entry, refreshAfter);
+                future.complete(entry.item);
+            } catch (Throwable t) {
+                refreshFailures.increment();
+                LOGGER.log(Level.WARNING, "Failed to refresh near cached item '" + entry.key + "' in database " + database.name(), t);
+                schedule(entry, retryDelay);
+                future.completeExceptionally(t);
+            }
+        }
+    }
+
+    // loads a new item and publishes it
+    private void load(Entry entry) {
+        I item = entry.loader.get();
+        @SuppressWarnings("unchecked")
+        I pulled = (I) item.pull(true);
+        entry.loadedAt = System.nanoTime();
+        entry.item = pulled != null ? pulled : item;
+        refreshes.increment();
+    }
+
+    // schedules the next refresh of the entry
+    private void schedule(Entry entry, long delay) {
+        if (entry.unpinned || closed)
+            return;
+        ScheduledFuture<?> previous = entry.scheduled;
+        if (previous != null)
+            previous.cancel(false);
+        try {
+            entry.scheduled = scheduler.schedule(() -> { refresh(entry); }, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed concurrently
+        }
+    }
+
+    public Database getDatabase() {
+        return database;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the amount of reads which returned an item older than
+     * the time to live, because refreshing it failed or lagged.
+     *
+     * @return The amount of stale reads.
+     */
+    public long getStaleReads() {
+        return staleReads.sum();
+    }
+
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    public long getRefreshFailures() {
+        return refreshFailures.sum();
+    }
+
+    /**
+     * Stop refreshing all items, the items stay readable.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "NearCache{" +
+                "size=" + size() +
+                ", hits=" + getHits() +
+                ", staleReads=" + getStaleReads() +
+                ", refreshes=" + getRefreshes() +
+                ", refreshFailures=" + getRefreshFailures() +
+                '}';
+    }
+
+}
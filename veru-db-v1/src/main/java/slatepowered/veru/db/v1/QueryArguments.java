@@ -0,0 +1,98 @@
+package slatepowered.veru.db.v1;
+
+import slatepowered.veru.data.Values;
+
+import java.util.Arrays;
+
+/**
+ * The arguments of one call of a {@link DatabaseQuery} by the
+ * position of its {@link QueryParameters}.
+ *
+ * @see QueryParameters#arguments(Object...)
+ */
+@SuppressWarnings("unchecked")
+public final class QueryArguments {
+
+    // the declared parameters
+    final QueryParameters parameters;
+
+    // the values by parameter index
+    final Object[] values;
+
+    QueryArguments(QueryParameters parameters, Object[] values) {
+        this.parameters = parameters;
+        this.values = values;
+    }
+
+    public QueryParameters getParameters() {
+        return parameters;
+    }
+
+    public <T> T get(QueryParameter<T> parameter) {
+        return (T) values[parameter.index];
+    }
+
+    public <T> T get(QueryParameter<T> parameter, T def) {
+        Object value = values[parameter.index];
+        return value != null ? (T) value : def;
+    }
+
+    public <T> T get(int index) {
+        return (T) values[index];
+    }
+
+    /**
+     * Get the value of the parameter with the given name,
+     * prefer {@link #get(QueryParameter)} on hot paths.
+     *
+     * @param name The name.
+     * @param <T> The value type.
+     * @return The value or null if absent.
+     */
+    public <T> T get(String name) {
+        int index = parameters.indexOf(name);
+        return index != -1 ? (T) values[index] : null;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Convert these arguments to values by parameter name,
+     * for queries which read {@link Values}.
+     *
+     * @return The values.
+     */
+    public Values toValues() {
+        Values vals = new Values(values.length);
+        for (int i = 0; i < values.length; i++)
+            vals.setFlat(parameters.parameters.get(i).name, values[i]);
+        return vals;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof QueryArguments)) return false;
+        QueryArguments that = (QueryArguments) o;
+        return parameters == that.parameters && Arrays.equals(values, that.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder("{");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) b.append(", ");
+            b.append(parameters.parameters.get(i).name).append('=').append(values[i]);
+        }
+
+        return b.append('}').toString();
+    }
+
+}
@@ -0,0 +1,213 @@
+package slatepowered.veru.db.v1;
+
+import slatepowered.veru.data.Values;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A batch of independent queries which are executed concurrently
+ * on the database executor, so the batch takes about as long as
+ * its slowest query instead of the sum of all of them.
+ *
+ * A failing query does not fail the batch, the failure is
+ * reported in the {@link Result} instead.
+ *
+ * @see QueryPool#batch()
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class QueryBatch {
+
+    // the pool to resolve queries from
+    final QueryPool pool;
+
+    // the operations and values in order
+    final List<String> ops = new ArrayList<>();
+    final List<Values> values = new ArrayList<>();
+
+    QueryBatch(QueryPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Add the query for the given operation to this batch.
+     *
+     * @param op The operation.
+     * @param vals The values.
+     * @return This.
+     */
+    public QueryBatch add(String op, Values vals) {
+        ops.add(Objects.requireNonNull(op, "op"));
+        values.add(vals == null ? new Values() : vals);
+        return this;
+    }
+
+    public QueryBatch add(String op, Object... vals) {
+        return add(op, Values.ofVarargs(vals));
+    }
+
+    public int size() {
+        return ops.size();
+    }
+
+    /**
+     * Execute all queries concurrently and wait for all of them. Every
+     * query is executed asynchronously, so the concurrency limiter,
+     * executor overrides, coalescing and timeouts apply to all of them.
+     *
+     * @return The results.
+     */
+    public Result execute() {
+        return executeAsync().join();
+    }
+
+    /**
+     * Execute all queries concurrently.
+     *
+     * @return The future of the results, which completes
+     *         when all queries completed.
+     */
+    public CompletableFuture<Result> executeAsync() {
+        int n = ops.size();
+        List<String> ops = new ArrayList<>(this.ops);
+        CompletableFuture<Object>[] futures = new CompletableFuture[n];
+        for (int i = 0; i < n; i++)
+            futures[i] = start(i);
+
+        return CompletableFuture.allOf(futures).handle((__, ___) -> {
+            Object[] results = new Object[n];
+            Throwable[] errors = new Throwable[n];
+            for (int i = 0; i < n; i++) {
+                try {
+                    results[i] = futures[i].join();
+                } catch (Throwable t) {
+                    errors[i] = unwrap(t);
+                }
+            }
+
+            return new Result(ops, results, errors);
+        });
+    }
+
+    private CompletableFuture<Object> start(int index) {
+        try {
+            return resolve(index).doAsync(pool.database, values.get(index));
+        } catch (Throwable t) {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            future.completeExceptionally(t);
+            return future;
+        }
+    }
+
+    private DatabaseQuery resolve(int index) {
+        DatabaseQuery query = pool.getQuery(ops.get(index));
+        if (query == null)
+            throw new IllegalArgumentException("no query registered for operation '" + ops.get(index) + "'");
+        return query;
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        while (t instanceof CompletionException && t.getCause() != null)
+            t = t.getCause();
+        return t;
+    }
+
+    /**
+     * The results of an executed batch, by the
+     * index the queries were added at.
+     */
+    public static class Result {
+
+        final List<String> ops;
+        final Object[] results;
+        final Throwable[] errors;
+
+        Result(List<String> ops, Object[] results, Throwable[] errors) {
+            this.ops = ops;
+            this.results = results;
+            this.errors = errors;
+        }
+
+        public int size() {
+            return results.length;
+        }
+
+        public String getOperation(int index) {
+            return ops.get(index);
+        }
+
+        /**
+         * Get the result of the query at the given index.
+         *
+         * @param index The index.
+         * @param <R> The result type.
+         * @return The result.
+         * @throws CompletionException If the query failed.
+         */
+        public <R> R get(int index) {
+            Throwable error = errors[index];
+            if (error != null)
+                throw new CompletionException("query '" + ops.get(index) + "' at index " + index + " failed", error);
+            return (R) results[index];
+        }
+
+        /**
+         * Get the result of the query at the given index
+         * or the given default if it failed.
+         *
+         * @param index The index.
+         * @param def The default.
+         * @param <R> The result type.
+         * @return The result or default.
+         */
+        public <R> R getOrDefault(int index, R def) {
+            return errors[index] != null ? def : (R) results[index];
+        }
+
+        public boolean isSuccess(int index) {
+            return errors[index] == null;
+        }
+
+        /**
+         * Get the error of the query at the given index.
+         *
+         * @param index The index.
+         * @return The error or null if it succeeded.
+         */
+        public Throwable getError(int index) {
+            return errors[index];
+        }
+
+        public boolean hasFailures() {
+            for (Throwable error : errors)
+                if (error != null)
+                    return true;
+            return false;
+        }
+
+        /**
+         * Get the errors of all failed queries.
+         *
+         * @return The errors by index.
+         */
+        public Map<Integer, Throwable> getFailures() {
+            Map<Integer, Throwable> failures = new LinkedHashMap<>();
+            for (int i = 0; i < errors.length; i++)
+                if (errors[i] != null)
+                    failures.put(i, errors[i]);
+            return failures;
+        }
+
+        /**
+         * Get all results in order, null for failed queries.
+         *
+         * @return The results.
+         */
+        public List<Object> getResults() {
+            return Collections.unmodifiableList(Arrays.asList(results));
+        }
+
+    }
+
+}
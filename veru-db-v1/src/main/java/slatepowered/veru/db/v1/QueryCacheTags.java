@@ -0,0 +1,38 @@
+package slatepowered.veru.db.v1;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The result caches by tag of the queries in a tree of query
+ * pools, shared by the root pool with all its forks.
+ */
+final class QueryCacheTags {
+
+    // the caches by tag
+    final ConcurrentHashMap<String, Set<QueryResultCache>> caches = new ConcurrentHashMap<>();
+
+    void register(QueryResultCache cache) {
+        for (String tag : cache.tags)
+            caches.computeIfAbsent(tag, __ -> ConcurrentHashMap.newKeySet()).add(cache);
+    }
+
+    void unregister(QueryResultCache cache) {
+        for (String tag : cache.tags) {
+            Set<QueryResultCache> set = caches.get(tag);
+            if (set != null)
+                set.remove(cache);
+        }
+    }
+
+    // invalidates all caches with any of the given tags
+    void invalidate(String... tags) {
+        for (String tag : tags) {
+            Set<QueryResultCache> set = caches.get(tag);
+            if (set != null)
+                for (QueryResultCache cache : set)
+                    cache.invalidateAll();
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package slatepowered.veru.db.v1;
+
+import slatepowered.veru.data.Values;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The query currently executed on a thread, which lets database
+ * implementations attribute driver level work to the query operation.
+ */
+public final class QueryContext {
+
+    // the context of the query executing on each thread
+    static final ThreadLocal<QueryContext> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Get the context of the query executing on the current thread.
+     *
+     * @return The context or null if no query is executing.
+     */
+    public static QueryContext current() {
+        return CURRENT.get();
+    }
+
+    // the query, database and the values or arguments
+    final DatabaseQuery<?, ?> query;
+    final Database database;
+    final Object input;
+
+    // the System#nanoTime by which the query should
+    // complete, 0 if it has no deadline
+    final long deadline;
+
+    // the context of the enclosing query on this thread, if nested
+    final QueryContext previous;
+
+    QueryContext(DatabaseQuery<?, ?> query, Database database, Object input, long deadline, QueryContext previous) {
+        this.query = query;
+        this.database = database;
+        this.input = input;
+        this.deadline = deadline;
+        this.previous = previous;
+    }
+
+    /**
+     * Get the time left until the deadline of the query executing on
+     * the current thread, for passing it to the database driver.
+     *
+     * @return The milliseconds left, at least 1, or -1 if there is no deadline.
+     */
+    public static long remainingMillis() {
+        QueryContext context = CURRENT.get();
+        if (context == null || context.deadline == 0)
+            return -1;
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(context.deadline - System.nanoTime()));
+    }
+
+    // sets a new context as current for the given query, nested
+    // queries without their own deadline inherit the enclosing one
+    static QueryContext enter(DatabaseQuery<?, ?> query, Database database, Object input, long deadline) {
+        QueryContext previous = CURRENT.get();
+        if (deadline == 0 && previous != null)
+            deadline = previous.deadline;
+        QueryContext context = new QueryContext(query, database, input, deadline, previous);
+        CURRENT.set(context);
+        return context;
+    }
+
+    // restores the enclosing context
+    void exit() {
+        if (previous != null) CURRENT.set(previous);
+        else CURRENT.remove();
+    }
+
+    public DatabaseQuery<?, ?> getQuery() {
+        return query;
+    }
+
+    public String getOperation() {
+        return query.op;
+    }
+
+    public boolean hasDeadline() {
+        return deadline != 0;
+    }
+
+    /**
+     * Check whether the deadline of the query has passed.
+     *
+     * @return Whether it expired.
+     */
+    public boolean isExpired() {
+        return deadline != 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    public Database getDatabase() {
+        return database;
+    }
+
+    /**
+     * Get the values the query was called with, converting
+     * the arguments if it was called with arguments.
+     *
+     * @return The values.
+     */
+    public Values getValues() {
+        return input instanceof QueryArguments ? ((QueryArguments) input).toValues() : (Values) input;
+    }
+
+    /**
+     * Get the arguments the query was called with.
+     *
+     * @return The arguments or null if called with values.
+     */
+    public QueryArguments getArguments() {
+        return input instanceof QueryArguments ? (QueryArguments) input : null;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryContext{op='" + query.op + "', database=" + (database != null ? database.name() : null) + "}";
+    }
+
+}
@@ -0,0 +1,106 @@
+package slatepowered.veru.db.v1;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An iterator over the results of a streaming query which holds
+ * a database cursor, results are fetched in batches as they are
+ * iterated so only one batch is in memory at a time.
+ *
+ * The cursor must be closed when not fully iterated, closing
+ * is idempotent.
+ *
+ * @param <T> The result type.
+ */
+public interface QueryCursor<T> extends Iterator<T>, AutoCloseable {
+
+    /**
+     * Create a cursor over the given iterator.
+     *
+     * @param iterator The iterator.
+     * @param onClose The action to release the underlying resources, may be null.
+     * @param <T> The result type.
+     * @return The cursor.
+     */
+    static <T> QueryCursor<T> of(Iterator<T> iterator, Runnable onClose) {
+        return new QueryCursor<T>() {
+            boolean closed;
+
+            @Override
+            public boolean hasNext() {
+                return !closed && iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+                if (closed)
+                    return;
+                closed = true;
+                if (onClose != null)
+                    onClose.run();
+            }
+        };
+    }
+
+    /**
+     * Get an empty cursor.
+     *
+     * @param <T> The result type.
+     * @return The cursor.
+     */
+    static <T> QueryCursor<T> empty() {
+        return of(Collections.<T>emptyIterator(), null);
+    }
+
+    /**
+     * Release the underlying database cursor.
+     */
+    @Override
+    void close();
+
+    /**
+     * Get a cursor which maps the results of this cursor
+     * with the given function, closing it closes this cursor.
+     *
+     * @param mapper The mapping function.
+     * @param <U> The mapped type.
+     * @return The mapped cursor.
+     */
+    default <U> QueryCursor<U> map(Function<? super T, ? extends U> mapper) {
+        QueryCursor<T> source = this;
+        return of(new Iterator<U>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public U next() {
+                return mapper.apply(source.next());
+            }
+        }, source::close);
+    }
+
+    /**
+     * Get a sequential stream over the remaining results,
+     * closing the stream closes this cursor.
+     *
+     * @return The stream.
+     */
+    default Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+}
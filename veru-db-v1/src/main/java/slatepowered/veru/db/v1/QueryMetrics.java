@@ -0,0 +1,158 @@
+package slatepowered.veru.db.v1;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The execution metrics of one query operation on one database type,
+ * as the same operation registered for different types are different
+ * queries.
+ */
+public class QueryMetrics {
+
+    // the operation name
+    final String op;
+
+    // the database type or null if not bound to one
+    final DatabaseType<?> type;
+
+    // the manager which created these metrics, if any
+    DatabaseManager manager;
+
+    // the amount of executions and failed executions
+    final LongAdder count = new LongAdder();
+    final LongAdder errors = new LongAdder();
+
+    // the amount of async calls which joined an
+    // identical in-flight execution instead
+    final LongAdder collapsed = new LongAdder();
+
+    // the amount of async calls which timed out
+    final LongAdder timeouts = new LongAdder();
+
+    // the amount of async executions which were skipped as
+    // they were cancelled or timed out before they started
+    final LongAdder cancelled = new LongAdder();
+
+    // the amount of executions which were
+    // detected to scan a whole collection
+    final LongAdder collectionScans = new LongAdder();
+
+    // the execution latency
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    // the time async executions waited for an executor thread
+    final LatencyHistogram queueWait = new LatencyHistogram();
+
+    public QueryMetrics(String op) {
+        this(op, null);
+    }
+
+    public QueryMetrics(String op, DatabaseType<?> type) {
+        this.op = op;
+        this.type = type;
+    }
+
+    /**
+     * Record a completed execution.
+     *
+     * @param nanos The execution time in nanoseconds.
+     * @param failed Whether the execution failed.
+     */
+    public void record(long nanos, boolean failed) {
+        count.increment();
+        if (failed)
+            errors.increment();
+        latency.record(nanos);
+    }
+
+    /**
+     * Record that an execution of this query scanned a whole
+     * collection or table instead of using an index.
+     */
+    public void recordCollectionScan() {
+        collectionScans.increment();
+    }
+
+    public String getOperation() {
+        return op;
+    }
+
+    public DatabaseType<?> getType() {
+        return type;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * Get the amount of async calls which were collapsed into an
+     * identical in-flight execution, these are not counted as executions.
+     *
+     * @return The amount of collapsed calls.
+     */
+    public long getCollapsed() {
+        return collapsed.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Get the amount of async executions which were not started
+     * because they were cancelled or timed out while queued.
+     *
+     * @return The amount of skipped executions.
+     */
+    public long getCancelled() {
+        return cancelled.sum();
+    }
+
+    public long getCollectionScans() {
+        return collectionScans.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * Reset all recorded metrics.
+     */
+    public void reset() {
+        count.reset();
+        errors.reset();
+        collapsed.reset();
+        timeouts.reset();
+        cancelled.reset();
+        collectionScans.reset();
+        latency.reset();
+        queueWait.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryMetrics{" +
+                "op='" + op + '\'' +
+                ", type=" + (type != null ? type.getString() : null) +
+                ", count=" + getCount() +
+                ", errors=" + getErrors() +
+                ", collapsed=" + getCollapsed() +
+                ", timeouts=" + getTimeouts() +
+                ", cancelled=" + getCancelled() +
+                ", collectionScans=" + getCollectionScans() +
+                ", latency=" + latency +
+                ", queueWait=" + queueWait +
+                '}';
+    }
+
+}
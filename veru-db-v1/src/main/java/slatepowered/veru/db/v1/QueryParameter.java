@@ -0,0 +1,44 @@
+package slatepowered.veru.db.v1;
+
+/**
+ * A typed parameter slot declared in {@link QueryParameters},
+ * resolved to its index so reading it from {@link QueryArguments}
+ * is an array access.
+ *
+ * @param <T> The value type.
+ */
+public final class QueryParameter<T> {
+
+    // the name of the parameter
+    final String name;
+
+    // the type of the values
+    final Class<T> type;
+
+    // the index of the parameter
+    final int index;
+
+    QueryParameter(String name, Class<T> type, int index) {
+        this.name = name;
+        this.type = type;
+        this.index = index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + type.getSimpleName();
+    }
+
+}
@@ -0,0 +1,116 @@
+package slatepowered.veru.db.v1;
+
+import slatepowered.veru.data.Values;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The positional parameters declared by a {@link DatabaseQuery}, which
+ * lets it be called with {@link QueryArguments} instead of {@link Values}
+ * so no map is built per call and values are read by index.
+ *
+ * <pre>{@code
+ * QueryParameters params = new QueryParameters();
+ * QueryParameter<String> KEY = params.add("key", String.class);
+ * pool.putQuery("getCoins", type, params, (query, db, args) -> ... args.get(KEY) ...);
+ * pool.call("getCoins", "alice");
+ * }</pre>
+ */
+public final class QueryParameters {
+
+    // the parameters in order
+    final List<QueryParameter<?>> parameters = new ArrayList<>();
+
+    // whether a query uses these parameters, after which
+    // adding one would change the arity of the live query
+    volatile boolean frozen = false;
+
+    /**
+     * Declare the next parameter.
+     *
+     * @param name The name, used when called with {@link Values}.
+     * @param type The value type, primitives must use their wrapper.
+     * @param <T> The value type.
+     * @return The parameter.
+     * @throws IllegalStateException If a query already uses these parameters.
+     */
+    public synchronized <T> QueryParameter<T> add(String name, Class<T> type) {
+        if (frozen)
+            throw new IllegalStateException("can not add query parameter '" + name + "' as the parameters " + parameters + " are used by a query");
+        if (indexOf(name) != -1)
+            throw new IllegalArgumentException("duplicate query parameter '" + name + "'");
+        QueryParameter<T> parameter = new QueryParameter<>(name, type, parameters.size());
+        parameters.add(parameter);
+        return parameter;
+    }
+
+    public QueryParameter<Object> add(String name) {
+        return add(name, Object.class);
+    }
+
+    // prevents adding parameters once used by a query
+    synchronized QueryParameters freeze() {
+        frozen = true;
+        return this;
+    }
+
+    public int size() {
+        return parameters.size();
+    }
+
+    public List<QueryParameter<?>> getParameters() {
+        return Collections.unmodifiableList(parameters);
+    }
+
+    public int indexOf(String name) {
+        for (int i = 0, n = parameters.size(); i < n; i++)
+            if (parameters.get(i).name.equals(name))
+                return i;
+        return -1;
+    }
+
+    /**
+     * Create the arguments for a call from the given values in
+     * parameter order, the array is used directly.
+     *
+     * @param args The values.
+     * @return The arguments.
+     * @throws IllegalArgumentException If the amount or types of the values do not match.
+     */
+    public QueryArguments arguments(Object... args) {
+        int n = parameters.size();
+        if (args.length != n)
+            throw new IllegalArgumentException("expected " + n + " query arguments " + parameters + ", got " + args.length);
+        for (int i = 0; i < n; i++) {
+            QueryParameter<?> parameter = parameters.get(i);
+            Object arg = args[i];
+            if (arg != null && !parameter.type.isInstance(arg))
+                throw new IllegalArgumentException("query argument '" + parameter.name + "' must be a " +
+                        parameter.type.getName() + ", got " + arg.getClass().getName());
+        }
+
+        return new QueryArguments(this, args);
+    }
+
+    /**
+     * Create the arguments from the given values by parameter
+     * name, absent parameters are null.
+     *
+     * @param values The values.
+     * @return The arguments.
+     */
+    public QueryArguments arguments(Values values) {
+        Object[] args = new Object[parameters.size()];
+        for (int i = 0; i < args.length; i++)
+            args[i] = values.getFlat(parameters.get(i).name);
+        return arguments(args);
+    }
+
+    @Override
+    public String toString() {
+        return parameters.toString();
+    }
+
+}
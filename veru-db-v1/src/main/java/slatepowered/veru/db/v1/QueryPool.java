@@ -3,28 +3,29 @@ package slatepowered.veru.db.v1;
 import slatepowered.veru.data.Values;
 import slatepowered.veru.functional.TriFunction;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 @SuppressWarnings("unchecked")
 public class QueryPool {
 
     public static int getHash(String op, DatabaseType<?> type) {
-        return (op.hashCode() * 31) | System.identityHashCode(type);
+        return QueryTable.hash(op, type);
     }
 
     ///////////////////////////////////
 
     QueryPool(QueryPool parent) {
         this.parent = parent;
+        this.cacheTags = parent != null ? parent.cacheTags : new QueryCacheTags();
     }
 
     // environment
     Values env = new Values();
 
     // the queries stored
-    Map<Integer, DatabaseQuery<Object, Database>> queries = new HashMap<>();
+    final QueryTable queries = new QueryTable();
 
     // the current database
     Database database;
@@ -35,6 +36,9 @@ public class QueryPool {
     // the parent query pool
     QueryPool parent;
 
+    // the result caches by tag, shared with the root pool
+    final QueryCacheTags cacheTags;
+
     public QueryPool current(Database database) {
         this.database    = database;
         if (database != null)
@@ -56,15 +60,14 @@ public class QueryPool {
      * @param <R> The result type.
      * @param <D> The database type.
      * @return The query.
+     * @deprecated Hashes are not unique, use {@link #getQuery(String, DatabaseType)}.
      */
+    @Deprecated
     public <R, D extends Database> DatabaseQuery<R, D> getQuery(int h) {
         DatabaseQuery<R, D> query;
-        // search local
-        if ((query = (DatabaseQuery<R, D>) queries.get(h)) != null)
-            return query;
-        // search parent
-        if (parent != null)
-            return parent.getQuery(h);
+        for (QueryPool pool = this; pool != null; pool = pool.parent)
+            if ((query = pool.queries.getByHash(h)) != null)
+                return query;
         // return absent
         return null;
     }
@@ -79,8 +82,13 @@ public class QueryPool {
      * @return The query.
      */
     public <R, D extends Database> DatabaseQuery<R, D> getQuery(String op, DatabaseType<D> type) {
-        int h = getHash(op, type);
-        return getQuery(h);
+        DatabaseQuery<R, D> query;
+        // search local, then parents
+        for (QueryPool pool = this; pool != null; pool = pool.parent)
+            if ((query = pool.queries.get(op, type)) != null)
+                return query;
+        // return absent
+        return null;
     }
 
     public <R, D extends Database> DatabaseQuery<R, D> getQuery(String op) {
@@ -92,9 +100,27 @@ public class QueryPool {
      *
      * @param query The query.
      * @return This.
+     * @throws IllegalArgumentException If the query caches results which can not be cached.
      */
     public QueryPool putQuery(DatabaseQuery<?, ? extends Database> query) {
-        queries.put(getHash(query.op, query.type), (DatabaseQuery<Object, Database>) query);
+        if (query.getResultCache() != null && !query.isCacheable())
+            throw new IllegalArgumentException("results of query '" + query.getOperation() + "' can not be cached");
+        queries.put(query);
+        query.attach(cacheTags);
+        return this;
+    }
+
+    /**
+     * Invalidate the cached results of all queries in this pool
+     * tree with any of the given tags, for writes which are not
+     * executed through a query declaring them.
+     *
+     * @param tags The tags.
+     * @return This.
+     * @see DatabaseQuery#invalidates(String...)
+     */
+    public QueryPool invalidate(String... tags) {
+        cacheTags.invalidate(tags);
         return this;
     }
 
@@ -114,6 +140,122 @@ public class QueryPool {
         return putQuery(new DatabaseQuery<>(op, type, func));
     }
 
+    /**
+     * Put a new query by the given operation name and database type
+     * which is called with typed arguments for the given parameters.
+     *
+     * @param op The operation name.
+     * @param type The database type.
+     * @param parameters The parameters.
+     * @param func The operation.
+     * @param <R> The result type.
+     * @param <D> The database type.
+     * @return This.
+     * @see #call(String, Object...)
+     */
+    public <R, D extends Database> QueryPool putQuery(String op, DatabaseType<D> type, QueryParameters parameters,
+                                                      TriFunction<DatabaseQuery<R, D>, D, QueryArguments, R> func) {
+        return putQuery(new DatabaseQuery<>(op, type, parameters, func));
+    }
+
+    /**
+     * Put a new streaming query by the given operation name and
+     * database type which opens a cursor with the given function.
+     *
+     * @param op The operation name.
+     * @param type The database type.
+     * @param func The function opening the cursor.
+     * @param <T> The result element type.
+     * @param <D> The database type.
+     * @return This.
+     */
+    public <T, D extends Database> QueryPool putStreamQuery(String op, DatabaseType<D> type,
+                                                            TriFunction<StreamQuery<T, D>, D, Values, QueryCursor<T>> func) {
+        return putQuery(new StreamQuery<>(op, type, func));
+    }
+
+    /**
+     * Get the streaming query for the given operation on the current database type.
+     *
+     * @param op The operation.
+     * @param <T> The result element type.
+     * @return The query.
+     * @throws IllegalArgumentException If no streaming query is registered for the operation.
+     */
+    public <T> StreamQuery<T, Database> getStreamQuery(String op) {
+        DatabaseQuery<?, Database> query = getQuery(op, currentType);
+        if (!(query instanceof StreamQuery))
+            throw new IllegalArgumentException("no streaming query registered for operation '" + op + "'");
+        return (StreamQuery<T, Database>) query;
+    }
+
+    /**
+     * Resolve the query for the given operation and database type,
+     * searching parent pools, and bind it to the current database.
+     * The returned handle can be cached by the caller to avoid the
+     * lookup on every execution.
+     *
+     * @param op The operation.
+     * @param type The database type.
+     * @param <R> The result type.
+     * @param <D> The database type.
+     * @return The bound query.
+     * @throws IllegalArgumentException If no query is registered for the operation.
+     */
+    public <R, D extends Database> BoundQuery<R, D> resolve(String op, DatabaseType<D> type) {
+        DatabaseQuery<R, D> query = getQuery(op, type);
+        if (query == null)
+            throw new IllegalArgumentException("no query registered for operation '" + op + "'");
+        return new BoundQuery<>(query, (D) database);
+    }
+
+    /**
+     * Resolve the query for the given operation on the current database type.
+     *
+     * @param op The operation.
+     * @param <R> The result type.
+     * @param <D> The database type.
+     * @return The bound query.
+     * @see #resolve(String, DatabaseType)
+     */
+    public <R, D extends Database> BoundQuery<R, D> resolve(String op) {
+        return (BoundQuery<R, D>) resolve(op, currentType);
+    }
+
+    /**
+     * Create a batch of queries on the current database, which
+     * are executed concurrently.
+     *
+     * @return The batch.
+     */
+    public QueryBatch batch() {
+        return new QueryBatch(this);
+    }
+
+    public <T> QueryCursor<T> queryCursor(String op, Values vals) {
+        return this.<T>getStreamQuery(op).open(database, vals);
+    }
+
+    public <T> QueryCursor<T> queryCursor(String op, Object... vals) {
+        return this.<T>getStreamQuery(op).open(database, Values.ofVarargs(vals));
+    }
+
+    public <T> Stream<T> queryStream(String op, Values vals) {
+        return this.<T>getStreamQuery(op).stream(database, vals);
+    }
+
+    public <T> Stream<T> queryStream(String op, Object... vals) {
+        return this.<T>getStreamQuery(op).stream(database, Values.ofVarargs(vals));
+    }
+
+    public <T> QueryPublisher<T> queryPublisher(String op, Values vals) {
+        return this.<T>getStreamQuery(op).publish(database, vals);
+    }
+
+    public <T> QueryPublisher<T> queryPublisher(String op, Object... vals) {
+        return this.<T>getStreamQuery(op).publish(database, Values.ofVarargs(vals));
+    }
+
     public <R> R querySync(String op, DatabaseType<Database> type, Values vals) {
         return (R) getQuery(op, type).doSync(database, vals);
     }
@@ -146,4 +288,46 @@ public class QueryPool {
         return (CompletableFuture<R>) getQuery(op, currentType).doAsync(database, Values.ofVarargs(values, vals));
     }
 
+    /**
+     * Execute the query for the given operation on the current
+     * database asynchronously with the given timeout.
+     *
+     * @param op The operation.
+     * @param vals The values.
+     * @param timeout The timeout or 0 for none.
+     * @param unit The time unit.
+     * @param <R> The result type.
+     * @return The future of the result.
+     * @see DatabaseQuery#doAsync(Database, Values, long, TimeUnit)
+     */
+    public <R> CompletableFuture<R> queryAsync(String op, Values vals, long timeout, TimeUnit unit) {
+        return (CompletableFuture<R>) getQuery(op, currentType).doAsync(database, vals, timeout, unit);
+    }
+
+    /**
+     * Execute the query for the given operation on the current database
+     * with the given arguments in the order of its parameters.
+     *
+     * This looks the query up on every call, hot paths should
+     * {@link #resolve(String)} it once and use {@link BoundQuery#call(Object...)}.
+     *
+     * @param op The operation.
+     * @param args The arguments.
+     * @param <R> The result type.
+     * @return The result.
+     * @throws IllegalStateException If the query declares no parameters.
+     */
+    public <R> R call(String op, Object... args) {
+        DatabaseQuery<R, Database> query = getQuery(op, currentType);
+        return query.doSync(database, query.arguments(args));
+    }
+
+    /**
+     * @see #call(String, Object...)
+     */
+    public <R> CompletableFuture<R> callAsync(String op, Object... args) {
+        DatabaseQuery<R, Database> query = getQuery(op, currentType);
+        return query.doAsync(database, query.arguments(args));
+    }
+
 }
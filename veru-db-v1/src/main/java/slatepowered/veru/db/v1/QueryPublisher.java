@@ -0,0 +1,207 @@
+package slatepowered.veru.db.v1;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Publishes the results of a streaming query to subscribers following
+ * the reactive streams protocol, results are only read from the cursor
+ * as the subscriber signals demand.
+ *
+ * Every subscriber gets its own cursor, which is opened on the first
+ * request and closed on completion, error or cancellation. All signals
+ * to a subscriber are emitted serially on the executor.
+ *
+ * @param <T> The result type.
+ */
+public class QueryPublisher<T> {
+
+    /**
+     * Receives the results of a publisher.
+     *
+     * @param <T> The result type.
+     */
+    public interface Subscriber<T> {
+
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+
+    }
+
+    /**
+     * The link between a publisher and a subscriber
+     * used to signal demand or cancel.
+     */
+    public interface Subscription {
+
+        /**
+         * Request up to the given amount of further results.
+         *
+         * @param n The amount, must be positive.
+         */
+        void request(long n);
+
+        /**
+         * Stop receiving results and release the cursor.
+         */
+        void cancel();
+
+    }
+
+    // opens the cursor for a subscriber
+    final Supplier<QueryCursor<T>> opener;
+
+    // the executor to read and emit on
+    final Executor executor;
+
+    public QueryPublisher(Supplier<QueryCursor<T>> opener, Executor executor) {
+        this.opener = Objects.requireNonNull(opener, "opener");
+        this.executor = Objects.requireNonNull(executor, "executor");
+    }
+
+    /**
+     * Subscribe the given subscriber, no results are
+     * read until the subscriber requests them.
+     *
+     * @param subscriber The subscriber.
+     */
+    public void subscribe(Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        subscriber.onSubscribe(new CursorSubscription<>(this, subscriber));
+    }
+
+    static final class CursorSubscription<T> implements Subscription, Runnable {
+
+        final QueryPublisher<T> publisher;
+        final Subscriber<? super T> subscriber;
+
+        // the outstanding demand, saturated at Long.MAX_VALUE
+        final AtomicLong demand = new AtomicLong();
+
+        // the amount of drain requests, drains only
+        // run while this was zero before incrementing
+        final AtomicInteger wip = new AtomicInteger();
+
+        volatile boolean cancelled = false;
+        volatile Throwable invalidRequest;
+
+        // only accessed while draining
+        QueryCursor<T> cursor;
+        boolean done = false;
+
+        CursorSubscription(QueryPublisher<T> publisher, Subscriber<? super T> subscriber) {
+            this.publisher = publisher;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("request amount must be positive, got " + n);
+            } else {
+                long current, next;
+                do {
+                    current = demand.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!demand.compareAndSet(current, next));
+            }
+
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        void schedule() {
+            if (wip.getAndIncrement() != 0)
+                return;
+            try {
+                publisher.executor.execute(this);
+            } catch (RuntimeException e) {
+                invalidRequest = e;
+                run();
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (done)
+                return;
+            if (cancelled) {
+                finish();
+                return;
+            }
+
+            Throwable error = invalidRequest;
+            if (error != null) {
+                finish();
+                subscriber.onError(error);
+                return;
+            }
+
+            try {
+                if (cursor == null)
+                    cursor = publisher.opener.get();
+
+                long requested = demand.get();
+                long emitted = 0;
+                while (emitted != requested) {
+                    if (cancelled) {
+                        finish();
+                        return;
+                    }
+
+                    if (!cursor.hasNext()) {
+                        finish();
+                        subscriber.onComplete();
+                        return;
+                    }
+
+                    subscriber.onNext(cursor.next());
+                    emitted++;
+                }
+
+                // exhaustion is only checked with outstanding demand, as
+                // checking may fetch the next batch from the database
+                if (requested != Long.MAX_VALUE)
+                    demand.addAndGet(-emitted);
+            } catch (Throwable t) {
+                finish();
+                subscriber.onError(t);
+            }
+        }
+
+        // marks this subscription done and closes the cursor
+        private void finish() {
+            done = true;
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                } catch (RuntimeException ignored) {
+
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,13 @@
+package slatepowered.veru.db.v1;
+
+/**
+ * Thrown when an async query is not executed because the
+ * {@link ConcurrencyLimiter} of the database is at its limit.
+ */
+public class QueryRejectedException extends RuntimeException {
+
+    public QueryRejectedException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,114 @@
+package slatepowered.veru.db.v1;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The cached results of one {@link DatabaseQuery} by database and
+ * values. Entries expire after a time to live and are dropped when
+ * a write query invalidates one of the tags of the cache.
+ *
+ * Cached results are shared between callers and must not be mutated.
+ *
+ * @see DatabaseQuery#cache(int, long, TimeUnit, String...)
+ */
+public class QueryResultCache {
+
+    // stands in for cached null results
+    static final Object NULL = new Object();
+
+    // the cached results
+    final LruCache<Object, Object> cache;
+
+    // the tags which invalidate this cache
+    final Set<String> tags;
+
+    // incremented on invalidation so executions which
+    // started before do not cache stale results
+    long generation; // guarded by this
+
+    // the amount of invalidations
+    final LongAdder invalidations = new LongAdder();
+
+    QueryResultCache(int maxSize, long ttl, TimeUnit unit, String... tags) {
+        this.cache = new LruCache<>(maxSize, ttl, unit);
+        this.tags = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(tags)));
+    }
+
+    // gets the cached result, NULL for a cached null or null if absent
+    Object get(Object key) {
+        return cache.get(key);
+    }
+
+    synchronized long generation() {
+        return generation;
+    }
+
+    // caches the result unless invalidated since the given generation
+    synchronized void put(Object key, Object result, long generation) {
+        if (this.generation == generation)
+            cache.put(key, result == null ? NULL : result);
+    }
+
+    /**
+     * Remove all cached results.
+     */
+    public void invalidateAll() {
+        synchronized (this) {
+            generation++;
+            cache.invalidateAll();
+        }
+
+        invalidations.increment();
+    }
+
+    public Set<String> getTags() {
+        return tags;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    public long getEvictions() {
+        return cache.getEvictions();
+    }
+
+    public long getExpirations() {
+        return cache.getExpirations();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public double getHitRatio() {
+        return cache.getHitRatio();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryResultCache{" +
+                "tags=" + tags +
+                ", size=" + size() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                ", expirations=" + getExpirations() +
+                ", invalidations=" + getInvalidations() +
+                '}';
+    }
+
+}
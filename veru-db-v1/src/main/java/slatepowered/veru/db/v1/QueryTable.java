@@ -0,0 +1,120 @@
+package slatepowered.veru.db.v1;
+
+/**
+ * Open addressing table of queries keyed by the compound of
+ * operation name and database type.
+ *
+ * Lookups are lock free and do not allocate, mutations copy
+ * the table and publish the copy, as queries are expected to be
+ * registered rarely and looked up very often.
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+final class QueryTable {
+
+    // the initial capacity, must be a power of two
+    static final int INITIAL_CAPACITY = 16;
+
+    static int hash(String op, DatabaseType<?> type) {
+        int h = op.hashCode() * 31 + System.identityHashCode(type);
+        return h ^ (h >>> 16);
+    }
+
+    static final class Snapshot {
+
+        final String[] ops;
+        final DatabaseType[] types;
+        final DatabaseQuery[] queries;
+        final int size;
+
+        Snapshot(int capacity, int size) {
+            this.ops = new String[capacity];
+            this.types = new DatabaseType[capacity];
+            this.queries = new DatabaseQuery[capacity];
+            this.size = size;
+        }
+
+    }
+
+    // the current table
+    volatile Snapshot snapshot = new Snapshot(INITIAL_CAPACITY, 0);
+
+    /**
+     * Get the query registered for the given operation and type.
+     *
+     * @param op The operation.
+     * @param type The database type.
+     * @return The query or null if absent.
+     */
+    <R, D extends Database> DatabaseQuery<R, D> get(String op, DatabaseType<?> type) {
+        Snapshot s = snapshot;
+        int mask = s.ops.length - 1;
+        int i = hash(op, type) & mask;
+        String o;
+        while ((o = s.ops[i]) != null) {
+            if (s.types[i] == type && (o == op || o.equals(op)))
+                return s.queries[i];
+            i = (i + 1) & mask;
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the first query found with the given legacy hash.
+     *
+     * @param h The hash.
+     * @return The query or null if absent.
+     */
+    <R, D extends Database> DatabaseQuery<R, D> getByHash(int h) {
+        Snapshot s = snapshot;
+        for (int i = 0; i < s.ops.length; i++) {
+            if (s.ops[i] != null && QueryPool.getHash(s.ops[i], s.types[i]) == h)
+                return s.queries[i];
+        }
+
+        return null;
+    }
+
+    /**
+     * Register the given query, replacing any query registered
+     * for the same operation and type.
+     *
+     * @param query The query.
+     */
+    synchronized void put(DatabaseQuery<?, ?> query) {
+        Snapshot old = snapshot;
+        int capacity = old.ops.length;
+        boolean replacing = get(query.op, query.type) != null;
+        int size = replacing ? old.size : old.size + 1;
+        // keep the load factor below 0.5
+        while (size * 2 > capacity)
+            capacity <<= 1;
+
+        Snapshot s = new Snapshot(capacity, size);
+        for (int i = 0; i < old.ops.length; i++) {
+            if (old.ops[i] == null)
+                continue;
+            if (old.types[i] == query.type && old.ops[i].equals(query.op))
+                continue;
+            insert(s, old.ops[i], old.types[i], old.queries[i]);
+        }
+
+        insert(s, query.op, query.type, query);
+        snapshot = s;
+    }
+
+    private static void insert(Snapshot s, String op, DatabaseType<?> type, DatabaseQuery<?, ?> query) {
+        int mask = s.ops.length - 1;
+        int i = hash(op, type) & mask;
+        while (s.ops[i] != null)
+            i = (i + 1) & mask;
+        s.ops[i] = op;
+        s.types[i] = type;
+        s.queries[i] = query;
+    }
+
+    int size() {
+        return snapshot.size;
+    }
+
+}
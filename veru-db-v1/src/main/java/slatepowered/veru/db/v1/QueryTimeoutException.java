@@ -0,0 +1,13 @@
+package slatepowered.veru.db.v1;
+
+/**
+ * Thrown when an async query did not complete before its
+ * deadline, or when its deadline passed before it started.
+ */
+public class QueryTimeoutException extends RuntimeException {
+
+    public QueryTimeoutException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,68 @@
+package slatepowered.veru.db.v1;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The shared timer which completes async queries
+ * exceptionally when their deadline passes.
+ */
+final class QueryTimer {
+
+    // the scheduler, created on first use
+    static volatile ScheduledThreadPoolExecutor scheduler;
+
+    static ScheduledThreadPoolExecutor scheduler() {
+        ScheduledThreadPoolExecutor s = scheduler;
+        if (s == null) {
+            synchronized (QueryTimer.class) {
+                if ((s = scheduler) == null) {
+                    s = new ScheduledThreadPoolExecutor(1, r -> {
+                        Thread thread = new Thread(r, "veru-db-query-timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+
+                    // most queries complete in time so drop
+                    // their timeouts instead of keeping them queued
+                    s.setRemoveOnCancelPolicy(true);
+                    scheduler = s;
+                }
+            }
+        }
+
+        return s;
+    }
+
+    /**
+     * Complete the given future with a {@link QueryTimeoutException}
+     * if it is not completed within the given time.
+     *
+     * @param future The future.
+     * @param nanos The time in nanoseconds.
+     * @param message The exception message.
+     * @param onTimeout Called if the future timed out, may be null.
+     * @param <T> The result type.
+     * @return The future.
+     */
+    static <T> CompletableFuture<T> timeout(CompletableFuture<T> future, long nanos,
+                                            String message, Runnable onTimeout) {
+        if (future.isDone())
+            return future;
+        ScheduledFuture<?> task = scheduler().schedule(() -> {
+            if (future.isDone())
+                return;
+            // record before completing so the timeout is visible to
+            // callers once they observe it, a result completing the
+            // future concurrently may still win
+            if (onTimeout != null)
+                onTimeout.run();
+            future.completeExceptionally(new QueryTimeoutException(message));
+        }, nanos, TimeUnit.NANOSECONDS);
+        future.whenComplete((result, t) -> task.cancel(false));
+        return future;
+    }
+
+}
@@ -0,0 +1,94 @@
+package slatepowered.veru.db.v1;
+
+import slatepowered.veru.data.Values;
+import slatepowered.veru.functional.TriFunction;
+
+import java.util.stream.Stream;
+
+/**
+ * A query which yields its results incrementally through a
+ * {@link QueryCursor} instead of returning them whole.
+ *
+ * Executing the query only opens the cursor, the function should
+ * fetch results in batches of {@link #getBatchSize()} as they are
+ * iterated.
+ *
+ * @param <T> The result element type.
+ * @param <D> The database type.
+ */
+@SuppressWarnings("unchecked")
+public class StreamQuery<T, D extends Database> extends DatabaseQuery<QueryCursor<T>, D> {
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    // the amount of results to fetch per batch
+    volatile int batchSize = DEFAULT_BATCH_SIZE;
+
+    public StreamQuery(String op,
+                       DatabaseType<D> type,
+                       TriFunction<StreamQuery<T, D>, D, Values, QueryCursor<T>> func) {
+        super(op, type, (query, db, vals) -> func.apply((StreamQuery<T, D>) query, db, vals));
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the amount of results fetched from the database per
+     * batch, which bounds the memory used by an open cursor.
+     *
+     * @param batchSize The batch size.
+     * @return This.
+     */
+    public StreamQuery<T, D> batchSize(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batch size must be at least 1");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    // a cursor can only be iterated once
+    @Override
+    boolean isCacheable() {
+        return false;
+    }
+
+    /**
+     * Open a cursor over the results.
+     *
+     * @param db The database.
+     * @param vals The values.
+     * @return The cursor, which must be closed.
+     */
+    public QueryCursor<T> open(D db, Values vals) {
+        QueryCursor<T> cursor = doSync(db, vals);
+        return cursor != null ? cursor : QueryCursor.empty();
+    }
+
+    /**
+     * Open a stream over the results, the stream must
+     * be closed if not fully consumed.
+     *
+     * @param db The database.
+     * @param vals The values.
+     * @return The stream.
+     */
+    public Stream<T> stream(D db, Values vals) {
+        return open(db, vals).stream();
+    }
+
+    /**
+     * Create a publisher of the results which opens a cursor per
+     * subscriber and emits results on the executor of this query
+     * as they are requested.
+     *
+     * @param db The database.
+     * @param vals The values.
+     * @return The publisher.
+     */
+    public QueryPublisher<T> publish(D db, Values vals) {
+        return new QueryPublisher<>(() -> open(db, vals), executorFor(db));
+    }
+
+}
@@ -0,0 +1,224 @@
+package slatepowered.veru.db.v1;
+
+import java.util.*;
+
+/**
+ * An in-place update of one value in a {@link DatabaseItem}, which
+ * implementations apply atomically on the database where supported.
+ */
+public final class UpdateOperation {
+
+    /**
+     * The kind of update.
+     */
+    public enum Kind {
+        /** Add a number to the value. */
+        INCREMENT,
+        /** Set the value if the given value is smaller. */
+        MIN,
+        /** Set the value if the given value is larger. */
+        MAX,
+        /** Add elements to the list if not already contained. */
+        ADD_TO_SET,
+        /** Add elements to the end of the list. */
+        APPEND,
+        /** Remove the first element of the list. */
+        POP_FIRST,
+        /** Remove the last element of the list. */
+        POP_LAST
+    }
+
+    /**
+     * Returned by {@link #apply(Object)} if the value is not changed.
+     */
+    public static final Object UNCHANGED = new Object();
+
+    // the kind of operation
+    final Kind kind;
+
+    // the path of the value
+    final String path;
+
+    // the operand, the elements list for
+    // set and list operations
+    final Object value;
+
+    UpdateOperation(Kind kind, String path, Object value) {
+        this.kind = kind;
+        this.path = Objects.requireNonNull(path, "path");
+        this.value = value;
+    }
+
+    public static UpdateOperation increment(String path, Number delta) {
+        return new UpdateOperation(Kind.INCREMENT, path, Objects.requireNonNull(delta, "delta"));
+    }
+
+    public static UpdateOperation min(String path, Object value) {
+        return new UpdateOperation(Kind.MIN, path, Objects.requireNonNull(value, "value"));
+    }
+
+    public static UpdateOperation max(String path, Object value) {
+        return new UpdateOperation(Kind.MAX, path, Objects.requireNonNull(value, "value"));
+    }
+
+    public static UpdateOperation addToSet(String path, Object element) {
+        return new UpdateOperation(Kind.ADD_TO_SET, path, Collections.singletonList(element));
+    }
+
+    public static UpdateOperation append(String path, Object element) {
+        return new UpdateOperation(Kind.APPEND, path, Collections.singletonList(element));
+    }
+
+    public static UpdateOperation pop(String path, boolean first) {
+        return new UpdateOperation(first ? Kind.POP_FIRST : Kind.POP_LAST, path, null);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Get the operand of this operation, this is the list
+     * of elements for {@link Kind#ADD_TO_SET} and {@link Kind#APPEND}
+     * and null for pops.
+     *
+     * @return The operand.
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<Object> getElements() {
+        return (List<Object>) value;
+    }
+
+    /**
+     * Calculate the value resulting from applying this
+     * operation to the given current value.
+     *
+     * @param current The current value or null if absent.
+     * @return The new value or {@link #UNCHANGED}.
+     * @throws IllegalArgumentException If the current value has the wrong type.
+     */
+    @SuppressWarnings("unchecked")
+    public Object apply(Object current) {
+        switch (kind) {
+            case INCREMENT:
+                if (current == null)
+                    return value;
+                return add(asNumber(current), (Number) value);
+            case MIN:
+                return current == null || compare(value, current) < 0 ? value : UNCHANGED;
+            case MAX:
+                return current == null || compare(value, current) > 0 ? value : UNCHANGED;
+            case ADD_TO_SET: {
+                List<Object> list = current == null ? new ArrayList<>() : new ArrayList<>(asList(current));
+                boolean changed = current == null;
+                for (Object element : getElements()) {
+                    if (!list.contains(element)) {
+                        list.add(element);
+                        changed = true;
+                    }
+                }
+
+                return changed ? list : UNCHANGED;
+            }
+            case APPEND: {
+                List<Object> list = current == null ? new ArrayList<>() : new ArrayList<>(asList(current));
+                list.addAll(getElements());
+                return list;
+            }
+            case POP_FIRST:
+            case POP_LAST: {
+                if (current == null || asList(current).isEmpty())
+                    return UNCHANGED;
+                List<Object> list = new ArrayList<>(asList(current));
+                list.remove(kind == Kind.POP_FIRST ? 0 : list.size() - 1);
+                return list;
+            }
+            default:
+                throw new AssertionError(kind);
+        }
+    }
+
+    /**
+     * Combine this operation with the given later operation on
+     * the same path into one operation with the same effect.
+     *
+     * @param next The later operation.
+     * @return The combined operation or null if they can not be combined.
+     */
+    public UpdateOperation combine(UpdateOperation next) {
+        if (!path.equals(next.path) || kind != next.kind)
+            return null;
+        switch (kind) {
+            case INCREMENT:
+                return new UpdateOperation(kind, path, add((Number) value, (Number) next.value));
+            case MIN:
+                return compare(next.value, value) < 0 ? next : this;
+            case MAX:
+                return compare(next.value, value) > 0 ? next : this;
+            case ADD_TO_SET:
+            case APPEND: {
+                List<Object> elements = new ArrayList<>(getElements());
+                elements.addAll(next.getElements());
+                return new UpdateOperation(kind, path, elements);
+            }
+            default:
+                return null;
+        }
+    }
+
+    private Number asNumber(Object val) {
+        if (!(val instanceof Number))
+            throw new IllegalArgumentException("can not increment non-numeric value at '" + path + "'");
+        return (Number) val;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> asList(Object val) {
+        if (!(val instanceof List))
+            throw new IllegalArgumentException("value at '" + path + "' is not a list");
+        return (List<Object>) val;
+    }
+
+    /**
+     * Add the given numbers, keeping integers while
+     * they fit and widening to long or double otherwise.
+     */
+    static Number add(Number a, Number b) {
+        if (isFloating(a) || isFloating(b))
+            return a.doubleValue() + b.doubleValue();
+        long sum = a.longValue() + b.longValue();
+        if (!(a instanceof Long) && !(b instanceof Long) && sum == (int) sum)
+            return (int) sum;
+        return sum;
+    }
+
+    private static boolean isFloating(Number n) {
+        return n instanceof Double || n instanceof Float;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static int compare(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            Number x = (Number) a, y = (Number) b;
+            if (isFloating(x) || isFloating(y))
+                return Double.compare(x.doubleValue(), y.doubleValue());
+            return Long.compare(x.longValue(), y.longValue());
+        }
+
+        return ((Comparable) a).compareTo(b);
+    }
+
+    @Override
+    public String toString() {
+        return kind + "(" + path + (value != null ? ", " + value : "") + ")";
+    }
+
+}
@@ -0,0 +1,127 @@
+package slatepowered.veru.db.v1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Utilities for working with nested map documents
+ * indexed by dotted paths, like {@code a.b.c}.
+ */
+public class ValuePaths {
+
+    // static utility class
+    // no instantiating
+    private ValuePaths() { }
+
+    /**
+     * Deep copies the given value if it is a map or list,
+     * otherwise returns the value itself.
+     *
+     * @param val The value.
+     * @param mapFactory The factory for the copied maps.
+     * @return The copy.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public static Object copy(Object val, Supplier<? extends Map<String, Object>> mapFactory) {
+        if (val instanceof Map) {
+            Map<String, Object> copy = mapFactory.get();
+            for (Map.Entry entry : ((Map<?, ?>) val).entrySet())
+                copy.put((String) entry.getKey(), copy(entry.getValue(), mapFactory));
+            return copy;
+        } else if (val instanceof List) {
+            List list = (List) val;
+            List copy = new ArrayList(list.size());
+            for (Object element : list)
+                copy.add(copy(element, mapFactory));
+            return copy;
+        }
+
+        return val;
+    }
+
+    /**
+     * Get a value from the given document by the given
+     * path, which may be dotted to index nested documents.
+     *
+     * @param document The document.
+     * @param path The path.
+     * @return The value or null if absent.
+     */
+    @SuppressWarnings("rawtypes")
+    public static Object get(Map<String, Object> document, String path) {
+        if (document == null)
+            return null;
+        int i = path.indexOf('.');
+        if (i == -1)
+            return document.get(path);
+
+        Object current = document;
+        int start = 0;
+        while (true) {
+            if (!(current instanceof Map))
+                return null;
+            String part = i == -1 ? path.substring(start) : path.substring(start, i);
+            current = ((Map) current).get(part);
+            if (i == -1)
+                return current;
+            start = i + 1;
+            i = path.indexOf('.', start);
+        }
+    }
+
+    /**
+     * Put a value into the given document by the given path, creating
+     * any nested documents if absent.
+     *
+     * @param document The document.
+     * @param path The path.
+     * @param val The value.
+     * @param mapFactory The factory for created nested documents.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public static void put(Map<String, Object> document, String path, Object val,
+                           Supplier<? extends Map<String, Object>> mapFactory) {
+        int i = path.indexOf('.');
+        if (i == -1) {
+            document.put(path, val);
+            return;
+        }
+
+        Map current = document;
+        int start = 0;
+        for (; i != -1; start = i + 1, i = path.indexOf('.', start)) {
+            String part = path.substring(start, i);
+            Object next = current.get(part);
+            if (!(next instanceof Map)) {
+                next = mapFactory.get();
+                current.put(part, next);
+            }
+
+            current = (Map) next;
+        }
+
+        current.put(path.substring(start), val);
+    }
+
+    /**
+     * Remove a value from the given document by the given path.
+     *
+     * @param document The document.
+     * @param path The path.
+     */
+    @SuppressWarnings("rawtypes")
+    public static void remove(Map<String, Object> document, String path) {
+        int i = path.lastIndexOf('.');
+        if (i == -1) {
+            document.remove(path);
+            return;
+        }
+
+        Object parent = get(document, path.substring(0, i));
+        if (parent instanceof Map)
+            ((Map) parent).remove(path.substring(i + 1));
+    }
+
+}
@@ -7,20 +7,83 @@ import org.bson.conversions.Bson;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
 
+/**
+ * Builds a filter matching documents which match all added conditions.
+ *
+ * Values can be {@link #param(String)} placeholders, in which case the
+ * filter is built once as a {@link BsonFilterTemplate} and the values
+ * are bound per call.
+ */
 public class BsonFilterBuilder {
 
+    /**
+     * A placeholder for a value which is bound when
+     * binding a {@link BsonFilterTemplate}.
+     */
+    public static final class Parameter {
+
+        // the name of the parameter
+        final String name;
+
+        Parameter(String name) {
+            this.name = Objects.requireNonNull(name, "name");
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return ":" + name;
+        }
+
+    }
+
+    /**
+     * Create a placeholder for the value with the given name.
+     *
+     * @param name The name.
+     * @return The parameter.
+     */
+    public static Parameter param(String name) {
+        return new Parameter(name);
+    }
+
     // the BSON objects
     List<Bson> bson = new ArrayList<>();
 
+    // the conditions with parameters
+    List<BsonFilterTemplate.Slot> slots = new ArrayList<>();
+
+    /**
+     * Build the filter, multiple conditions are combined
+     * into one flat {@code $and}.
+     *
+     * @return The filter.
+     * @throws IllegalStateException If the filter has parameters.
+     */
     public Bson build() {
-        if (bson.size() == 0)
-            return new BsonDocument();
-        Bson current = bson.get(0);
-        int l = bson.size();
-        for (int i = 1; i < l; i++)
-            current = Filters.and(current, bson.get(i));
-        return current;
+        if (!slots.isEmpty())
+            throw new IllegalStateException("filter has parameters " + slots + ", build a template instead");
+        switch (bson.size()) {
+            case 0: return new BsonDocument();
+            case 1: return bson.get(0);
+            default: return Filters.and(new ArrayList<>(bson));
+        }
+    }
+
+    /**
+     * Build the filter as a template, of which the constant conditions
+     * are encoded only once and the parameters are bound per call.
+     *
+     * @return The template.
+     */
+    public BsonFilterTemplate template() {
+        return new BsonFilterTemplate(new ArrayList<>(bson), new ArrayList<>(slots));
     }
 
     public BsonFilterBuilder with(Bson filter) {
@@ -28,14 +91,103 @@ public class BsonFilterBuilder {
         return this;
     }
 
+    // adds a condition with a parameter, the operator is null for equality
+    private BsonFilterBuilder slot(String field, String operator, Object parameter) {
+        slots.add(new BsonFilterTemplate.Slot(field, operator, (Parameter) parameter));
+        return this;
+    }
+
     public BsonFilterBuilder eq(String field, Object value) {
-        return with(Filters.eq(field, value));
+        return value instanceof Parameter ?
+                slot(field, null, value) :
+                with(Filters.eq(field, value));
+    }
+
+    public BsonFilterBuilder ne(String field, Object value) {
+        return value instanceof Parameter ?
+                slot(field, "$ne", value) :
+                with(Filters.ne(field, value));
     }
 
+    /**
+     * Match documents of which the field has any of the given values,
+     * a single {@link Parameter} is bound to a collection or array.
+     *
+     * @param field The field.
+     * @param values The values.
+     * @return This.
+     */
     public BsonFilterBuilder in(String field, Object... values) {
+        if (values.length == 1 && values[0] instanceof Parameter)
+            return slot(field, "$in", values[0]);
         return with(Filters.in(field, values));
     }
 
+    public BsonFilterBuilder gt(String field, Object value) {
+        return value instanceof Parameter ?
+                slot(field, "$gt", value) :
+                with(Filters.gt(field, value));
+    }
+
+    public BsonFilterBuilder gte(String field, Object value) {
+        return value instanceof Parameter ?
+                slot(field, "$gte", value) :
+                with(Filters.gte(field, value));
+    }
+
+    public BsonFilterBuilder lt(String field, Object value) {
+        return value instanceof Parameter ?
+                slot(field, "$lt", value) :
+                with(Filters.lt(field, value));
+    }
+
+    public BsonFilterBuilder lte(String field, Object value) {
+        return value instanceof Parameter ?
+                slot(field, "$lte", value) :
+                with(Filters.lte(field, value));
+    }
+
+    /**
+     * Match documents of which the field is in the range
+     * from min inclusive to max exclusive.
+     *
+     * @param field The field.
+     * @param min The minimum value.
+     * @param max The maximum value.
+     * @return This.
+     */
+    public BsonFilterBuilder range(String field, Object min, Object max) {
+        return gte(field, min).lt(field, max);
+    }
+
+    public BsonFilterBuilder exists(String field) {
+        return exists(field, true);
+    }
+
+    public BsonFilterBuilder exists(String field, boolean exists) {
+        return with(Filters.exists(field, exists));
+    }
+
+    /**
+     * Match documents of which the string value of the
+     * field matches the given regular expression.
+     *
+     * @param field The field.
+     * @param pattern The pattern or a {@link Parameter}.
+     * @return This.
+     */
+    public BsonFilterBuilder regex(String field, Object pattern) {
+        if (pattern instanceof Parameter)
+            return slot(field, "$regex", pattern);
+        if (pattern instanceof Pattern)
+            return with(Filters.regex(field, (Pattern) pattern));
+        return with(Filters.regex(field, String.valueOf(pattern)));
+    }
+
+    public BsonFilterBuilder regex(String field, String pattern, String options) {
+        return with(Filters.regex(field, pattern, options));
+    }
+
     public BsonFilterBuilder search(String text) {
         return search(text, new TextSearchOptions().caseSensitive(false));
     }
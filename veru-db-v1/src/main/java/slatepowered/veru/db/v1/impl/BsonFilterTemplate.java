@@ -0,0 +1,206 @@
+package slatepowered.veru.db.v1.impl;
+
+import org.bson.*;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import slatepowered.veru.data.Values;
+
+import java.util.*;
+
+/**
+ * A filter of which the shape is built once by a {@link BsonFilterBuilder},
+ * binding values to its parameters creates filters without rebuilding
+ * or re-encoding the constant conditions.
+ *
+ * @see BsonFilterBuilder#template()
+ */
+public final class BsonFilterTemplate {
+
+    static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+
+    /**
+     * A condition on a field of which the value is a parameter.
+     */
+    static final class Slot {
+
+        // the field
+        final String field;
+
+        // the query operator, null for equality
+        final String operator;
+
+        // the parameter
+        final BsonFilterBuilder.Parameter parameter;
+
+        Slot(String field, String operator, BsonFilterBuilder.Parameter parameter) {
+            this.field = field;
+            this.operator = operator;
+            this.parameter = parameter;
+        }
+
+        @Override
+        public String toString() {
+            return field + (operator != null ? " " + operator + " " : " = ") + parameter;
+        }
+
+    }
+
+    // the constant conditions
+    final List<Bson> constants;
+
+    // the conditions with parameters
+    final Slot[] slots;
+
+    // the distinct parameter names in order of first use
+    final List<String> names = new ArrayList<>();
+
+    // the index of the parameter of each slot
+    final int[] slotIndices;
+
+    // the constant conditions encoded with the last used registry
+    volatile Encoded encoded;
+
+    BsonFilterTemplate(List<Bson> constants, List<Slot> slots) {
+        this.constants = constants;
+        this.slots = slots.toArray(new Slot[0]);
+        this.slotIndices = new int[this.slots.length];
+        for (int i = 0; i < this.slots.length; i++) {
+            String name = this.slots[i].parameter.name;
+            if (!names.contains(name))
+                names.add(name);
+            slotIndices[i] = names.indexOf(name);
+        }
+    }
+
+    /**
+     * Get the names of the parameters in the order
+     * they are bound by {@link #bind(Object...)}.
+     *
+     * @return The names.
+     */
+    public List<String> getParameterNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Bind the given values to the parameters by name.
+     *
+     * @param values The values by parameter name.
+     * @return The filter.
+     * @throws IllegalArgumentException If a parameter is not bound.
+     */
+    public Bson bind(Values values) {
+        Object[] bound = new Object[names.size()];
+        for (int i = 0; i < bound.length; i++) {
+            String name = names.get(i);
+            if (!values.contains(name))
+                throw new IllegalArgumentException("no value bound to filter parameter '" + name + "'");
+            bound[i] = values.getFlat(name);
+        }
+
+        return new Bound(bound);
+    }
+
+    /**
+     * Bind the given values to the parameters by position.
+     *
+     * @param values The values in order of {@link #getParameterNames()}.
+     * @return The filter.
+     * @throws IllegalArgumentException If the amount of values does not match.
+     */
+    public Bson bind(Object... values) {
+        if (values.length != names.size())
+            throw new IllegalArgumentException("expected " + names.size() + " filter parameters " + names + ", got " + values.length);
+        return new Bound(values.clone());
+    }
+
+    // get the constant conditions encoded with the given registry
+    private BsonDocument[] encodeConstants(CodecRegistry registry) {
+        Encoded encoded = this.encoded;
+        if (encoded != null && encoded.registry == registry)
+            return encoded.documents;
+
+        BsonDocument[] documents = new BsonDocument[constants.size()];
+        for (int i = 0; i < documents.length; i++)
+            documents[i] = constants.get(i).toBsonDocument(BsonDocument.class, registry);
+        this.encoded = new Encoded(registry, documents);
+        return documents;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static BsonValue encodeValue(Object value, CodecRegistry registry) {
+        if (value == null)
+            return BsonNull.VALUE;
+        if (value instanceof BsonValue)
+            return (BsonValue) value;
+        if (value instanceof Object[])
+            value = Arrays.asList((Object[]) value);
+
+        BsonDocument holder = new BsonDocument();
+        BsonDocumentWriter writer = new BsonDocumentWriter(holder);
+        writer.writeStartDocument();
+        writer.writeName("v");
+        Codec codec = registry.get(value.getClass());
+        ENCODER_CONTEXT.encodeWithChildContext(codec, writer, value);
+        writer.writeEndDocument();
+        return holder.get("v");
+    }
+
+    // the constant conditions encoded with a registry
+    static final class Encoded {
+
+        final CodecRegistry registry;
+        final BsonDocument[] documents;
+
+        Encoded(CodecRegistry registry, BsonDocument[] documents) {
+            this.registry = registry;
+            this.documents = documents;
+        }
+
+    }
+
+    /**
+     * A filter with values bound to the parameters.
+     */
+    final class Bound implements Bson {
+
+        // the values by parameter index
+        final Object[] values;
+
+        Bound(Object[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public <TDocument> BsonDocument toBsonDocument(Class<TDocument> documentClass, CodecRegistry registry) {
+            BsonDocument[] constants = encodeConstants(registry);
+            int count = constants.length + slots.length;
+            if (count == 0)
+                return new BsonDocument();
+
+            // the encoded constants are shared between
+            // bound filters as they are only read
+            List<BsonValue> conditions = new ArrayList<>(count);
+            conditions.addAll(Arrays.asList(constants));
+            for (int i = 0; i < slots.length; i++) {
+                Slot slot = slots[i];
+                BsonValue value = encodeValue(values[slotIndices[i]], registry);
+                conditions.add(new BsonDocument(slot.field, slot.operator == null ? value :
+                        new BsonDocument(slot.operator, value)));
+            }
+
+            if (count == 1)
+                return (BsonDocument) conditions.get(0);
+            return new BsonDocument("$and", new BsonArray(conditions));
+        }
+
+        @Override
+        public String toString() {
+            return "Filter{" + constants + ", " + Arrays.toString(slots) + " <- " + Arrays.toString(values) + "}";
+        }
+
+    }
+
+}
@@ -0,0 +1,160 @@
+package slatepowered.veru.db.v1.impl;
+
+import slatepowered.veru.db.v1.ItemConflictException;
+import slatepowered.veru.db.v1.UpdateOperation;
+import slatepowered.veru.db.v1.ValuePaths;
+
+import java.util.*;
+
+/**
+ * The pending changes of an item stored as a plain map document,
+ * which the database applies to the stored document in one
+ * atomic read-modify-write on push.
+ */
+final class DocumentChanges {
+
+    // marks a field to be unset in the changes
+    static final Object REMOVED = new Object();
+
+    // the fields to be set or unset in order of change,
+    // keys may be dotted paths
+    final LinkedHashMap<String, Object> changes = new LinkedHashMap<>();
+
+    // the update operations in order, on paths without pending changes
+    final List<UpdateOperation> operations = new ArrayList<>();
+
+    // the field compared on push and its expected
+    // stored value, the field is null if unconditional
+    String conditionField;
+    Object conditionExpected;
+
+    boolean isEmpty() {
+        return changes.isEmpty() && operations.isEmpty() && conditionField == null;
+    }
+
+    // whether the stored document is changed by more than plain sets
+    boolean isAtomic() {
+        return !operations.isEmpty() || conditionField != null;
+    }
+
+    void set(String path, Object val) {
+        removeOperations(path);
+        // move to the end to keep the order of changes
+        changes.remove(path);
+        changes.put(path, val);
+    }
+
+    void unset(String path) {
+        removeOperations(path);
+        changes.remove(path);
+        changes.put(path, REMOVED);
+    }
+
+    /**
+     * Record the given operation and apply it to the local document.
+     *
+     * @param operation The operation.
+     * @param document The local document, may be null.
+     */
+    void apply(UpdateOperation operation, Map<String, Object> document) {
+        String path = operation.getPath();
+        Object current;
+        if (document != null) {
+            current = ValuePaths.get(document, path);
+        } else {
+            current = changes.get(path);
+            if (current == REMOVED)
+                current = null;
+        }
+
+        Object val = operation.apply(current);
+        if (document != null && val != UpdateOperation.UNCHANGED)
+            ValuePaths.put(document, path, val, LinkedHashMap::new);
+
+        // a pending set of this path or a parent already
+        // sends the local value, so update that instead
+        String parent = findPendingSet(path);
+        if (parent != null) {
+            if (parent.equals(path)) {
+                if (val != UpdateOperation.UNCHANGED)
+                    set(path, val);
+            } else if (document != null) {
+                set(parent, ValuePaths.get(document, parent));
+            }
+
+            return;
+        }
+
+        operations.add(operation);
+    }
+
+    void condition(String field, Object expected) {
+        if (conditionField != null && !conditionField.equals(field))
+            throw new IllegalStateException("a push can only be conditional on one field, pending condition on '" + conditionField + "'");
+        if (conditionField == null) {
+            conditionField = field;
+            conditionExpected = expected;
+        }
+    }
+
+    /**
+     * Apply these changes to the given stored document.
+     *
+     * @param key The key of the item.
+     * @param stored The mutable copy of the stored document or null if absent.
+     * @return The updated document.
+     * @throws ItemConflictException If the condition does not hold.
+     */
+    Map<String, Object> applyTo(Object key, Map<String, Object> stored) {
+        if (conditionField != null) {
+            Object val = stored != null ? ValuePaths.get(stored, conditionField) : null;
+            if (!Objects.equals(val, conditionExpected))
+                throw new ItemConflictException(key, conditionField, conditionExpected);
+        }
+
+        Map<String, Object> updated = stored != null ? stored : new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            if (entry.getValue() == REMOVED)
+                ValuePaths.remove(updated, entry.getKey());
+            else
+                ValuePaths.put(updated, entry.getKey(), ValuePaths.copy(entry.getValue(), LinkedHashMap::new), LinkedHashMap::new);
+        }
+
+        for (UpdateOperation operation : operations) {
+            Object val = operation.apply(ValuePaths.get(updated, operation.getPath()));
+            if (val != UpdateOperation.UNCHANGED)
+                ValuePaths.put(updated, operation.getPath(), val, LinkedHashMap::new);
+        }
+
+        return updated;
+    }
+
+    void clear() {
+        changes.clear();
+        operations.clear();
+        conditionField = null;
+        conditionExpected = null;
+    }
+
+    // finds the pending set of the path or a parent
+    private String findPendingSet(String path) {
+        if (changes.containsKey(path))
+            return path;
+        for (int i = path.indexOf('.'); i != -1; i = path.indexOf('.', i + 1)) {
+            String parent = path.substring(0, i);
+            if (changes.containsKey(parent))
+                return parent;
+        }
+
+        return null;
+    }
+
+    // removes operations overwritten by a change of the path
+    private void removeOperations(String path) {
+        if (operations.isEmpty())
+            return;
+        String prefix = path + ".";
+        operations.removeIf(operation -> operation.getPath().equals(path) || operation.getPath().startsWith(prefix));
+    }
+
+}
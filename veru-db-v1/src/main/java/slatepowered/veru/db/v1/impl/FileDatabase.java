@@ -0,0 +1,152 @@
+package slatepowered.veru.db.v1.impl;
+
+import slatepowered.veru.db.v1.Database;
+import slatepowered.veru.db.v1.DatabaseManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A database storing collections of documents in a directory
+ * on the local file system, opened with a {@link slatepowered.veru.db.v1.Login.PathLogin}.
+ *
+ * The options have to be configured before logging in.
+ *
+ * @see FileDatabaseType
+ */
+public class FileDatabase extends Database {
+
+    public FileDatabase(DatabaseManager manager, String name) {
+        super(manager, name, FileDatabaseType.INSTANCE);
+    }
+
+    // the open log
+    volatile SegmentLog log;
+
+    // the maximum size of a segment in bytes
+    long maxSegmentSize = 64L * 1024 * 1024;
+
+    // whether pushes wait for their write to be synced
+    boolean durable = true;
+
+    // the interval to sync at when not durable
+    long syncIntervalMillis = 1000;
+
+    // the ratio of dead bytes in a segment to compact at
+    double compactionThreshold = 0.5;
+
+    // the interval to check for segments to compact at
+    long compactionIntervalMillis = 30_000;
+
+    /**
+     * Set the maximum size of a segment, after which a new
+     * segment is started.
+     *
+     * @param maxSegmentSize The size in bytes.
+     * @return This.
+     */
+    public FileDatabase maxSegmentSize(long maxSegmentSize) {
+        if (maxSegmentSize < 1024 || maxSegmentSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("segment size must be between 1 KiB and 2 GiB");
+        this.maxSegmentSize = maxSegmentSize;
+        return this;
+    }
+
+    /**
+     * Set whether pushes block until their write has been synced to
+     * disk. Concurrent pushes are synced together in one group commit.
+     * If disabled, the log is synced periodically instead.
+     *
+     * @param durable Whether pushes are durable.
+     * @return This.
+     */
+    public FileDatabase durable(boolean durable) {
+        this.durable = durable;
+        return this;
+    }
+
+    /**
+     * Set the interval to sync the log at when not durable.
+     *
+     * @param interval The interval.
+     * @param unit The time unit.
+     * @return This.
+     */
+    public FileDatabase syncInterval(long interval, TimeUnit unit) {
+        this.syncIntervalMillis = Math.max(1, unit.toMillis(interval));
+        return this;
+    }
+
+    /**
+     * Set the ratio of dead bytes in a sealed segment at which
+     * its live records are rewritten and the segment is deleted.
+     *
+     * @param threshold The ratio between 0 and 1.
+     * @return This.
+     */
+    public FileDatabase compactionThreshold(double threshold) {
+        if (threshold <= 0 || threshold > 1)
+            throw new IllegalArgumentException("compaction threshold must be in (0, 1]");
+        this.compactionThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * Set the interval to check for segments to compact at.
+     *
+     * @param interval The interval.
+     * @param unit The time unit.
+     * @return This.
+     */
+    public FileDatabase compactionInterval(long interval, TimeUnit unit) {
+        this.compactionIntervalMillis = Math.max(1, unit.toMillis(interval));
+        return this;
+    }
+
+    /**
+     * Create an item for the given key in the given collection.
+     *
+     * @param collection The collection name.
+     * @param key The key.
+     * @return The item.
+     */
+    public FileDatabaseItem item(String collection, Object key) {
+        return new FileDatabaseItem(this, collection, key);
+    }
+
+    /**
+     * Get the keys of all items in the given collection.
+     *
+     * @param collection The collection name.
+     * @return The keys.
+     */
+    public Set<Object> keys(String collection) {
+        return log().keys(collection);
+    }
+
+    /**
+     * Compact all segments with enough dead records now.
+     */
+    public void compact() {
+        try {
+            log().compact();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compact file database " + name(), e);
+        }
+    }
+
+    SegmentLog log() {
+        SegmentLog log = this.log;
+        if (log == null)
+            throw new IllegalStateException("file database " + name() + " is not open");
+        return log;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return log != null;
+    }
+
+}
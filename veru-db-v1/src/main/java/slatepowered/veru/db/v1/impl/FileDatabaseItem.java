@@ -0,0 +1,166 @@
+package slatepowered.veru.db.v1.impl;
+
+import slatepowered.veru.db.v1.DatabaseItem;
+import slatepowered.veru.db.v1.UpdateOperation;
+import slatepowered.veru.db.v1.ValuePaths;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An item in a {@link FileDatabase}, which keeps a local copy of
+ * the document and applies only the changed fields on push, on top
+ * of the latest stored document.
+ */
+public class FileDatabaseItem extends DatabaseItem {
+
+    // the collection name
+    final String collectionName;
+
+    // the primary key value
+    final Object key;
+
+    // the pending changes
+    final DocumentChanges changes = new DocumentChanges();
+
+    // the local copy of the document
+    Map<String, Object> document = new LinkedHashMap<>();
+
+    public FileDatabaseItem(FileDatabase database, String collectionName, Object key) {
+        super(database);
+        this.collectionName = Objects.requireNonNull(collectionName, "collectionName");
+        this.key = Objects.requireNonNull(key, "key");
+    }
+
+    @Override
+    public FileDatabase database() {
+        return (FileDatabase) super.database();
+    }
+
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+    @Override
+    public Object key() {
+        return key;
+    }
+
+    @Override
+    public void set(String key, Object val) {
+        if (document != null)
+            ValuePaths.put(document, key, val, LinkedHashMap::new);
+        changes.set(key, val);
+    }
+
+    @Override
+    public void unset(String key) {
+        if (document != null)
+            ValuePaths.remove(document, key);
+        changes.unset(key);
+    }
+
+    /**
+     * Registers the operation to be applied to the stored document
+     * on push, atomically with the other changes.
+     *
+     * @param operation The operation.
+     */
+    @Override
+    protected void apply(UpdateOperation operation) {
+        changes.apply(operation, document);
+    }
+
+    /**
+     * Sets the given field and makes the next push conditional on the
+     * stored value of the field being the expected value, otherwise the
+     * push fails with an {@link slatepowered.veru.db.v1.ItemConflictException}
+     * and no changes are applied.
+     *
+     * @param key The field, usually a version number.
+     * @param expected The expected stored value, null for absent.
+     * @param val The new value.
+     * @return This.
+     */
+    @Override
+    public FileDatabaseItem compareAndSet(String key, Object expected, Object val) {
+        changes.condition(key, expected);
+        set(key, val);
+        return this;
+    }
+
+    @Override
+    public <T> T get(String key, Class<T> type) {
+        return type.cast(ValuePaths.get(document, key));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public FileDatabaseItem push() {
+        if (changes.isEmpty())
+            return this;
+
+        try {
+            // the stored document is a fresh copy
+            AtomicReference<Map<String, Object>> updated = new AtomicReference<>();
+            database().log().update(collectionName, key, stored -> {
+                Map<String, Object> applied = changes.applyTo(key, stored);
+                updated.set(applied);
+                return applied;
+            });
+
+            // the result of atomic operations may differ from the local copy
+            if (changes.isAtomic())
+                document = (Map<String, Object>) ValuePaths.copy(updated.get(), LinkedHashMap::new);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to push item " + key + " in " + collectionName, e);
+        } finally {
+            changes.clear();
+        }
+
+        return this;
+    }
+
+    @Override
+    public FileDatabaseItem pull() {
+        try {
+            document = database().log().get(collectionName, key);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to pull item " + key + " in " + collectionName, e);
+        }
+
+        changes.clear();
+        return this;
+    }
+
+    /**
+     * Delete the stored document of this item.
+     *
+     * @return This.
+     */
+    public FileDatabaseItem delete() {
+        try {
+            database().log().update(collectionName, key, stored -> null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete item " + key + " in " + collectionName, e);
+        }
+
+        document = null;
+        changes.clear();
+        return this;
+    }
+
+    @Override
+    public boolean available() {
+        return document != null;
+    }
+
+    public Map<String, Object> document() {
+        return document;
+    }
+
+}
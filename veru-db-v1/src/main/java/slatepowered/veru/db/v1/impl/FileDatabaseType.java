@@ -0,0 +1,66 @@
+package slatepowered.veru.db.v1.impl;
+
+import slatepowered.veru.data.Values;
+import slatepowered.veru.db.v1.Database;
+import slatepowered.veru.db.v1.DatabaseType;
+import slatepowered.veru.db.v1.Login;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Embedded database type storing items in an append-only
+ * segment log on the local file system, for single node
+ * deployments without a database server.
+ */
+public class FileDatabaseType extends DatabaseType<FileDatabase> {
+
+    public static final FileDatabaseType INSTANCE = new FileDatabaseType();
+    public static final String ID = "file";
+
+    public FileDatabaseType() {
+        super(ID);
+    }
+
+    @Override
+    protected void login(FileDatabase database, Login login) {
+        if (!(login instanceof Login.PathLogin))
+            throw new IllegalArgumentException("FileDatabaseType requires a PathLogin, got " + login);
+        if (database.log != null)
+            throw new IllegalStateException("file database " + database.name() + " is already open");
+
+        Login.PathLogin pathLogin = (Login.PathLogin) login;
+        try {
+            database.log = new SegmentLog(
+                    pathLogin.getPath(),
+                    database.maxSegmentSize,
+                    database.durable,
+                    database.syncIntervalMillis,
+                    database.compactionThreshold,
+                    database.compactionIntervalMillis
+            );
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open file database at " + pathLogin.getPath(), e);
+        }
+    }
+
+    @Override
+    protected void close(FileDatabase database) {
+        SegmentLog log = database.log;
+        if (log == null)
+            return;
+        database.log = null;
+
+        try {
+            log.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to close file database " + database.name(), e);
+        }
+    }
+
+    @Override
+    protected void putEnv(Database db, Values values) {
+
+    }
+
+}
@@ -0,0 +1,247 @@
+package slatepowered.veru.db.v1.impl;
+
+import slatepowered.veru.db.v1.QueryContext;
+
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of JDBC connections, each of which caches
+ * its prepared statements by SQL in least recently used order.
+ *
+ * Idle connections are reused last in first out, so the
+ * most recently used connections keep their statements warm.
+ */
+final class JdbcConnectionPool {
+
+    // the time after which idle connections are
+    // validated before being handed out
+    static final long VALIDATE_AFTER_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * A connection owned by the pool.
+     */
+    final class PooledConnection {
+
+        final Connection connection;
+
+        // the cached prepared statements by SQL, in access order
+        final LinkedHashMap<String, PreparedStatement> statements;
+
+        // the time this connection was last released
+        long lastReleased = System.nanoTime();
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > statementCacheSize) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * Get the cached prepared statement for the given SQL
+         * or prepare and cache it.
+         *
+         * @param sql The SQL.
+         * @return The statement.
+         */
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement != null) {
+                statementHits.increment();
+                applyTimeout(statement);
+                return statement;
+            }
+
+            statementMisses.increment();
+            statement = connection.prepareStatement(sql);
+            if (statementCacheSize > 0)
+                statements.put(sql, statement);
+            applyTimeout(statement);
+            return statement;
+        }
+
+        // sets the query timeout to the deadline of the current query,
+        // resetting it on cached statements if there is none
+        private void applyTimeout(PreparedStatement statement) throws SQLException {
+            long millis = QueryContext.remainingMillis();
+            int seconds = millis < 0 ? 0 : (int) Math.min(Integer.MAX_VALUE, (millis + 999) / 1000);
+            if (statement.getQueryTimeout() != seconds)
+                statement.setQueryTimeout(seconds);
+        }
+
+        // closes the given statement if it is not cached
+        void done(PreparedStatement statement) {
+            if (statementCacheSize <= 0)
+                closeQuietly(statement);
+        }
+
+        boolean validate() {
+            if (System.nanoTime() - lastReleased < VALIDATE_AFTER_NANOS)
+                return true;
+            try {
+                return connection.isValid(2);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            for (PreparedStatement statement : statements.values())
+                closeQuietly(statement);
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+
+            }
+        }
+
+    }
+
+    final String url;
+    final Properties properties;
+
+    // the maximum amount of open connections
+    final int maxSize;
+
+    // the maximum time to wait for a connection in nanoseconds
+    final long acquireTimeout;
+
+    // the maximum amount of statements cached per connection
+    final int statementCacheSize;
+
+    // the permits for open connections
+    final Semaphore permits;
+
+    // the idle connections, most recently used first
+    final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+
+    // all open connections
+    final Set<PooledConnection> connections = ConcurrentHashMap.newKeySet();
+
+    volatile boolean closed = false;
+
+    /* Statistics */
+    final LongAdder statementHits = new LongAdder();
+    final LongAdder statementMisses = new LongAdder();
+
+    JdbcConnectionPool(String url, String username, String password,
+                       int maxSize, long acquireTimeout, TimeUnit unit, int statementCacheSize) {
+        this.url = url;
+        this.properties = new Properties();
+        if (username != null)
+            properties.setProperty("user", username);
+        if (password != null)
+            properties.setProperty("password", password);
+        this.maxSize = maxSize;
+        this.acquireTimeout = unit.toNanos(acquireTimeout);
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Take an idle connection or open a new one, waiting
+     * for up to the acquire timeout if all are in use.
+     *
+     * @return The connection.
+     */
+    PooledConnection acquire() throws SQLException {
+        if (closed)
+            throw new SQLException("connection pool is closed");
+        try {
+            if (!permits.tryAcquire(acquireTimeout, TimeUnit.NANOSECONDS))
+                throw new SQLTimeoutException("timed out waiting for a connection, all " + maxSize + " are in use");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a connection", e);
+        }
+
+        try {
+            PooledConnection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                if (connection.validate())
+                    return connection;
+                discard(connection);
+            }
+
+            connection = new PooledConnection(DriverManager.getConnection(url, properties));
+            connections.add(connection);
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Return the given connection to the pool.
+     *
+     * @param connection The connection.
+     * @param broken Whether the connection failed and should be discarded.
+     */
+    void release(PooledConnection connection, boolean broken) {
+        if (broken || closed) {
+            discard(connection);
+        } else {
+            connection.lastReleased = System.nanoTime();
+            idle.offerFirst(connection);
+
+            // the pool may have been closed after the check above,
+            // in which case close() may have missed this connection
+            if (closed && idle.remove(connection))
+                discard(connection);
+        }
+
+        permits.release();
+    }
+
+    private void discard(PooledConnection connection) {
+        connections.remove(connection);
+        connection.close();
+    }
+
+    int getOpenCount() {
+        return connections.size();
+    }
+
+    int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Close all idle connections, connections in use
+     * are closed when released.
+     */
+    void close() {
+        closed = true;
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null)
+            discard(connection);
+    }
+
+    static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+
+        }
+    }
+
+}
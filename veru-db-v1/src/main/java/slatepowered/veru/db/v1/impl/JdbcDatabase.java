@@ -0,0 +1,286 @@
+package slatepowered.veru.db.v1.impl;
+
+import slatepowered.veru.db.v1.Database;
+import slatepowered.veru.db.v1.DatabaseManager;
+import slatepowered.veru.db.v1.ItemConflictException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A database accessed through JDBC with a built-in connection pool
+ * and a prepared statement cache per connection.
+ *
+ * The options have to be configured before logging in.
+ *
+ * @see JdbcDatabaseType
+ */
+public class JdbcDatabase extends Database {
+
+    /**
+     * A function run with a pooled connection.
+     *
+     * @param <T> The result type.
+     */
+    public interface SqlFunction<T> {
+        T apply(Connection connection) throws SQLException;
+    }
+
+    // function run with a pool owned connection
+    interface PooledFunction<T> {
+        T apply(JdbcConnectionPool.PooledConnection connection) throws SQLException;
+    }
+
+    public JdbcDatabase(DatabaseManager manager, String name) {
+        super(manager, name, JdbcDatabaseType.INSTANCE);
+    }
+
+    // the connection pool, set when open
+    volatile JdbcConnectionPool pool;
+
+    // the dialect, detected from the URL if not set
+    JdbcDialect dialect;
+
+    // the maximum amount of open connections
+    int maxPoolSize = 10;
+
+    // the maximum time to wait for a connection
+    long acquireTimeoutMillis = 30_000;
+
+    // the maximum amount of prepared statements cached per connection
+    int statementCacheSize = 64;
+
+    /**
+     * Set the maximum amount of connections kept open.
+     *
+     * @param maxPoolSize The pool size.
+     * @return This.
+     */
+    public JdbcDatabase maxPoolSize(int maxPoolSize) {
+        if (maxPoolSize < 1)
+            throw new IllegalArgumentException("pool size must be at least 1");
+        this.maxPoolSize = maxPoolSize;
+        return this;
+    }
+
+    /**
+     * Set the maximum time to wait for a connection
+     * when all connections are in use.
+     *
+     * @param timeout The timeout.
+     * @param unit The time unit.
+     * @return This.
+     */
+    public JdbcDatabase acquireTimeout(long timeout, TimeUnit unit) {
+        this.acquireTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Set the maximum amount of prepared statements cached per
+     * connection, or zero to disable statement caching.
+     *
+     * @param statementCacheSize The cache size.
+     * @return This.
+     */
+    public JdbcDatabase statementCacheSize(int statementCacheSize) {
+        if (statementCacheSize < 0)
+            throw new IllegalArgumentException("statement cache size must not be negative");
+        this.statementCacheSize = statementCacheSize;
+        return this;
+    }
+
+    /**
+     * Set the SQL dialect instead of detecting it from the URL.
+     *
+     * @param dialect The dialect.
+     * @return This.
+     */
+    public JdbcDatabase dialect(JdbcDialect dialect) {
+        this.dialect = dialect;
+        return this;
+    }
+
+    public JdbcDialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * Create an item for the row with the given primary key.
+     *
+     * @param table The table name.
+     * @param keyColumn The primary key column.
+     * @param key The key.
+     * @return The item.
+     */
+    public JdbcDatabaseItem item(String table, String keyColumn, Object key) {
+        return new JdbcDatabaseItem(this, table, keyColumn, key);
+    }
+
+    /**
+     * Run the given function with a connection from the pool.
+     *
+     * @param function The function.
+     * @param <T> The result type.
+     * @return The result.
+     * @throws JdbcException If an SQL error occurs.
+     */
+    public <T> T withConnection(SqlFunction<T> function) {
+        return withPooled(connection -> function.apply(connection.connection));
+    }
+
+    <T> T withPooled(PooledFunction<T> function) {
+        JdbcConnectionPool pool = pool();
+        JdbcConnectionPool.PooledConnection connection;
+        try {
+            connection = pool.acquire();
+        } catch (SQLException e) {
+            throw new JdbcException("Failed to acquire connection to " + name, e);
+        }
+
+        boolean broken = false;
+        try {
+            return function.apply(connection);
+        } catch (SQLException e) {
+            // connection exceptions have SQL state class 08
+            broken = e.getSQLState() != null && e.getSQLState().startsWith("08");
+            throw new JdbcException("SQL error on " + name + ": " + e.getMessage(), e);
+        } finally {
+            pool.release(connection, broken);
+        }
+    }
+
+    /**
+     * Push the changes of all given items at once, batching the upserts
+     * of items with the same table and changed columns into one statement
+     * and applying all of them in one transaction. Items with update
+     * operations or conditions are updated one by one.
+     *
+     * @param items The items.
+     * @throws JdbcException If an SQL error occurs, no changes are applied then.
+     * @throws ItemConflictException If the condition of an item does not hold,
+     *                               no changes are applied then.
+     */
+    public void pushAll(Collection<? extends JdbcDatabaseItem> items) {
+        // group the items by statement
+        Map<String, List<JdbcDatabaseItem>> batches = new LinkedHashMap<>();
+        // the items with operations or conditions, which are
+        // updated one by one as they read the stored row
+        List<JdbcDatabaseItem> atomic = new ArrayList<>();
+        int count = 0;
+        for (JdbcDatabaseItem item : items) {
+            if (item.isAtomic()) {
+                atomic.add(item);
+                count++;
+                continue;
+            }
+
+            if (item.changes.isEmpty())
+                continue;
+            String sql = dialect.upsert(item.table, item.keyColumn, new ArrayList<>(item.changes.keySet()));
+            batches.computeIfAbsent(sql, __ -> new ArrayList<>()).add(item);
+            count++;
+        }
+
+        if (count == 0)
+            return;
+        final boolean transaction = count > 1;
+        try {
+            pushBatches(batches, atomic, transaction);
+        } finally {
+            // like the other databases conditions and operations
+            // are not retried after a failed push
+            for (JdbcDatabaseItem item : atomic)
+                item.clearChanges();
+        }
+
+        for (List<JdbcDatabaseItem> batch : batches.values())
+            for (JdbcDatabaseItem item : batch)
+                item.changes.clear();
+    }
+
+    private void pushBatches(Map<String, List<JdbcDatabaseItem>> batches, List<JdbcDatabaseItem> atomic,
+                             boolean transaction) {
+        withPooled(connection -> {
+            Connection c = connection.connection;
+            if (transaction)
+                c.setAutoCommit(false);
+            try {
+                for (Map.Entry<String, List<JdbcDatabaseItem>> batch : batches.entrySet()) {
+                    PreparedStatement statement = connection.prepare(batch.getKey());
+                    try {
+                        for (JdbcDatabaseItem item : batch.getValue()) {
+                            item.bindUpsert(statement);
+                            statement.addBatch();
+                        }
+
+                        statement.executeBatch();
+                    } finally {
+                        statement.clearBatch();
+                        connection.done(statement);
+                    }
+                }
+
+                for (JdbcDatabaseItem item : atomic)
+                    item.pushAtomic(connection);
+
+                if (transaction)
+                    c.commit();
+            } catch (SQLException | RuntimeException e) {
+                // keep the original failure, a failing rollback
+                // or reset is only attached to it
+                if (transaction) {
+                    try {
+                        c.rollback();
+                        c.setAutoCommit(true);
+                    } catch (SQLException | RuntimeException rollbackError) {
+                        e.addSuppressed(rollbackError);
+                    }
+                }
+
+                throw e;
+            }
+
+            if (transaction)
+                c.setAutoCommit(true);
+
+            return null;
+        });
+    }
+
+    JdbcConnectionPool pool() {
+        JdbcConnectionPool pool = this.pool;
+        if (pool == null)
+            throw new IllegalStateException("JDBC database " + name + " is not open");
+        return pool;
+    }
+
+    public int getOpenConnections() {
+        JdbcConnectionPool pool = this.pool;
+        return pool != null ? pool.getOpenCount() : 0;
+    }
+
+    public int getIdleConnections() {
+        JdbcConnectionPool pool = this.pool;
+        return pool != null ? pool.getIdleCount() : 0;
+    }
+
+    public long getStatementCacheHits() {
+        JdbcConnectionPool pool = this.pool;
+        return pool != null ? pool.statementHits.sum() : 0;
+    }
+
+    public long getStatementCacheMisses() {
+        JdbcConnectionPool pool = this.pool;
+        return pool != null ? pool.statementMisses.sum() : 0;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return pool != null;
+    }
+
+}
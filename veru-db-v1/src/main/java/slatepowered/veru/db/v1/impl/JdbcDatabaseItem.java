@@ -0,0 +1,353 @@
+package slatepowered.veru.db.v1.impl;
+
+import slatepowered.veru.db.v1.DatabaseItem;
+import slatepowered.veru.db.v1.ItemConflictException;
+import slatepowered.veru.db.v1.UpdateOperation;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * A row in a table of a {@link JdbcDatabase}, where the key is the
+ * value of the primary key column and the values are the columns.
+ *
+ * Column names are case insensitive and only the changed columns
+ * are written on push. Numeric update operations and compare-and-set
+ * are applied to the stored row in one {@code UPDATE} statement.
+ */
+public class JdbcDatabaseItem extends DatabaseItem {
+
+    // the table name
+    final String table;
+
+    // the primary key column
+    final String keyColumn;
+
+    // the primary key value
+    final Object key;
+
+    // the changed columns, case insensitive like the row and sorted
+    // so items changing the same columns share one statement
+    final Map<String, Object> changes = newRow();
+
+    // the update operations of each column in order,
+    // only on columns without pending changes
+    final Map<String, List<UpdateOperation>> operations = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    // the column compared on push and its expected
+    // stored value, the column is null if unconditional
+    String conditionColumn;
+    Object conditionExpected;
+
+    // the local copy of the row
+    Map<String, Object> row = newRow();
+
+    public JdbcDatabaseItem(JdbcDatabase database, String table, String keyColumn, Object key) {
+        super(database);
+        this.table = JdbcDialect.checkIdentifier(table);
+        this.keyColumn = JdbcDialect.checkIdentifier(keyColumn);
+        this.key = Objects.requireNonNull(key, "key");
+    }
+
+    @Override
+    public JdbcDatabase database() {
+        return (JdbcDatabase) super.database();
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getKeyColumn() {
+        return keyColumn;
+    }
+
+    @Override
+    public Object key() {
+        return key;
+    }
+
+    @Override
+    public void set(String key, Object val) {
+        JdbcDialect.checkIdentifier(key);
+        if (key.equalsIgnoreCase(keyColumn))
+            throw new IllegalArgumentException("can not change the primary key column " + keyColumn);
+        if (row != null)
+            row.put(key, val);
+        operations.remove(key);
+        changes.put(key, val);
+    }
+
+    @Override
+    protected void apply(UpdateOperation operation) {
+        String column = operation.getPath();
+        JdbcDialect.checkIdentifier(column);
+        if (column.equalsIgnoreCase(keyColumn))
+            throw new IllegalArgumentException("can not change the primary key column " + keyColumn);
+        if (!JdbcDialect.isSupported(operation))
+            throw new IllegalArgumentException("operation " + operation.getKind() + " is not supported on SQL column " + column);
+
+        if (row != null) {
+            Object val = operation.apply(row.get(column));
+            if (val != UpdateOperation.UNCHANGED)
+                row.put(column, val);
+        }
+
+        // a pending set already sends the local value
+        if (changes.containsKey(column)) {
+            Object val = operation.apply(changes.get(column));
+            if (val != UpdateOperation.UNCHANGED)
+                changes.put(column, val);
+            return;
+        }
+
+        List<UpdateOperation> list = operations.computeIfAbsent(column, __ -> new ArrayList<>());
+        UpdateOperation combined = list.isEmpty() ? null : list.get(list.size() - 1).combine(operation);
+        if (combined != null) list.set(list.size() - 1, combined);
+        else list.add(operation);
+    }
+
+    /**
+     * Sets the given column and makes the next push conditional on the
+     * stored value of the column being the expected value.
+     *
+     * @param key The column.
+     * @param expected The expected stored value, null for absent.
+     * @param val The new value.
+     * @return This.
+     * @throws IllegalStateException If the push is already conditional on another column.
+     */
+    @Override
+    public JdbcDatabaseItem compareAndSet(String key, Object expected, Object val) {
+        JdbcDialect.checkIdentifier(key);
+        if (conditionColumn != null && !conditionColumn.equalsIgnoreCase(key))
+            throw new IllegalStateException("a push can only be conditional on one column, pending condition on '" + conditionColumn + "'");
+        if (conditionColumn == null) {
+            conditionColumn = key;
+            conditionExpected = expected;
+        }
+
+        set(key, val);
+        return this;
+    }
+
+    @Override
+    public void unset(String key) {
+        set(key, null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Class<T> type) {
+        if (row == null)
+            return null;
+        Object val = row.get(key);
+        if (val == null || type.isInstance(val))
+            return (T) val;
+
+        // widen or narrow numbers, as the JDBC
+        // driver decides on the numeric type
+        if (val instanceof Number) {
+            Number number = (Number) val;
+            if (type == Integer.class) return (T) Integer.valueOf(number.intValue());
+            if (type == Long.class) return (T) Long.valueOf(number.longValue());
+            if (type == Double.class) return (T) Double.valueOf(number.doubleValue());
+            if (type == Float.class) return (T) Float.valueOf(number.floatValue());
+            if (type == Short.class) return (T) Short.valueOf(number.shortValue());
+            if (type == Byte.class) return (T) Byte.valueOf(number.byteValue());
+            if (type == Boolean.class) return (T) Boolean.valueOf(number.intValue() != 0);
+        }
+
+        return type.cast(val);
+    }
+
+    /**
+     * Get whether this item has changes which were not pushed yet.
+     *
+     * @return Whether there are changes.
+     */
+    public boolean hasChanges() {
+        return !changes.isEmpty() || !operations.isEmpty() || conditionColumn != null;
+    }
+
+    // whether the push has to read the stored row
+    boolean isAtomic() {
+        return !operations.isEmpty() || conditionColumn != null;
+    }
+
+    @Override
+    public JdbcDatabaseItem push() {
+        database().pushAll(Collections.singletonList(this));
+        return this;
+    }
+
+    // binds the key and changed columns to the upsert statement
+    void bindUpsert(PreparedStatement statement) throws SQLException {
+        statement.setObject(1, key);
+        int i = 2;
+        for (Object val : changes.values())
+            statement.setObject(i++, val);
+    }
+
+    /**
+     * Pushes the changes, operations and condition in one update of the
+     * stored row, inserting the row if it is absent, and reads back the
+     * resulting row.
+     *
+     * @throws ItemConflictException If the condition does not hold.
+     */
+    void pushAtomic(JdbcConnectionPool.PooledConnection connection) throws SQLException {
+        JdbcDialect dialect = database().dialect;
+        List<String> assignments = new ArrayList<>();
+        List<Object> parameters = new ArrayList<>();
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            assignments.add(change.getKey() + " = ?");
+            parameters.add(change.getValue());
+        }
+
+        for (Map.Entry<String, List<UpdateOperation>> entry : operations.entrySet()) {
+            String expression = entry.getKey();
+            List<Object> expressionParameters = new ArrayList<>();
+            for (UpdateOperation operation : entry.getValue()) {
+                List<Object> next = new ArrayList<>();
+                expression = dialect.operation(operation, expression, expressionParameters, next);
+                expressionParameters = next;
+            }
+
+            assignments.add(entry.getKey() + " = " + expression);
+            parameters.addAll(expressionParameters);
+        }
+
+        boolean expectNull = conditionExpected == null;
+        parameters.add(key);
+        if (conditionColumn != null && !expectNull)
+            parameters.add(conditionExpected);
+        String update = dialect.update(table, keyColumn, assignments, conditionColumn, expectNull);
+        if (execute(connection, update, parameters) == 0) {
+            if (conditionColumn != null && !expectNull)
+                throw new ItemConflictException(key, conditionColumn, conditionExpected);
+
+            // insert the absent row with the operations applied to absent values
+            List<String> columns = new ArrayList<>(changes.keySet());
+            List<Object> values = new ArrayList<>();
+            values.add(key);
+            values.addAll(changes.values());
+            for (Map.Entry<String, List<UpdateOperation>> entry : operations.entrySet()) {
+                Object val = null;
+                for (UpdateOperation operation : entry.getValue()) {
+                    Object next = operation.apply(val);
+                    if (next != UpdateOperation.UNCHANGED)
+                        val = next;
+                }
+
+                columns.add(entry.getKey());
+                values.add(val);
+            }
+
+            try {
+                execute(connection, dialect.insertRow(table, keyColumn, columns), values);
+            } catch (SQLException e) {
+                // integrity constraint violations have SQL state class 23,
+                // the row was inserted concurrently
+                if (e.getSQLState() == null || !e.getSQLState().startsWith("23"))
+                    throw e;
+                if (conditionColumn != null)
+                    throw new ItemConflictException(key, conditionColumn, conditionExpected);
+                execute(connection, update, parameters);
+            }
+        }
+
+        row = select(connection);
+    }
+
+    // executes the given update with the parameters
+    private static int execute(JdbcConnectionPool.PooledConnection connection, String sql,
+                               List<Object> parameters) throws SQLException {
+        PreparedStatement statement = connection.prepare(sql);
+        try {
+            for (int i = 0; i < parameters.size(); i++)
+                statement.setObject(i + 1, parameters.get(i));
+            return statement.executeUpdate();
+        } finally {
+            connection.done(statement);
+        }
+    }
+
+    // clears the pending changes, operations and condition
+    void clearChanges() {
+        changes.clear();
+        operations.clear();
+        conditionColumn = null;
+        conditionExpected = null;
+    }
+
+    // reads the stored row
+    private Map<String, Object> select(JdbcConnectionPool.PooledConnection connection) throws SQLException {
+        PreparedStatement statement = connection.prepare(database().dialect.select(table, keyColumn));
+        try {
+            statement.setObject(1, key);
+            try (ResultSet result = statement.executeQuery()) {
+                if (!result.next())
+                    return null;
+                ResultSetMetaData meta = result.getMetaData();
+                Map<String, Object> row = newRow();
+                for (int i = 1, n = meta.getColumnCount(); i <= n; i++)
+                    row.put(meta.getColumnLabel(i), result.getObject(i));
+                return row;
+            }
+        } finally {
+            connection.done(statement);
+        }
+    }
+
+    @Override
+    public JdbcDatabaseItem pull() {
+        row = database().withPooled(this::select);
+        clearChanges();
+        return this;
+    }
+
+    /**
+     * Delete the row of this item.
+     *
+     * @return This.
+     */
+    public JdbcDatabaseItem delete() {
+        JdbcDatabase database = database();
+        database.withPooled(connection -> {
+            PreparedStatement statement = connection.prepare(database.dialect.delete(table, keyColumn));
+            try {
+                statement.setObject(1, key);
+                return statement.executeUpdate();
+            } finally {
+                connection.done(statement);
+            }
+        });
+
+        row = null;
+        clearChanges();
+        return this;
+    }
+
+    @Override
+    public boolean available() {
+        return row != null;
+    }
+
+    /**
+     * Get the local copy of the row.
+     *
+     * @return The columns by name or null if absent.
+     */
+    public Map<String, Object> row() {
+        return row;
+    }
+
+    private static Map<String, Object> newRow() {
+        return new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    }
+
+}
@@ -0,0 +1,63 @@
+package slatepowered.veru.db.v1.impl;
+
+import slatepowered.veru.data.Values;
+import slatepowered.veru.db.v1.Database;
+import slatepowered.veru.db.v1.DatabaseType;
+import slatepowered.veru.db.v1.Login;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Database type for SQL databases accessed through JDBC,
+ * where items are rows keyed by their primary key column.
+ *
+ * Accepts a {@link Login.JdbcLogin} or a {@link Login.URILogin}
+ * with a JDBC URL and no credentials.
+ */
+public class JdbcDatabaseType extends DatabaseType<JdbcDatabase> {
+
+    public static final JdbcDatabaseType INSTANCE = new JdbcDatabaseType();
+    public static final String ID = "jdbc";
+
+    public JdbcDatabaseType() {
+        super(ID);
+    }
+
+    @Override
+    protected void login(JdbcDatabase database, Login login) {
+        String url, username = null, password = null;
+        if (login instanceof Login.JdbcLogin) {
+            Login.JdbcLogin jdbcLogin = (Login.JdbcLogin) login;
+            url = jdbcLogin.getURL();
+            username = jdbcLogin.getUsername();
+            password = jdbcLogin.getPassword();
+        } else if (login instanceof Login.URILogin) {
+            url = ((Login.URILogin) login).getURI();
+        } else {
+            throw new IllegalArgumentException("JdbcDatabaseType requires a JdbcLogin or URILogin, got " + login);
+        }
+
+        if (database.pool != null)
+            throw new IllegalStateException("JDBC database " + database.name() + " is already open");
+        if (database.dialect == null)
+            database.dialect = JdbcDialect.forURL(url);
+        database.pool = new JdbcConnectionPool(url, username, password,
+                database.maxPoolSize, database.acquireTimeoutMillis, TimeUnit.MILLISECONDS,
+                database.statementCacheSize);
+    }
+
+    @Override
+    protected void close(JdbcDatabase database) {
+        JdbcConnectionPool pool = database.pool;
+        if (pool == null)
+            return;
+        database.pool = null;
+        pool.close();
+    }
+
+    @Override
+    protected void putEnv(Database db, Values values) {
+
+    }
+
+}
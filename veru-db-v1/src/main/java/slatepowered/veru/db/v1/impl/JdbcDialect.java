@@ -0,0 +1,245 @@
+package slatepowered.veru.db.v1.impl;
+
+import slatepowered.veru.db.v1.UpdateOperation;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The SQL dialects supported by the {@link JdbcDatabase}, which
+ * only differ in how upserts are expressed.
+ */
+public enum JdbcDialect {
+
+    H2 {
+        @Override
+        public String upsert(String table, String keyColumn, List<String> columns) {
+            StringBuilder b = new StringBuilder("MERGE INTO ").append(table).append(" (");
+            appendColumns(b, keyColumn, columns);
+            b.append(") KEY (").append(keyColumn).append(") VALUES (");
+            appendParameters(b, columns.size() + 1);
+            return b.append(')').toString();
+        }
+    },
+
+    MYSQL {
+        @Override
+        public String upsert(String table, String keyColumn, List<String> columns) {
+            StringBuilder b = insert(table, keyColumn, columns);
+            if (columns.isEmpty())
+                return "INSERT IGNORE" + b.substring("INSERT".length());
+            b.append(" ON DUPLICATE KEY UPDATE ");
+            for (int i = 0; i < columns.size(); i++) {
+                if (i != 0) b.append(", ");
+                b.append(columns.get(i)).append(" = VALUES(").append(columns.get(i)).append(')');
+            }
+
+            return b.toString();
+        }
+    },
+
+    POSTGRESQL {
+        @Override
+        public String upsert(String table, String keyColumn, List<String> columns) {
+            return onConflict(table, keyColumn, columns);
+        }
+    },
+
+    SQLITE {
+        @Override
+        public String upsert(String table, String keyColumn, List<String> columns) {
+            return onConflict(table, keyColumn, columns);
+        }
+    };
+
+    // the identifiers allowed as table and column names,
+    // as they are inlined into the generated statements
+    static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    /**
+     * Create the statement inserting or updating the row with the given
+     * key, the parameters are the key followed by the columns in order.
+     *
+     * @param table The table name.
+     * @param keyColumn The primary key column.
+     * @param columns The columns to set.
+     * @return The SQL statement.
+     */
+    public abstract String upsert(String table, String keyColumn, List<String> columns);
+
+    /**
+     * Create the statement selecting the row with the given key.
+     *
+     * @param table The table name.
+     * @param keyColumn The primary key column.
+     * @return The SQL statement.
+     */
+    public String select(String table, String keyColumn) {
+        return "SELECT * FROM " + table + " WHERE " + keyColumn + " = ?";
+    }
+
+    /**
+     * Create the statement deleting the row with the given key.
+     *
+     * @param table The table name.
+     * @param keyColumn The primary key column.
+     * @return The SQL statement.
+     */
+    public String delete(String table, String keyColumn) {
+        return "DELETE FROM " + table + " WHERE " + keyColumn + " = ?";
+    }
+
+    /**
+     * Create the statement updating the row with the given key, the
+     * parameters are those of the assignments in order, followed by
+     * the key and the expected value if compared to a non-null value.
+     *
+     * @param table The table name.
+     * @param keyColumn The primary key column.
+     * @param assignments The assignments like {@code column = ?}.
+     * @param conditionColumn The column compared, null if unconditional.
+     * @param expectNull Whether the compared column is expected to be null.
+     * @return The SQL statement.
+     */
+    public String update(String table, String keyColumn, List<String> assignments,
+                         String conditionColumn, boolean expectNull) {
+        StringBuilder b = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        for (int i = 0; i < assignments.size(); i++) {
+            if (i != 0) b.append(", ");
+            b.append(assignments.get(i));
+        }
+
+        b.append(" WHERE ").append(keyColumn).append(" = ?");
+        if (conditionColumn != null)
+            b.append(" AND ").append(conditionColumn).append(expectNull ? " IS NULL" : " = ?");
+        return b.toString();
+    }
+
+    /**
+     * Create the statement inserting the row with the given key, the
+     * parameters are the key followed by the columns in order.
+     *
+     * @param table The table name.
+     * @param keyColumn The primary key column.
+     * @param columns The columns to set.
+     * @return The SQL statement.
+     */
+    public String insertRow(String table, String keyColumn, List<String> columns) {
+        return insert(table, keyColumn, columns).toString();
+    }
+
+    /**
+     * Create the expression applying the given operation to the current
+     * value expression, treating null as absent like the other databases.
+     * The parameters of the expression are added to the given list, the
+     * current expression may be repeated with its parameters.
+     *
+     * @param operation The operation.
+     * @param current The current value expression.
+     * @param currentParameters The parameters of the current expression.
+     * @param parameters The list to add the parameters to.
+     * @return The expression.
+     * @throws IllegalArgumentException If the operation can not be expressed on a column.
+     */
+    public String operation(UpdateOperation operation, String current,
+                            List<Object> currentParameters, List<Object> parameters) {
+        Object value = operation.getValue();
+        switch (operation.getKind()) {
+            case INCREMENT:
+                parameters.addAll(currentParameters);
+                parameters.add(value);
+                return "COALESCE(" + current + ", 0) + ?";
+            case MIN:
+            case MAX: {
+                parameters.add(value);
+                parameters.addAll(currentParameters);
+                parameters.add(value);
+                parameters.addAll(currentParameters);
+                parameters.add(value);
+                String op = operation.getKind() == UpdateOperation.Kind.MIN ? " < " : " > ";
+                return "COALESCE(CASE WHEN ?" + op + current + " THEN ? ELSE " + current + " END, ?)";
+            }
+            default:
+                throw new IllegalArgumentException("operation " + operation.getKind() + " is not supported on SQL columns");
+        }
+    }
+
+    /**
+     * Check whether the given operation can be applied to a column.
+     *
+     * @param operation The operation.
+     * @return Whether it is supported.
+     */
+    public static boolean isSupported(UpdateOperation operation) {
+        switch (operation.getKind()) {
+            case INCREMENT:
+            case MIN:
+            case MAX:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Find the dialect for the given JDBC URL.
+     *
+     * @param url The URL.
+     * @return The dialect.
+     * @throws IllegalArgumentException If the URL is not of a supported database.
+     */
+    public static JdbcDialect forURL(String url) {
+        if (url.startsWith("jdbc:h2:")) return H2;
+        if (url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:")) return MYSQL;
+        if (url.startsWith("jdbc:postgresql:")) return POSTGRESQL;
+        if (url.startsWith("jdbc:sqlite:")) return SQLITE;
+        throw new IllegalArgumentException("no dialect known for JDBC URL " + url + ", set it explicitly");
+    }
+
+    /**
+     * Check that the given table or column name is a plain identifier.
+     *
+     * @param name The name.
+     * @return The name.
+     * @throws IllegalArgumentException If it is not.
+     */
+    public static String checkIdentifier(String name) {
+        if (name == null || !IDENTIFIER.matcher(name).matches())
+            throw new IllegalArgumentException("invalid SQL identifier '" + name + "'");
+        return name;
+    }
+
+    static StringBuilder insert(String table, String keyColumn, List<String> columns) {
+        StringBuilder b = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        appendColumns(b, keyColumn, columns);
+        b.append(") VALUES (");
+        appendParameters(b, columns.size() + 1);
+        return b.append(')');
+    }
+
+    static String onConflict(String table, String keyColumn, List<String> columns) {
+        StringBuilder b = insert(table, keyColumn, columns);
+        b.append(" ON CONFLICT (").append(keyColumn).append(')');
+        if (columns.isEmpty())
+            return b.append(" DO NOTHING").toString();
+        b.append(" DO UPDATE SET ");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i != 0) b.append(", ");
+            b.append(columns.get(i)).append(" = excluded.").append(columns.get(i));
+        }
+
+        return b.toString();
+    }
+
+    static void appendColumns(StringBuilder b, String keyColumn, List<String> columns) {
+        b.append(keyColumn);
+        for (String column : columns)
+            b.append(", ").append(column);
+    }
+
+    static void appendParameters(StringBuilder b, int count) {
+        for (int i = 0; i < count; i++)
+            b.append(i == 0 ? "?" : ", ?");
+    }
+
+}
@@ -0,0 +1,20 @@
+package slatepowered.veru.db.v1.impl;
+
+import java.sql.SQLException;
+
+/**
+ * Unchecked wrapper for {@link SQLException}s thrown
+ * by operations on a {@link JdbcDatabase}.
+ */
+public class JdbcException extends RuntimeException {
+
+    public JdbcException(String message, SQLException cause) {
+        super(message, cause);
+    }
+
+    @Override
+    public synchronized SQLException getCause() {
+        return (SQLException) super.getCause();
+    }
+
+}
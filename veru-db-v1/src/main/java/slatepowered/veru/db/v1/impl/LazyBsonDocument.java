@@ -0,0 +1,255 @@
+package slatepowered.veru.db.v1.impl;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.Decoder;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * A document backed by the raw BSON bytes returned by the server,
+ * which only decodes top-level fields when they are first accessed
+ * and keeps the decoded values.
+ *
+ * Operations on the whole map like iterating decode all remaining
+ * fields once, after which this behaves like a normal document.
+ *
+ * Reading decodes into the local map, so all accesses are synchronized
+ * to allow concurrent readers like a decoded document does.
+ *
+ * Like {@link Document} it is only equal to documents of the same class,
+ * use {@code new Document(lazy)} to compare with plain documents.
+ */
+public final class LazyBsonDocument extends Document {
+
+    static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+
+    // the raw document as received
+    final RawBsonDocument raw;
+
+    // the decoder for nested documents
+    final Decoder<Document> decoder;
+
+    // the keys which were decoded, put or removed, for
+    // which the local map holds the current state
+    final Set<String> touched = new HashSet<>();
+
+    // whether all fields were decoded
+    boolean materialized = false;
+
+    public LazyBsonDocument(RawBsonDocument raw, Decoder<Document> decoder) {
+        this.raw = raw;
+        this.decoder = decoder;
+    }
+
+    /**
+     * Copy this document sharing the raw bytes, copying only the
+     * fields which were decoded or changed with the given function.
+     *
+     * @param copier The function to copy values.
+     * @return The copy or null if all fields are decoded already.
+     */
+    public synchronized LazyBsonDocument copy(UnaryOperator<Object> copier) {
+        if (materialized)
+            return null;
+        LazyBsonDocument copy = new LazyBsonDocument(raw, decoder);
+        for (String key : touched) {
+            copy.touched.add(key);
+            if (super.containsKey(key))
+                copy.putLocal(key, copier.apply(super.get(key)));
+        }
+
+        return copy;
+    }
+
+    private void putLocal(String key, Object value) {
+        super.put(key, value);
+    }
+
+    // decodes a single value like the document codec would
+    private Object decode(BsonValue value) {
+        BsonDocument wrapper = new BsonDocument("v", value);
+        return decoder.decode(new BsonDocumentReader(wrapper), DECODER_CONTEXT).get("v");
+    }
+
+    private boolean isLocal(Object key) {
+        return materialized || touched.contains(key);
+    }
+
+    // decodes all remaining fields in their stored order
+    private void materialize() {
+        if (materialized)
+            return;
+        if (touched.isEmpty()) {
+            super.putAll(raw.decode(decoder));
+        } else {
+            LinkedHashMap<String, Object> all = new LinkedHashMap<>();
+            for (Map.Entry<String, BsonValue> entry : raw.entrySet()) {
+                String key = entry.getKey();
+                if (!touched.contains(key))
+                    all.put(key, decode(entry.getValue()));
+                else if (super.containsKey(key))
+                    all.put(key, super.get(key));
+            }
+
+            // fields added locally
+            for (String key : super.keySet())
+                if (!all.containsKey(key))
+                    all.put(key, super.get(key));
+
+            super.clear();
+            super.putAll(all);
+            touched.clear();
+        }
+
+        materialized = true;
+    }
+
+    @Override
+    public synchronized Object get(Object key) {
+        if (isLocal(key))
+            return super.get(key);
+        if (!(key instanceof String))
+            return null;
+
+        BsonValue value = raw.get(key);
+        if (value == null)
+            return null;
+        Object decoded = decode(value);
+        touched.add((String) key);
+        super.put((String) key, decoded);
+        return decoded;
+    }
+
+    @Override
+    public <T> T get(Object key, Class<T> clazz) {
+        return clazz.cast(get(key));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, T defaultValue) {
+        Object value = get(key);
+        return value == null ? defaultValue : (T) value;
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        if (isLocal(key))
+            return super.containsKey(key);
+        return raw.containsKey(key);
+    }
+
+    @Override
+    public synchronized Object put(String key, Object value) {
+        Object previous = get(key);
+        if (!materialized)
+            touched.add(key);
+        super.put(key, value);
+        return previous;
+    }
+
+    @Override
+    public Document append(String key, Object value) {
+        put(key, value);
+        return this;
+    }
+
+    @Override
+    public synchronized Object remove(Object key) {
+        Object previous = get(key);
+        if (!materialized && key instanceof String)
+            touched.add((String) key);
+        super.remove(key);
+        return previous;
+    }
+
+    @Override
+    public synchronized void putAll(Map<? extends String, ?> map) {
+        for (Map.Entry<? extends String, ?> entry : map.entrySet())
+            put(entry.getKey(), entry.getValue());
+    }
+
+    @Override
+    public synchronized void clear() {
+        materialized = true;
+        touched.clear();
+        super.clear();
+    }
+
+    @Override
+    public synchronized int size() {
+        if (materialized)
+            return super.size();
+        int size = raw.size();
+        for (String key : touched) {
+            boolean stored = raw.containsKey(key);
+            boolean local = super.containsKey(key);
+            if (stored && !local) size--;
+            else if (!stored && local) size++;
+        }
+
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public synchronized boolean containsValue(Object value) {
+        materialize();
+        return super.containsValue(value);
+    }
+
+    @Override
+    public synchronized Set<String> keySet() {
+        materialize();
+        return super.keySet();
+    }
+
+    @Override
+    public synchronized Collection<Object> values() {
+        materialize();
+        return super.values();
+    }
+
+    @Override
+    public synchronized Set<Map.Entry<String, Object>> entrySet() {
+        materialize();
+        return super.entrySet();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        // the plain document equality requires the same class,
+        // so only lazy documents can be equal to keep it symmetric
+        if (!(o instanceof LazyBsonDocument))
+            return false;
+
+        // compare by content without holding both locks at once
+        Set<Map.Entry<String, Object>> other = ((LazyBsonDocument) o).entrySet();
+        return entrySet().equals(other);
+    }
+
+    @Override
+    public synchronized int hashCode() {
+        materialize();
+        return super.hashCode();
+    }
+
+    @Override
+    public synchronized String toString() {
+        materialize();
+        return super.toString();
+    }
+
+}
@@ -0,0 +1,121 @@
+package slatepowered.veru.db.v1.impl;
+
+import slatepowered.veru.db.v1.Database;
+import slatepowered.veru.db.v1.DatabaseManager;
+import slatepowered.veru.db.v1.QueryCursor;
+import slatepowered.veru.db.v1.ValuePaths;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A database storing collections of documents in memory.
+ *
+ * @see MemoryDatabaseType
+ */
+public class MemoryDatabase extends Database {
+
+    public MemoryDatabase(DatabaseManager manager, String name) {
+        super(manager, name, MemoryDatabaseType.INSTANCE);
+    }
+
+    // the collections by name, mapping keys to the stored
+    // documents which are never mutated after being stored
+    final ConcurrentHashMap<String, ConcurrentHashMap<Object, Map<String, Object>>> collections = new ConcurrentHashMap<>();
+
+    // whether the database was logged into
+    volatile boolean open;
+
+    // the artificial latency per operation and the
+    // maximum random jitter added to it, in nanoseconds
+    volatile long latency;
+    volatile long latencyJitter;
+
+    /**
+     * Set the artificial latency added to every operation on the items
+     * of this database, to simulate the round trip to a real database.
+     *
+     * @param latency The fixed latency.
+     * @param jitter The maximum random latency added on top.
+     * @param unit The time unit.
+     * @return This.
+     */
+    public MemoryDatabase latency(long latency, long jitter, TimeUnit unit) {
+        this.latency = unit.toNanos(latency);
+        this.latencyJitter = unit.toNanos(jitter);
+        return this;
+    }
+
+    /**
+     * Get or create the collection with the given name.
+     *
+     * @param name The collection name.
+     * @return The map of keys to stored documents.
+     */
+    public Map<Object, Map<String, Object>> getCollection(String name) {
+        return collection(name);
+    }
+
+    ConcurrentHashMap<Object, Map<String, Object>> collection(String name) {
+        return collections.computeIfAbsent(name, __ -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Create an item for the given key in the given collection.
+     *
+     * @param collection The collection name.
+     * @param key The key.
+     * @return The item.
+     */
+    public MemoryDatabaseItem item(String collection, Object key) {
+        return new MemoryDatabaseItem(this, collection, key);
+    }
+
+    /**
+     * Open a cursor over all items in the given collection, items
+     * are copied as they are iterated and the cursor is weakly
+     * consistent with concurrent changes.
+     *
+     * @param collection The collection name.
+     * @return The cursor.
+     */
+    @SuppressWarnings("unchecked")
+    public QueryCursor<MemoryDatabaseItem> scan(String collection) {
+        return QueryCursor.of(collection(collection).entrySet().iterator(), null).map(entry -> {
+            MemoryDatabaseItem item = new MemoryDatabaseItem(this, collection, entry.getKey());
+            item.document = (Map<String, Object>) ValuePaths.copy(entry.getValue(), LinkedHashMap::new);
+            return item;
+        });
+    }
+
+    /**
+     * Remove all collections and their items.
+     */
+    public void clear() {
+        collections.clear();
+    }
+
+    // blocks for the configured artificial latency
+    void simulateLatency() {
+        long nanos = latency;
+        long jitter = latencyJitter;
+        if (jitter > 0)
+            nanos += ThreadLocalRandom.current().nextLong(jitter);
+        if (nanos <= 0)
+            return;
+
+        long end = System.nanoTime() + nanos;
+        for (long remaining = nanos; remaining > 0; remaining = end - System.nanoTime())
+            LockSupport.parkNanos(remaining);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+}
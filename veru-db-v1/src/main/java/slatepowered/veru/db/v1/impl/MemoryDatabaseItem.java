@@ -0,0 +1,144 @@
+package slatepowered.veru.db.v1.impl;
+
+import slatepowered.veru.db.v1.DatabaseItem;
+import slatepowered.veru.db.v1.UpdateOperation;
+import slatepowered.veru.db.v1.ValuePaths;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An item in a {@link MemoryDatabase}, which like {@link MongoDatabaseItem}
+ * keeps a local copy of the document and applies only the changed fields
+ * atomically on push.
+ */
+public class MemoryDatabaseItem extends DatabaseItem {
+
+    // the collection name
+    final String collectionName;
+
+    // the primary key value
+    final Object key;
+
+    // the pending changes
+    final DocumentChanges changes = new DocumentChanges();
+
+    // the local copy of the document
+    Map<String, Object> document = new LinkedHashMap<>();
+
+    public MemoryDatabaseItem(MemoryDatabase database, String collectionName, Object key) {
+        super(database);
+        this.collectionName = Objects.requireNonNull(collectionName, "collectionName");
+        this.key = Objects.requireNonNull(key, "key");
+    }
+
+    @Override
+    public MemoryDatabase database() {
+        return (MemoryDatabase) super.database();
+    }
+
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+    @Override
+    public Object key() {
+        return key;
+    }
+
+    @Override
+    public void set(String key, Object val) {
+        if (document != null)
+            ValuePaths.put(document, key, val, LinkedHashMap::new);
+        changes.set(key, val);
+    }
+
+    @Override
+    public void unset(String key) {
+        if (document != null)
+            ValuePaths.remove(document, key);
+        changes.unset(key);
+    }
+
+    /**
+     * Registers the operation to be applied to the stored document
+     * on push, atomically with the other changes.
+     *
+     * @param operation The operation.
+     */
+    @Override
+    protected void apply(UpdateOperation operation) {
+        changes.apply(operation, document);
+    }
+
+    /**
+     * Sets the given field and makes the next push conditional on the
+     * stored value of the field being the expected value, otherwise the
+     * push fails with an {@link slatepowered.veru.db.v1.ItemConflictException}
+     * and no changes are applied.
+     *
+     * @param key The field, usually a version number.
+     * @param expected The expected stored value, null for absent.
+     * @param val The new value.
+     * @return This.
+     */
+    @Override
+    public MemoryDatabaseItem compareAndSet(String key, Object expected, Object val) {
+        changes.condition(key, expected);
+        set(key, val);
+        return this;
+    }
+
+    @Override
+    public <T> T get(String key, Class<T> type) {
+        return type.cast(ValuePaths.get(document, key));
+    }
+
+    @Override
+    public MemoryDatabaseItem push() {
+        if (changes.isEmpty())
+            return this;
+
+        MemoryDatabase database = database();
+        database.simulateLatency();
+        try {
+            Map<String, Object> updated = database.collection(collectionName).compute(key, (k, stored) ->
+                    // copy on write, stored documents are never mutated
+                    changes.applyTo(key, stored == null ? null : copy(stored)));
+
+            // the result of atomic operations may differ from the local copy
+            if (changes.isAtomic())
+                document = copy(updated);
+        } finally {
+            changes.clear();
+        }
+
+        return this;
+    }
+
+    @Override
+    public MemoryDatabaseItem pull() {
+        MemoryDatabase database = database();
+        database.simulateLatency();
+        Map<String, Object> stored = database.collection(collectionName).get(key);
+        document = stored != null ? copy(stored) : null;
+        changes.clear();
+        return this;
+    }
+
+    @Override
+    public boolean available() {
+        return document != null;
+    }
+
+    public Map<String, Object> document() {
+        return document;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> copy(Map<String, Object> document) {
+        return (Map<String, Object>) ValuePaths.copy(document, LinkedHashMap::new);
+    }
+
+}
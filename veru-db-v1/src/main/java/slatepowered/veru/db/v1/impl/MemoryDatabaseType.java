@@ -0,0 +1,38 @@
+package slatepowered.veru.db.v1.impl;
+
+import slatepowered.veru.data.Values;
+import slatepowered.veru.db.v1.Database;
+import slatepowered.veru.db.v1.DatabaseType;
+import slatepowered.veru.db.v1.Login;
+
+/**
+ * Fully in-process database type, storing all items in concurrent
+ * maps. Meant for tests and for benchmarking the framework overhead
+ * separately from a real database.
+ */
+public class MemoryDatabaseType extends DatabaseType<MemoryDatabase> {
+
+    public static final MemoryDatabaseType INSTANCE = new MemoryDatabaseType();
+    public static final String ID = "memory";
+
+    public MemoryDatabaseType() {
+        super(ID);
+    }
+
+    @Override
+    protected void login(MemoryDatabase database, Login login) {
+        // any login is accepted
+        database.open = true;
+    }
+
+    @Override
+    protected void close(MemoryDatabase database) {
+        database.open = false;
+    }
+
+    @Override
+    protected void putEnv(Database db, Values values) {
+
+    }
+
+}
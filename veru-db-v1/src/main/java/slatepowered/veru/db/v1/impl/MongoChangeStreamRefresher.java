@@ -0,0 +1,180 @@
+package slatepowered.veru.db.v1.impl;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import slatepowered.veru.db.v1.NearCache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches a collection with a change stream and refreshes the items of
+ * a {@link NearCache} as soon as their documents change, instead of only
+ * when their refresh is due.
+ *
+ * Change streams require a replica set or sharded cluster, on other
+ * deployments this stops and the near cache keeps refreshing by time.
+ *
+ * @see MongoDatabase#watch(NearCache, String, String)
+ */
+public class MongoChangeStreamRefresher implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger("veru-db");
+
+    // the error codes of servers not supporting change streams
+    static final List<Integer> UNSUPPORTED_CODES = Arrays.asList(
+            40573, // not a replica set
+            40324  // unrecognized pipeline stage
+    );
+
+    // the delay before reopening a failed change stream
+    static final long RETRY_DELAY_MILLIS = 5000;
+
+    // the watched collection and the cache to refresh
+    final MongoDatabase database;
+    final MongoCollection<Document> collection;
+    final NearCache<?> cache;
+
+    // the key field of the items
+    final String keyName;
+
+    // the thread reading the change stream
+    final Thread thread;
+
+    // the open change stream, null if not open
+    volatile MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor;
+
+    volatile boolean closed = false;
+
+    // whether the server does not support change streams
+    volatile boolean unsupported = false;
+
+    MongoChangeStreamRefresher(MongoDatabase database, MongoCollection<Document> collection,
+                               NearCache<?> cache, String keyName) {
+        this.database = database;
+        this.collection = collection;
+        this.cache = cache;
+        this.keyName = keyName;
+        this.thread = new Thread(this::run, "veru-db-change-stream-" + collection.getNamespace().getCollectionName());
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    private void run() {
+        boolean reopened = false;
+        while (!closed) {
+            List<Bson> pipeline = Collections.singletonList(Aggregates.match(Filters.in("operationType",
+                    OperationType.INSERT.getValue(), OperationType.UPDATE.getValue(),
+                    OperationType.REPLACE.getValue(), OperationType.DELETE.getValue())));
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = collection.watch(pipeline)
+                    .fullDocument("_id".equals(keyName) ? FullDocument.DEFAULT : FullDocument.UPDATE_LOOKUP)
+                    .cursor()) {
+                this.cursor = cursor;
+                // changes may have been missed while the stream was closed
+                if (reopened)
+                    cache.refreshAll();
+                while (!closed && cursor.hasNext())
+                    onChange(cursor.next());
+            } catch (MongoCommandException e) {
+                if (UNSUPPORTED_CODES.contains(e.getErrorCode())) {
+                    unsupported = true;
+                    LOGGER.info("Change streams are not supported by " + database.name() +
+                            ", near cached items of " + collection.getNamespace() + " are refreshed by time");
+                    return;
+                }
+
+                retry(e);
+            } catch (RuntimeException e) {
+                // any failure, including decoding changes or
+                // refreshing the cache, must not end the stream
+                retry(e);
+            } finally {
+                this.cursor = null;
+            }
+
+            reopened = true;
+        }
+    }
+
+    // refreshes the item of the changed document
+    private void onChange(ChangeStreamDocument<Document> change) {
+        if ("_id".equals(keyName)) {
+            BsonDocument documentKey = change.getDocumentKey();
+            if (documentKey != null && documentKey.containsKey("_id"))
+                refresh(decodeId(documentKey));
+            return;
+        }
+
+        Document document = change.getFullDocument();
+        if (document != null) {
+            refresh(MongoDatabaseItem.getPath(document, keyName));
+        } else {
+            // the key of deleted documents is unknown
+            cache.refreshAll();
+        }
+    }
+
+    // decodes the id of the document key like the documents are decoded
+    private Object decodeId(BsonDocument documentKey) {
+        return collection.getCodecRegistry().get(Document.class)
+                .decode(new BsonDocumentReader(documentKey), LazyBsonDocument.DECODER_CONTEXT).get("_id");
+    }
+
+    private void refresh(Object key) {
+        if (key != null)
+            cache.refresh(key);
+    }
+
+    private void retry(Exception e) {
+        if (closed)
+            return;
+        LOGGER.log(Level.WARNING, "Change stream on " + collection.getNamespace() + " failed, reopening", e);
+        try {
+            Thread.sleep(RETRY_DELAY_MILLIS);
+        } catch (InterruptedException ie) {
+            closed = true;
+        }
+    }
+
+    public boolean isSupported() {
+        return !unsupported;
+    }
+
+    public boolean isOpen() {
+        return cursor != null;
+    }
+
+    /**
+     * Stop watching the collection, the near cache is not closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = this.cursor;
+        if (cursor != null) {
+            try {
+                cursor.close();
+            } catch (RuntimeException ignored) {
+                // closed concurrently with the reading thread
+            }
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package slatepowered.veru.db.v1.impl;
+
+import com.mongodb.client.MongoClient;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Shares {@link MongoClient}s between the databases logged in with the
+ * same connection string and pool settings, so they share one connection
+ * pool and set of monitor threads. Shared clients are reference counted
+ * and closed when the last database using them is closed.
+ */
+final class MongoClientRegistry {
+
+    // the shared clients by key
+    static final Map<String, Shared> sharedByKey = new HashMap<>();
+    // the shared clients by client instance
+    static final Map<MongoClient, Shared> sharedByClient = new IdentityHashMap<>();
+
+    static final class Shared {
+
+        final String key;
+        final MongoClient client;
+
+        // the amount of databases using the client
+        int references;
+
+        Shared(String key, MongoClient client) {
+            this.key = key;
+            this.client = client;
+        }
+
+    }
+
+    /**
+     * Get the shared client for the given key, creating it if absent.
+     *
+     * @param key The connection string and pool settings.
+     * @param factory The factory for a new client.
+     * @param created Set to true if a new client was created, may be null.
+     * @return The client.
+     */
+    static synchronized MongoClient acquire(String key, Supplier<MongoClient> factory, boolean[] created) {
+        Shared shared = sharedByKey.get(key);
+        if (shared == null) {
+            shared = new Shared(key, factory.get());
+            sharedByKey.put(key, shared);
+            sharedByClient.put(shared.client, shared);
+            if (created != null)
+                created[0] = true;
+        }
+
+        shared.references++;
+        return shared.client;
+    }
+
+    /**
+     * Release the given client, closing it if it is not
+     * shared or this was the last reference to it.
+     *
+     * @param client The client.
+     */
+    static void release(MongoClient client) {
+        synchronized (MongoClientRegistry.class) {
+            Shared shared = sharedByClient.get(client);
+            if (shared != null) {
+                if (--shared.references > 0)
+                    return;
+                sharedByKey.remove(shared.key);
+                sharedByClient.remove(client);
+            }
+        }
+
+        client.close();
+    }
+
+    static synchronized int getReferences(MongoClient client) {
+        Shared shared = sharedByClient.get(client);
+        return shared != null ? shared.references : 0;
+    }
+
+}
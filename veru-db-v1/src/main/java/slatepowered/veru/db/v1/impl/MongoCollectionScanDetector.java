@@ -0,0 +1,211 @@
+package slatepowered.veru.db.v1.impl;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.*;
+import org.bson.codecs.BsonDocumentCodec;
+import slatepowered.veru.db.v1.Database;
+import slatepowered.veru.db.v1.QueryContext;
+import slatepowered.veru.db.v1.QueryMetrics;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Detects queries executed through a {@link slatepowered.veru.db.v1.QueryPool}
+ * which scan whole collections. Each distinct query shape per operation
+ * is explained once in the background and reported if the winning plan
+ * contains a collection scan.
+ *
+ * @see MongoDatabase#collectionScanDiagnostics(boolean)
+ */
+public final class MongoCollectionScanDetector implements CommandListener {
+
+    private static final Logger LOGGER = Logger.getLogger("veru-db");
+
+    static final MongoCollectionScanDetector INSTANCE = new MongoCollectionScanDetector();
+
+    // the commands which can be explained
+    static final Set<String> EXPLAINABLE = new HashSet<>(Arrays.asList(
+            "find", "count", "distinct", "aggregate", "findAndModify", "update", "delete"));
+
+    // the fields of a command which may not be passed to explain
+    static final Set<String> EXCLUDED_FIELDS = new HashSet<>(Arrays.asList(
+            "lsid", "txnNumber", "autocommit", "startTransaction", "readConcern", "writeConcern"));
+
+    // the operators holding an array of filters, the
+    // arrays of other operators hold values
+    static final Set<String> LOGICAL_OPERATORS = new HashSet<>(Arrays.asList("$and", "$or", "$nor"));
+
+    // registered on clients by MongoDatabaseType
+    private MongoCollectionScanDetector() {
+
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        QueryContext context = QueryContext.current();
+        if (context == null || !EXPLAINABLE.contains(event.getCommandName()))
+            return;
+        Database database = context.getDatabase();
+        if (!(database instanceof MongoDatabase))
+            return;
+        MongoDatabase mongoDatabase = (MongoDatabase) database;
+        if (!mongoDatabase.collectionScanDiagnostics || !event.getDatabaseName().equals(mongoDatabase.db.getName()))
+            return;
+
+        // copy the command as it is only valid during this call
+        String name = event.getCommandName();
+        BsonDocument command = new RawBsonDocument(event.getCommand(), new BsonDocumentCodec());
+        BsonValue collection = command.get(name);
+        String shape = context.getOperation() + "|" + name + "|" +
+                (collection != null && collection.isString() ? collection.asString().getValue() : "?") + "|" +
+                shapeOf(filterOf(name, command));
+        if (!mongoDatabase.checkedQueryShapes.add(shape))
+            return;
+
+        String op = context.getOperation();
+        QueryMetrics metrics = context.getQuery().getMetrics();
+        try {
+            mongoDatabase.executor().execute(() -> explain(mongoDatabase, op, metrics, name, command));
+        } catch (Exception e) {
+            // the executor is shut down, check again next time
+            mongoDatabase.checkedQueryShapes.remove(shape);
+        }
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+
+    }
+
+    private void explain(MongoDatabase database, String op, QueryMetrics metrics,
+                         String name, BsonDocument command) {
+        BsonDocument inner = new BsonDocument();
+        for (Map.Entry<String, BsonValue> entry : command.entrySet())
+            if (!entry.getKey().startsWith("$") && !EXCLUDED_FIELDS.contains(entry.getKey()))
+                inner.put(entry.getKey(), entry.getValue());
+
+        BsonDocument result;
+        try {
+            result = database.db.runCommand(new BsonDocument("explain", inner)
+                    .append("verbosity", new BsonString("queryPlanner")), BsonDocument.class);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to explain " + name + " of query '" + op + "'", e);
+            return;
+        }
+
+        if (!hasCollectionScan(result, false))
+            return;
+        database.collectionScans.increment();
+        if (metrics != null)
+            metrics.recordCollectionScan();
+        LOGGER.warning("Query '" + op + "' on database " + database.name() + " performed a collection scan: " +
+                name + " on " + command.get(name) + " with filter " + filterOf(name, command));
+    }
+
+    /**
+     * Get the filter of the given command, which is the {@code $match}
+     * of the first stage for aggregations.
+     *
+     * @param name The command name.
+     * @param command The command.
+     * @return The filter or null if it has none.
+     */
+    public static BsonValue filterOf(String name, BsonDocument command) {
+        switch (name) {
+            case "find": return command.get("filter");
+            case "count":
+            case "distinct":
+            case "findAndModify": return command.get("query");
+            case "update": return first(command.get("updates"), "q");
+            case "delete": return first(command.get("deletes"), "q");
+            case "aggregate": {
+                BsonValue pipeline = command.get("pipeline");
+                if (pipeline != null && pipeline.isArray() && !pipeline.asArray().isEmpty()) {
+                    BsonValue stage = pipeline.asArray().get(0);
+                    if (stage.isDocument() && stage.asDocument().containsKey("$match"))
+                        return stage.asDocument().get("$match");
+                }
+
+                return null;
+            }
+            default: return null;
+        }
+    }
+
+    private static BsonValue first(BsonValue statements, String field) {
+        if (statements == null || !statements.isArray() || statements.asArray().isEmpty())
+            return null;
+        BsonValue statement = statements.asArray().get(0);
+        return statement.isDocument() ? statement.asDocument().get(field) : null;
+    }
+
+    /**
+     * Get the shape of the given filter, which are its fields and
+     * operators without the values, so queries differing only in
+     * their values have the same shape.
+     *
+     * @param filter The filter, may be null.
+     * @return The shape.
+     */
+    public static String shapeOf(BsonValue filter) {
+        if (filter == null || !filter.isDocument())
+            return "{}";
+        StringBuilder b = new StringBuilder("{");
+        for (Map.Entry<String, BsonValue> entry : filter.asDocument().entrySet()) {
+            if (b.length() > 1) b.append(',');
+            b.append(entry.getKey());
+            BsonValue value = entry.getValue();
+            if (value.isDocument()) b.append(':').append(shapeOf(value));
+            else if (value.isArray() && LOGICAL_OPERATORS.contains(entry.getKey()))
+                for (BsonValue element : value.asArray()) b.append(shapeOf(element));
+        }
+
+        return b.append('}').toString();
+    }
+
+    /**
+     * Check whether a winning plan in the given explain output
+     * contains a collection scan, rejected plans are ignored.
+     *
+     * @param value The explain output.
+     * @param inWinningPlan Whether the value is part of a winning plan.
+     * @return Whether a collection scan was found.
+     */
+    public static boolean hasCollectionScan(BsonValue value, boolean inWinningPlan) {
+        if (value.isArray()) {
+            for (BsonValue element : value.asArray())
+                if (hasCollectionScan(element, inWinningPlan))
+                    return true;
+        } else if (value.isDocument()) {
+            BsonDocument document = value.asDocument();
+            if (inWinningPlan) {
+                BsonValue stage = document.get("stage");
+                if (stage != null && stage.isString() && stage.asString().getValue().equals("COLLSCAN"))
+                    return true;
+            }
+
+            for (Map.Entry<String, BsonValue> entry : document.entrySet()) {
+                if (entry.getKey().equals("rejectedPlans"))
+                    continue;
+                if (hasCollectionScan(entry.getValue(), inWinningPlan || entry.getKey().equals("winningPlan")))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+}
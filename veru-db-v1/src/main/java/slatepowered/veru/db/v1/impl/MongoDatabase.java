@@ -1,11 +1,37 @@
 package slatepowered.veru.db.v1.impl;
 
+import com.mongodb.MongoException;
 import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Decoder;
+import org.bson.conversions.Bson;
 import slatepowered.veru.db.v1.Database;
 import slatepowered.veru.db.v1.DatabaseManager;
+import slatepowered.veru.db.v1.NearCache;
+import slatepowered.veru.db.v1.QueryContext;
+import slatepowered.veru.db.v1.QueryCursor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class MongoDatabase extends Database {
 
+    private static final Logger LOGGER = Logger.getLogger("veru-db");
+
     public MongoDatabase(DatabaseManager manager, String name) {
         super(manager, name, MongoDatabaseType.INSTANCE);
     }
@@ -14,6 +40,28 @@ public class MongoDatabase extends Database {
     protected MongoClient client;
     // mongo database client
     protected com.mongodb.client.MongoDatabase db;
+    // the write statistics of the items in this database
+    protected final MongoWriteStatistics writeStatistics = new MongoWriteStatistics();
+    // the write-behind queue, null if disabled
+    protected volatile MongoWriteBehind writeBehind;
+    // the read-through item caches by collection name
+    protected final ConcurrentHashMap<String, MongoItemCache> itemCaches = new ConcurrentHashMap<>();
+    // the maximum amount of keys per query of a bulk pull
+    protected volatile int bulkPullBatchSize = 256;
+    // the names of the collections read as lazily decoded raw documents
+    protected final Set<String> rawCollections = ConcurrentHashMap.newKeySet();
+    // the declared indexes, ensured on login
+    protected final List<MongoIndex> indexes = new CopyOnWriteArrayList<>();
+    // whether queries are checked for collection scans
+    protected volatile boolean collectionScanDiagnostics = false;
+    // whether the client was created with the collection scan detector
+    protected volatile boolean collectionScanListener = false;
+    // the query shapes which were checked for collection scans
+    protected final Set<String> checkedQueryShapes = ConcurrentHashMap.newKeySet();
+    // the amount of detected collection scans
+    protected final LongAdder collectionScans = new LongAdder();
+    // the change streams refreshing near caches
+    protected final List<MongoChangeStreamRefresher> refreshers = new CopyOnWriteArrayList<>();
 
     public MongoClient getClient() {
         return client;
@@ -23,6 +71,350 @@ public class MongoDatabase extends Database {
         return db;
     }
 
+    public MongoWriteStatistics getWriteStatistics() {
+        return writeStatistics;
+    }
+
+    public MongoWriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Enable write-behind for the items of this database, after which
+     * {@link MongoDatabaseItem#push()} enqueues the changes to be written
+     * in bulk on a background thread instead of writing them immediately.
+     *
+     * The queue is flushed when the database is closed.
+     *
+     * @param configurator The configurator for the queue, may be null.
+     * @return This.
+     */
+    public synchronized MongoDatabase enableWriteBehind(Consumer<MongoWriteBehind> configurator) {
+        if (writeBehind != null)
+            return this;
+        MongoWriteBehind queue = new MongoWriteBehind(this);
+        if (configurator != null)
+            configurator.accept(queue);
+        writeBehind = queue.start();
+        return this;
+    }
+
+    /**
+     * Disable write-behind, flushing all pending writes.
+     *
+     * @return This.
+     */
+    public synchronized MongoDatabase disableWriteBehind() {
+        MongoWriteBehind queue = writeBehind;
+        writeBehind = null;
+        if (queue != null)
+            queue.close();
+        return this;
+    }
+
+    /**
+     * Enable a read-through cache for the items in the given collection
+     * which use the given key field. Pulls are served from the cache while
+     * the entry is fresh, pushes invalidate the entry.
+     *
+     * @param collection The collection name.
+     * @param keyName The key field name.
+     * @param maxSize The maximum amount of cached documents.
+     * @param ttl The time to live of a cached document.
+     * @param unit The time unit.
+     * @return The cache.
+     */
+    public MongoItemCache enableItemCache(String collection, String keyName, int maxSize, long ttl, TimeUnit unit) {
+        MongoItemCache cache = new MongoItemCache(keyName, maxSize, ttl, unit);
+        itemCaches.put(collection, cache);
+        return cache;
+    }
+
+    /**
+     * Disable the read-through cache for the given collection.
+     *
+     * @param collection The collection name.
+     * @return This.
+     */
+    public MongoDatabase disableItemCache(String collection) {
+        itemCaches.remove(collection);
+        return this;
+    }
+
+    /**
+     * Get the read-through cache for the given collection.
+     *
+     * @param collection The collection name.
+     * @return The cache or null if disabled.
+     */
+    public MongoItemCache getItemCache(String collection) {
+        return itemCaches.get(collection);
+    }
+
+    /**
+     * Set the maximum amount of keys queried in one {@code $in} query
+     * by {@link #pullAll(MongoCollection, String, List)}, larger requests
+     * are split into chunks which are queried concurrently.
+     *
+     * @param bulkPullBatchSize The batch size.
+     * @return This.
+     */
+    public MongoDatabase bulkPullBatchSize(int bulkPullBatchSize) {
+        if (bulkPullBatchSize < 1)
+            throw new IllegalArgumentException("batch size must be at least 1");
+        this.bulkPullBatchSize = bulkPullBatchSize;
+        return this;
+    }
+
+    public int getBulkPullBatchSize() {
+        return bulkPullBatchSize;
+    }
+
+    /**
+     * Declare an index, which is created on login if it does not
+     * exist yet or immediately if this database is logged in already.
+     *
+     * @param index The index.
+     * @return This.
+     */
+    public MongoDatabase declareIndex(MongoIndex index) {
+        indexes.add(index);
+        if (isOpen())
+            ensureIndex(index);
+        return this;
+    }
+
+    public List<MongoIndex> getIndexes() {
+        return Collections.unmodifiableList(indexes);
+    }
+
+    /**
+     * Create all declared indexes which do not exist yet, creating
+     * an index which exists with the same options does nothing.
+     *
+     * @return The amount of indexes which could not be created.
+     */
+    public int ensureIndexes() {
+        int failed = 0;
+        for (MongoIndex index : indexes)
+            if (!ensureIndex(index))
+                failed++;
+        return failed;
+    }
+
+    // creates the given index, logging failures
+    protected boolean ensureIndex(MongoIndex index) {
+        try {
+            db.getCollection(index.collection).createIndex(index.toKeys(), index.toOptions());
+            return true;
+        } catch (MongoException | IllegalStateException e) {
+            LOGGER.log(Level.SEVERE, "Failed to ensure index " + index + " on database " + name(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Enable checking queries executed through query pools for
+     * collection scans. The first execution of each query shape per
+     * operation is explained in the background, collection scans are
+     * logged and counted in the query metrics.
+     *
+     * The command listener is only registered on clients created while
+     * this is enabled, so it has to be enabled before logging in.
+     *
+     * @param enabled Whether to check for collection scans.
+     * @return This.
+     * @throws IllegalStateException If enabled after logging in without it.
+     */
+    public MongoDatabase collectionScanDiagnostics(boolean enabled) {
+        if (enabled && client != null && !collectionScanListener)
+            throw new IllegalStateException("collection scan diagnostics must be enabled before logging in");
+        collectionScanDiagnostics = enabled;
+        if (!enabled)
+            checkedQueryShapes.clear();
+        return this;
+    }
+
+    public boolean isCollectionScanDiagnostics() {
+        return collectionScanDiagnostics;
+    }
+
+    /**
+     * Get the amount of distinct query shapes which
+     * were detected to scan whole collections.
+     *
+     * @return The amount of collection scans.
+     */
+    public long getCollectionScans() {
+        return collectionScans.sum();
+    }
+
+    /**
+     * Read the documents of the given collection as raw BSON, which is
+     * only decoded field by field when accessed. This avoids decoding
+     * large documents of which only a few fields are read.
+     *
+     * @param collection The collection name.
+     * @param enabled Whether to read raw documents.
+     * @return This.
+     * @see MongoDatabaseItem#rawDocuments(Boolean)
+     */
+    public MongoDatabase rawDocuments(String collection, boolean enabled) {
+        if (enabled) rawCollections.add(collection);
+        else rawCollections.remove(collection);
+        return this;
+    }
+
+    public boolean isRawDocuments(String collection) {
+        return !rawCollections.isEmpty() && rawCollections.contains(collection);
+    }
+
+    // finds the documents matching the given filter, decoded
+    // lazily from the raw bytes if raw is set, bounded by the
+    // deadline of the current query if it has one
+    static MongoIterable<Document> findDocuments(MongoCollection<Document> collection, Bson filter,
+                                                 Bson projection, boolean raw) {
+        long maxTime = QueryContext.remainingMillis();
+        if (!raw) {
+            FindIterable<Document> find = collection.find(filter);
+            if (maxTime > 0)
+                find = find.maxTime(maxTime, TimeUnit.MILLISECONDS);
+            return projection != null ? find.projection(projection) : find;
+        }
+
+        FindIterable<RawBsonDocument> find = collection.withDocumentClass(RawBsonDocument.class).find(filter);
+        if (maxTime > 0)
+            find = find.maxTime(maxTime, TimeUnit.MILLISECONDS);
+        if (projection != null)
+            find = find.projection(projection);
+        Decoder<Document> decoder = collection.getCodecRegistry().get(Document.class);
+        return find.map(document -> new LazyBsonDocument(document, decoder));
+    }
+
+    /**
+     * Pull the items for all given keys from the given collection using
+     * as few queries as possible. The returned list contains one item per
+     * requested key in request order, items for keys which were not found
+     * are not {@link MongoDatabaseItem#available()}.
+     *
+     * @param collection The collection.
+     * @param keyName The key field name.
+     * @param keys The keys.
+     * @return The items.
+     */
+    public List<MongoDatabaseItem> pullAll(MongoCollection<Document> collection, String keyName, List<?> keys) {
+        return new MongoItemLoader(this, collection, keyName, keys).load();
+    }
+
+    /**
+     * @see #pullAll(MongoCollection, String, List)
+     */
+    public List<MongoDatabaseItem> pullAll(String collection, String keyName, List<?> keys) {
+        return pullAll(db.getCollection(collection), keyName, keys);
+    }
+
+    /**
+     * Asynchronously pull the items for all given keys from the given
+     * collection, the chunk queries are executed on the database executor.
+     *
+     * @param collection The collection.
+     * @param keyName The key field name.
+     * @param keys The keys.
+     * @return The future of the items.
+     * @see #pullAll(MongoCollection, String, List)
+     */
+    public CompletableFuture<List<MongoDatabaseItem>> pullAllAsync(MongoCollection<Document> collection, String keyName, List<?> keys) {
+        return new MongoItemLoader(this, collection, keyName, keys).loadAsync();
+    }
+
+    /**
+     * @see #pullAllAsync(MongoCollection, String, List)
+     */
+    public CompletableFuture<List<MongoDatabaseItem>> pullAllAsync(String collection, String keyName, List<?> keys) {
+        return pullAllAsync(db.getCollection(collection), keyName, keys);
+    }
+
+    /**
+     * Refresh the items of the given near cache as soon as their documents
+     * in the given collection change, using a change stream. The items must
+     * be pinned by the value of their key field. If the server does not
+     * support change streams, the items are only refreshed by time.
+     *
+     * @param cache The near cache.
+     * @param collection The collection name.
+     * @param keyName The key field name.
+     * @return The refresher, closed with this database.
+     */
+    public MongoChangeStreamRefresher watch(NearCache<?> cache, String collection, String keyName) {
+        if (!isOpen())
+            throw new IllegalStateException("database " + name + " is not open");
+        MongoChangeStreamRefresher refresher = new MongoChangeStreamRefresher(this, db.getCollection(collection), cache, keyName);
+        refreshers.add(refresher);
+        refresher.start();
+        return refresher;
+    }
+
+    /**
+     * Create a scan over the given collection, which reads ranges of
+     * the collection concurrently for jobs processing all documents.
+     *
+     * @param collection The collection.
+     * @return The scan.
+     */
+    public MongoPartitionedScan scan(MongoCollection<Document> collection) {
+        return new MongoPartitionedScan(this, collection);
+    }
+
+    /**
+     * @see #scan(MongoCollection)
+     */
+    public MongoPartitionedScan scan(String collection) {
+        return scan(db.getCollection(collection));
+    }
+
+    /**
+     * Open a cursor over the documents matching the given filter, the
+     * documents are fetched from the server in batches of the given size
+     * as the cursor is iterated.
+     *
+     * @param collection The collection.
+     * @param filter The filter.
+     * @param batchSize The amount of documents per batch.
+     * @return The cursor, which must be closed.
+     */
+    public QueryCursor<Document> find(MongoCollection<Document> collection, Bson filter, int batchSize) {
+        boolean raw = isRawDocuments(collection.getNamespace().getCollectionName());
+        MongoCursor<Document> cursor = findDocuments(collection, filter, null, raw).batchSize(batchSize).iterator();
+        return QueryCursor.of(cursor, cursor::close);
+    }
+
+    /**
+     * @see #find(MongoCollection, Bson, int)
+     */
+    public QueryCursor<Document> find(String collection, Bson filter, int batchSize) {
+        return find(db.getCollection(collection), filter, batchSize);
+    }
+
+    /**
+     * Open a cursor over the items matching the given filter.
+     *
+     * @param collection The collection.
+     * @param keyName The key field name.
+     * @param filter The filter.
+     * @param batchSize The amount of documents per batch.
+     * @return The cursor, which must be closed.
+     * @see #find(MongoCollection, Bson, int)
+     */
+    public QueryCursor<MongoDatabaseItem> findItems(MongoCollection<Document> collection, String keyName,
+                                                    Bson filter, int batchSize) {
+        return find(collection, filter, batchSize).map(document -> {
+            MongoDatabaseItem item = new MongoDatabaseItem(this, keyName, collection,
+                    MongoDatabaseItem.getPath(document, keyName));
+            item.document = document;
+            return item;
+        });
+    }
+
     @Override
     public boolean isOpen() {
         return db != null;
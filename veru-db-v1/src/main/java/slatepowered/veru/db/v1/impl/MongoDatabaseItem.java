@@ -1,16 +1,30 @@
 package slatepowered.veru.db.v1.impl;
 
+import com.mongodb.MongoException;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonBinaryWriter;
 import org.bson.Document;
+import org.bson.codecs.EncoderContext;
 import org.bson.conversions.Bson;
+import org.bson.io.BasicOutputBuffer;
 import slatepowered.veru.db.v1.Database;
 import slatepowered.veru.db.v1.DatabaseItem;
+import slatepowered.veru.db.v1.ItemConflictException;
+import slatepowered.veru.db.v1.ItemSchema;
+import slatepowered.veru.db.v1.QueryContext;
+import slatepowered.veru.db.v1.UpdateOperation;
+import slatepowered.veru.db.v1.ValuePaths;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 public class MongoDatabaseItem extends DatabaseItem {
 
@@ -29,11 +43,28 @@ public class MongoDatabaseItem extends DatabaseItem {
      */
     String keyName;
 
-    // the changes to be applied
-    HashMap<String, Object> changes = new HashMap<>();
+    // the fields to be set, keys may be dotted paths
+    LinkedHashMap<String, Object> changes = new LinkedHashMap<>();
+    // the fields to be unset, keys may be dotted paths
+    LinkedHashSet<String> removals = new LinkedHashSet<>();
+    // the atomic update operations by path, combined per path
+    LinkedHashMap<String, UpdateOperation> operations = new LinkedHashMap<>();
+    // the field compared on push and its expected
+    // stored value, the field is null if unconditional
+    String conditionField;
+    Object conditionExpected;
     // the document as currently stored
     Document document = new Document();
 
+    // the schema used to project pulls, null to pull full documents
+    ItemSchema schema;
+    // the fields which are loaded locally if the
+    // document was projected, null if fully loaded
+    Set<String> loadedFields;
+    // whether to pull raw documents, null to use
+    // the setting of the collection
+    Boolean rawDocuments;
+
     public MongoDatabaseItem(Database database,
                              String keyName,
                              MongoCollection<Document> collection,
@@ -44,6 +75,53 @@ public class MongoDatabaseItem extends DatabaseItem {
         this.key = key;
     }
 
+    /**
+     * Set the schema of this item, after which {@link #pull()} only
+     * loads the fields declared by the schema.
+     *
+     * @param schema The schema or null to load full documents.
+     * @return This.
+     */
+    public MongoDatabaseItem withSchema(ItemSchema schema) {
+        this.schema = schema;
+        return this;
+    }
+
+    public ItemSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Set whether this item pulls the document as raw BSON which
+     * is decoded field by field when accessed, overriding the setting
+     * of the collection.
+     *
+     * @param rawDocuments Whether to pull raw documents or null to use the collection setting.
+     * @return This.
+     * @see MongoDatabase#rawDocuments(String, boolean)
+     */
+    public MongoDatabaseItem rawDocuments(Boolean rawDocuments) {
+        this.rawDocuments = rawDocuments;
+        return this;
+    }
+
+    public boolean isRawDocuments() {
+        if (rawDocuments != null)
+            return rawDocuments;
+        Database database = database();
+        return database instanceof MongoDatabase &&
+                ((MongoDatabase) database).isRawDocuments(collection.getNamespace().getCollectionName());
+    }
+
+    /**
+     * Check whether only a part of the document was loaded by the last pull.
+     *
+     * @return Whether the document is projected.
+     */
+    public boolean isProjected() {
+        return loadedFields != null;
+    }
+
     public Bson createFilter() {
         return Filters.eq(keyName, key);
     }
@@ -55,44 +133,512 @@ public class MongoDatabaseItem extends DatabaseItem {
 
     @Override
     public void set(String key, Object val) {
-        changes.put(key, val);
         if (document != null)
-            document.put(key, val);
+            putPath(document, key, val);
+        if (loadedFields != null)
+            loadedFields.add(key);
+        recordChange(key, val, false);
     }
 
+    @Override
+    public void unset(String key) {
+        if (document != null)
+            removePath(document, key);
+        if (loadedFields != null)
+            loadedFields.add(key);
+        recordChange(key, null, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException If the document was pulled with a
+     *         projection which did not include the given key.
+     */
     @Override
     public <T> T get(String key, Class<T> type) {
-        return document.get(key, type);
+        if (loadedFields != null && !ItemSchema.includes(loadedFields, key))
+            throw new IllegalStateException("field '" + key + "' was not loaded by the projected pull of item " + this.key);
+        return type.cast(getPath(document, key));
     }
 
+    /**
+     * Check whether this item has changes which
+     * have not been pushed yet.
+     *
+     * @return Whether there are pending changes.
+     */
+    public boolean hasChanges() {
+        return !changes.isEmpty() || !removals.isEmpty() || !operations.isEmpty() || conditionField != null;
+    }
+
+    /**
+     * Registers the operation to be applied atomically by the next push,
+     * in the same update as the other changes. The local copy is updated
+     * with the expected result and replaced by the stored document on push.
+     *
+     * @param operation The operation.
+     * @throws IllegalStateException If the operation conflicts with a pending one.
+     */
+    @Override
+    protected void apply(UpdateOperation operation) {
+        String path = operation.getPath();
+        Object current = document != null ? getPath(document, path) : null;
+        if (loadedFields != null)
+            loadedFields.add(path);
+
+        // a pending set of this path or a parent already
+        // sends the local value, so update that instead
+        if (changes.containsKey(path) || removals.contains(path) || findPendingParent(path) != null) {
+            if (document == null)
+                current = changes.get(path);
+            Object val = operation.apply(current);
+            if (val != UpdateOperation.UNCHANGED)
+                set(path, val);
+            return;
+        }
+
+        // operations on the parents or children of
+        // a path conflict with each other in one update
+        for (String pending : operations.keySet()) {
+            if (!pending.equals(path) && (pending.startsWith(path + ".") || path.startsWith(pending + ".")))
+                throw new IllegalStateException("operation on '" + path + "' conflicts with the pending operation on '" + pending + "', push first");
+        }
+
+        UpdateOperation pending = operations.get(path);
+        UpdateOperation combined = pending == null ? operation : pending.combine(operation);
+        if (combined == null)
+            throw new IllegalStateException("can not combine " + operation + " with the pending " + pending + ", push first");
+        operations.put(path, combined);
+
+        // the local copy already reflects the pending operation
+        if (document != null) {
+            Object val = operation.apply(current);
+            if (val != UpdateOperation.UNCHANGED)
+                putPath(document, path, val);
+        }
+    }
+
+    /**
+     * Sets the given field and makes the next push conditional on the
+     * stored value of the field being the expected value, in which case
+     * the push fails with an {@link ItemConflictException}.
+     *
+     * A push with a non-null expected value never inserts the document.
+     *
+     * @param key The field, usually a version number.
+     * @param expected The expected stored value, null for absent.
+     * @param val The new value.
+     * @return This.
+     */
+    @Override
+    public MongoDatabaseItem compareAndSet(String key, Object expected, Object val) {
+        if (conditionField != null && !conditionField.equals(key))
+            throw new IllegalStateException("a push can only be conditional on one field, pending condition on '" + conditionField + "'");
+        if (conditionField == null) {
+            conditionField = key;
+            conditionExpected = expected;
+        }
+
+        set(key, val);
+        return this;
+    }
+
+    @Override
+    public MongoDatabaseItem increment(String key, Number delta) {
+        return (MongoDatabaseItem) super.increment(key, delta);
+    }
+
+    @Override
+    public MongoDatabaseItem min(String key, Object val) {
+        return (MongoDatabaseItem) super.min(key, val);
+    }
+
+    @Override
+    public MongoDatabaseItem max(String key, Object val) {
+        return (MongoDatabaseItem) super.max(key, val);
+    }
+
+    @Override
+    public MongoDatabaseItem addToSet(String key, Object element) {
+        return (MongoDatabaseItem) super.addToSet(key, element);
+    }
+
+    @Override
+    public MongoDatabaseItem append(String key, Object element) {
+        return (MongoDatabaseItem) super.append(key, element);
+    }
+
+    @Override
+    public MongoDatabaseItem pop(String key, boolean first) {
+        return (MongoDatabaseItem) super.pop(key, first);
+    }
+
+    /**
+     * Pushes only the fields which were changed since the last push
+     * or pull as a single update, unchanged fields are not sent.
+     *
+     * @return This.
+     */
     @Override
     public MongoDatabaseItem push() {
-        // construct update
-//        Bson[] bsons = new Bson[changes.size()];
-//        int i = 0;
-//        for (Map.Entry<String, Object> entry : changes.entrySet()) {
-//            bsons[i] = Updates.set(entry.getKey(), entry.getValue());
-//            i++;
-//        }
-
-        Bson[] bsons = new Bson[document.size()];
-        int i = 0;
-        for (Map.Entry<String, Object> entry : document.entrySet()) {
-            bsons[i] = Updates.set(entry.getKey(), entry.getValue());
-            i++;
-        }
-
-        Bson update = Updates.combine(bsons);
-        changes.clear();
+        return push(false);
+    }
 
-        // execute updates
-        collection.updateOne(createFilter(), update, new UpdateOptions().upsert(true));
+    /**
+     * Pushes the changes of this item to the database.
+     *
+     * @param replace Whether to replace the full stored document with the
+     *                local copy instead of only sending the changed fields.
+     * @return This.
+     */
+    public MongoDatabaseItem push(boolean replace) {
+        if (replace && loadedFields != null)
+            throw new IllegalStateException("can not replace the document of item " + key + " as it was pulled with a projection");
+
+        // enqueue if write-behind is enabled, atomic
+        // and conditional updates are written directly
+        // after the writes queued before them
+        MongoWriteBehind writeBehind = writeBehind();
+        if (writeBehind != null) {
+            if (operations.isEmpty() && conditionField == null) {
+                if (writeBehind.enqueue(this, replace)) {
+                    invalidateCached();
+                    return this;
+                }
+            } else {
+                writeBehind.flush(collection, keyName, key);
+            }
+        }
+
+        if (replace) {
+            pushReplace();
+        } else if (hasChanges()) {
+            pushDelta();
+        } else {
+            return this;
+        }
+
+        // the cached copy is now stale
+        invalidateCached();
         return this;
     }
 
+    /**
+     * Create the update the next push sends for the pending changes,
+     * with one {@code $set} or {@code $unset} per changed path and
+     * one operator per pending operation.
+     *
+     * @return The update.
+     */
+    public Bson createUpdate() {
+        List<Bson> bsons = new ArrayList<>(changes.size() + removals.size() + operations.size());
+        for (Map.Entry<String, Object> entry : changes.entrySet())
+            bsons.add(Updates.set(entry.getKey(), entry.getValue()));
+        for (String path : removals)
+            bsons.add(Updates.unset(path));
+        for (UpdateOperation operation : operations.values())
+            bsons.add(toUpdate(operation));
+        return Updates.combine(bsons);
+    }
+
+    // sends only the changed fields and operations
+    private void pushDelta() {
+        Bson update = createUpdate();
+
+        boolean atomic = !operations.isEmpty() || conditionField != null;
+        String field = conditionField;
+        Object expected = conditionExpected;
+        Bson filter = createPushFilter();
+
+        // the pending changes are only cleared once written,
+        // so a failed push can be retried
+        if (!atomic) {
+            collection.updateOne(filter, update, new UpdateOptions().upsert(true));
+            recordDeltaStatistics();
+            clearPending();
+            return;
+        }
+
+        // read back the resulting document in the same round trip
+        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+                .upsert(field == null || expected == null)
+                .returnDocument(ReturnDocument.AFTER);
+        if (loadedFields != null)
+            options.projection(Projections.include(new ArrayList<>(loadedFields)));
+        long maxTime = QueryContext.remainingMillis();
+        if (maxTime > 0)
+            options.maxTime(maxTime, TimeUnit.MILLISECONDS);
+        Document updated;
+        try {
+            updated = collection.findOneAndUpdate(filter, update, options);
+        } catch (MongoException e) {
+            // an upsert of an already existing key
+            if (field != null && e.getCode() == 11000)
+                throw new ItemConflictException(key, field, expected);
+            throw e;
+        }
+
+        if (updated == null)
+            throw new ItemConflictException(key, field, expected);
+        recordDeltaStatistics();
+        clearPending();
+        document = updated;
+    }
+
+    // clears the changes and operations pending for the next push
+    private void clearPending() {
+        changes.clear();
+        removals.clear();
+        operations.clear();
+        conditionField = null;
+        conditionExpected = null;
+    }
+
+    // creates the filter for a push, including the condition
+    private Bson createPushFilter() {
+        if (conditionField == null)
+            return createFilter();
+        return Filters.and(createFilter(), Filters.eq(conditionField, conditionExpected));
+    }
+
+    // maps the operation to the update operator
+    static Bson toUpdate(UpdateOperation operation) {
+        String path = operation.getPath();
+        switch (operation.getKind()) {
+            case INCREMENT: return Updates.inc(path, (Number) operation.getValue());
+            case MIN: return Updates.min(path, operation.getValue());
+            case MAX: return Updates.max(path, operation.getValue());
+            case ADD_TO_SET: return Updates.addEachToSet(path, operation.getElements());
+            case APPEND: return Updates.pushEach(path, operation.getElements());
+            case POP_FIRST: return Updates.popFirst(path);
+            case POP_LAST: return Updates.popLast(path);
+            default: throw new AssertionError(operation.getKind());
+        }
+    }
+
+    // replaces the full document
+    private void pushReplace() {
+        Document replacement = document;
+        if (replacement == null) {
+            replacement = new Document();
+            for (Map.Entry<String, Object> entry : changes.entrySet())
+                putPath(replacement, entry.getKey(), entry.getValue());
+        }
+
+        if (!replacement.containsKey(keyName))
+            replacement.put(keyName, key);
+
+        String field = conditionField;
+        Object expected = conditionExpected;
+        Bson filter = createPushFilter();
+
+        UpdateResult result;
+        try {
+            result = collection.replaceOne(filter, replacement, new ReplaceOptions().upsert(field == null || expected == null));
+        } catch (MongoException e) {
+            if (field != null && e.getCode() == 11000)
+                throw new ItemConflictException(key, field, expected);
+            throw e;
+        }
+
+        if (field != null && result.getMatchedCount() == 0 && result.getUpsertedId() == null)
+            throw new ItemConflictException(key, field, expected);
+
+        MongoWriteStatistics statistics = statistics();
+        if (statistics != null) {
+            statistics.fullPushes.increment();
+            statistics.fieldsWritten.add(replacement.size());
+            if (statistics.trackBytes)
+                statistics.bytesWritten.add(encodedSize(replacement));
+        }
+
+        // the local copy already reflects the operations
+        clearPending();
+    }
+
+    // records the fields and bytes sent and
+    // saved by the current delta update
+    private void recordDeltaStatistics() {
+        MongoWriteStatistics statistics = statistics();
+        if (statistics == null)
+            return;
+
+        int fields = changes.size() + removals.size() + operations.size();
+        statistics.deltaPushes.increment();
+        statistics.fieldsWritten.add(fields);
+        if (document != null)
+            statistics.fieldsSaved.add(Math.max(0, document.size() - fields));
+
+        if (statistics.trackBytes) {
+            Document set = new Document(changes);
+            Document unset = new Document();
+            for (String path : removals)
+                unset.put(path, "");
+            long written = encodedSize(new Document("$set", set).append("$unset", unset));
+            statistics.bytesWritten.add(written);
+            if (document != null)
+                statistics.bytesSaved.add(Math.max(0, encodedSize(document) - written));
+        }
+    }
+
+    // get the read-through cache applicable to this item
+    MongoItemCache itemCache() {
+        Database database = database();
+        if (!(database instanceof MongoDatabase))
+            return null;
+        MongoDatabase mongoDatabase = (MongoDatabase) database;
+        if (mongoDatabase.itemCaches.isEmpty())
+            return null;
+        MongoItemCache cache = mongoDatabase.itemCaches.get(collection.getNamespace().getCollectionName());
+        return cache != null && cache.keyName.equals(keyName) ? cache : null;
+    }
+
+    // invalidate the cached copy of this item
+    void invalidateCached() {
+        MongoItemCache cache = itemCache();
+        if (cache != null)
+            cache.invalidate(key);
+    }
+
+    private MongoWriteBehind writeBehind() {
+        Database database = database();
+        return database instanceof MongoDatabase ? ((MongoDatabase) database).writeBehind : null;
+    }
+
+    private MongoWriteStatistics statistics() {
+        Database database = database();
+        return database instanceof MongoDatabase ? ((MongoDatabase) database).writeStatistics : null;
+    }
+
+    // calculates the size of the given document when encoded to BSON
+    private long encodedSize(Document document) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        collection.getCodecRegistry().get(Document.class)
+                .encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+        return buffer.getPosition();
+    }
+
+    // registers a change to the given path in the pending
+    // changes, making sure no two pending paths conflict
+    private void recordChange(String path, Object val, boolean remove) {
+        // changes to children are overwritten by this change
+        String prefix = path + ".";
+        changes.keySet().removeIf(k -> k.startsWith(prefix));
+        removals.removeIf(k -> k.startsWith(prefix));
+        operations.keySet().removeIf(k -> k.equals(path) || k.startsWith(prefix));
+
+        // if a parent is pending, re-send the parent
+        // as the local document already reflects this change
+        if (document != null) {
+            String parent = findPendingParent(path);
+            if (parent != null) {
+                removals.remove(parent);
+                changes.put(parent, getPath(document, parent));
+                return;
+            }
+        }
+
+        if (remove) {
+            changes.remove(path);
+            removals.add(path);
+        } else {
+            removals.remove(path);
+            changes.put(path, val);
+        }
+    }
+
+    // finds a pending change which is a parent of the given path
+    private String findPendingParent(String path) {
+        for (int i = path.indexOf('.'); i != -1; i = path.indexOf('.', i + 1)) {
+            String parent = path.substring(0, i);
+            if (changes.containsKey(parent) || removals.contains(parent))
+                return parent;
+        }
+
+        return null;
+    }
+
+    /**
+     * Pulls the document from the database, only loading the
+     * fields declared by the schema of this item if set.
+     *
+     * @return This.
+     */
     @Override
     public MongoDatabaseItem pull() {
-        document = collection.find(createFilter()).first();
+        return pull(false, schema);
+    }
+
+    /**
+     * Pulls the document from the database, or from the read-through
+     * cache of the collection if enabled and the cached copy is fresh.
+     *
+     * @param forceRefresh Whether to bypass the cache.
+     * @return This.
+     */
+    @Override
+    public MongoDatabaseItem pull(boolean forceRefresh) {
+        return pull(forceRefresh, schema);
+    }
+
+    /**
+     * Pulls only the given fields of the document from the database,
+     * after which getting any field not included throws.
+     *
+     * @param fields The fields, may be dotted paths.
+     * @return This.
+     */
+    public MongoDatabaseItem pull(String... fields) {
+        return pull(false, ItemSchema.of(fields));
+    }
+
+    /**
+     * Pulls the document from the database, only loading the fields
+     * declared by the given projection. If a full copy of the document
+     * is cached it is used instead, in which case the item is fully loaded.
+     *
+     * @param forceRefresh Whether to bypass the cache.
+     * @param projection The fields to load or null to load the full document.
+     * @return This.
+     */
+    public MongoDatabaseItem pull(boolean forceRefresh, ItemSchema projection) {
+        // make sure writes pending for
+        // this item are visible
+        MongoWriteBehind writeBehind = writeBehind();
+        if (writeBehind != null)
+            writeBehind.flush(collection, keyName, key);
+
+        clearPending();
+
+        MongoItemCache cache = itemCache();
+        if (cache != null && !forceRefresh) {
+            Document cached = cache.get(key);
+            if (cached != null) {
+                document = (Document) copyValue(cached);
+                loadedFields = null;
+                return this;
+            }
+        }
+
+        boolean raw = isRawDocuments();
+        if (projection == null) {
+            // a push invalidating the entry during the find
+            // may have made the found document stale
+            long generation = cache != null ? cache.generation() : 0;
+            document = MongoDatabase.findDocuments(collection, createFilter(), null, raw).first();
+            loadedFields = null;
+            if (cache != null && document != null)
+                cache.put(key, (Document) copyValue(document), generation);
+            return this;
+        }
+
+        // projected documents are never cached
+        Set<String> include = new LinkedHashSet<>(projection.getFields());
+        include.add(keyName);
+        document = MongoDatabase.findDocuments(collection, createFilter(),
+                Projections.include(new ArrayList<>(include)), raw).first();
+        loadedFields = include;
         return this;
     }
 
@@ -101,8 +647,42 @@ public class MongoDatabaseItem extends DatabaseItem {
         return document != null;
     }
 
+    /**
+     * Get the document of this item. A lazily decoded document is
+     * replaced by a plain {@link Document} holding all fields first,
+     * so the returned document compares like any other document.
+     *
+     * @return The document or null if not available.
+     */
     public Document document() {
+        if (document instanceof LazyBsonDocument)
+            document = new Document(document);
         return document;
     }
 
+    /* Dotted Paths */
+
+    static Object copyValue(Object val) {
+        if (val instanceof LazyBsonDocument) {
+            // share the raw bytes instead of decoding
+            LazyBsonDocument copy = ((LazyBsonDocument) val).copy(MongoDatabaseItem::copyValue);
+            if (copy != null)
+                return copy;
+        }
+
+        return ValuePaths.copy(val, Document::new);
+    }
+
+    static Object getPath(Map<String, Object> document, String path) {
+        return ValuePaths.get(document, path);
+    }
+
+    static void putPath(Map<String, Object> document, String path, Object val) {
+        ValuePaths.put(document, path, val, Document::new);
+    }
+
+    static void removePath(Map<String, Object> document, String path) {
+        ValuePaths.remove(document, path);
+    }
+
 }
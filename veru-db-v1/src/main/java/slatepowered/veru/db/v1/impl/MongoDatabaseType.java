@@ -4,19 +4,24 @@ import com.mongodb.ConnectionString;
 import com.mongodb.client.MongoClient;
 import com.mongodb.MongoClientSettings;
 import com.mongodb.client.MongoClients;
+import org.bson.Document;
 import org.bson.UuidRepresentation;
 import slatepowered.veru.data.Values;
 import slatepowered.veru.db.v1.Database;
 import slatepowered.veru.db.v1.DatabaseType;
 import slatepowered.veru.db.v1.Login;
 
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class MongoDatabaseType extends DatabaseType<MongoDatabase> {
 
     public static final MongoDatabaseType INSTANCE = new MongoDatabaseType();
     public static final String ID = "mongodb";
 
+    private static final Logger LOGGER = Logger.getLogger("veru-db");
+
     public MongoDatabaseType() {
         super(ID);
 
@@ -35,17 +40,48 @@ public class MongoDatabaseType extends DatabaseType<MongoDatabase> {
             // create connection string
             // and client settings
             ConnectionString connectionString = new ConnectionString(ul.getURI());
-            MongoClientSettings settings = MongoClientSettings.builder()
+            MongoClientSettings.Builder settingsBuilder = MongoClientSettings.builder()
                     .uuidRepresentation(UuidRepresentation.STANDARD)
                     .applyConnectionString(connectionString)
-                    .build();
+                    .applyToConnectionPoolSettings(pool -> {
+                        if (ul.getMaxPoolSize() != -1)
+                            pool.minSize(ul.getMinPoolSize()).maxSize(ul.getMaxPoolSize());
+                        if (ul.getMaxConnectionIdleMillis() != -1)
+                            pool.maxConnectionIdleTime(ul.getMaxConnectionIdleMillis(), TimeUnit.MILLISECONDS);
+                        // fill the pool to its minimum size immediately
+                        if (ul.isWarmUp())
+                            pool.maintenanceInitialDelay(0, TimeUnit.MILLISECONDS);
+                    });
+
+            // only pay for the listener if diagnostics are enabled
+            boolean scanDiagnostics = database.collectionScanDiagnostics;
+            if (scanDiagnostics)
+                settingsBuilder.addCommandListener(MongoCollectionScanDetector.INSTANCE);
+            MongoClientSettings settings = settingsBuilder.build();
+
+            // login to client, reusing the client of
+            // databases with the same settings
+            MongoClient mongoClient;
+            boolean[] created = new boolean[] { true };
+            if (ul.isShareClient()) {
+                created[0] = false;
+                String key = ul.getURI() + "#" + ul.getMinPoolSize() + "," + ul.getMaxPoolSize() + "," +
+                        ul.getMaxConnectionIdleMillis() + "," + ul.isWarmUp() + "," + scanDiagnostics;
+                mongoClient = MongoClientRegistry.acquire(key, () -> MongoClients.create(settings), created);
+            } else {
+                mongoClient = MongoClients.create(settings);
+            }
 
-            // login to client
-            MongoClient mongoClient = MongoClients.create(settings);
             database.client = mongoClient;
+            database.collectionScanListener = scanDiagnostics;
+            if (created[0] && ul.isWarmUp())
+                warmUp(mongoClient, ul.getDatabase());
 
             // get database
             database.db = mongoClient.getDatabase(ul.getDatabase());
+
+            // create declared indexes
+            database.ensureIndexes();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -53,7 +89,39 @@ public class MongoDatabaseType extends DatabaseType<MongoDatabase> {
 
     @Override
     protected void close(MongoDatabase database) {
-        database.client.close();
+        try {
+            // flush pending writes
+            database.disableWriteBehind();
+        } finally {
+            for (MongoChangeStreamRefresher refresher : database.refreshers)
+                refresher.close();
+            database.refreshers.clear();
+
+            MongoClient client = database.client;
+            database.client = null;
+            if (client != null)
+                MongoClientRegistry.release(client);
+        }
+    }
+
+    /**
+     * Get the amount of open databases using the given client.
+     *
+     * @param client The client.
+     * @return The amount of databases or 0 if the client is not shared.
+     */
+    public static int getSharedReferences(MongoClient client) {
+        return MongoClientRegistry.getReferences(client);
+    }
+
+    // selects a server and opens the first connection, the pool
+    // maintenance opens the remaining minimum connections
+    private static void warmUp(MongoClient client, String database) {
+        try {
+            client.getDatabase(database).runCommand(new Document("ping", 1));
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to warm up connection pool for database " + database, e);
+        }
     }
 
     @Override
@@ -0,0 +1,146 @@
+package slatepowered.veru.db.v1.impl;
+
+import com.mongodb.client.model.IndexOptions;
+import org.bson.Document;
+
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The declaration of an index on a collection, which is
+ * created by {@link MongoDatabase#declareIndex(MongoIndex)}
+ * if it does not exist yet.
+ */
+public class MongoIndex {
+
+    /**
+     * Declare an index on the given collection.
+     *
+     * @param collection The collection name.
+     * @return The index.
+     */
+    public static MongoIndex on(String collection) {
+        return new MongoIndex(collection);
+    }
+
+    /**
+     * Declare a unique index on the key field of the
+     * items in the given collection.
+     *
+     * @param collection The collection name.
+     * @param keyName The key field name.
+     * @return The index.
+     */
+    public static MongoIndex key(String collection, String keyName) {
+        return on(collection).ascending(keyName).unique();
+    }
+
+    // the collection name
+    final String collection;
+
+    // the indexed fields in order, 1 for ascending and -1 for descending
+    final LinkedHashMap<String, Object> keys = new LinkedHashMap<>();
+
+    // the index name, null to use the generated name
+    String name;
+    boolean unique;
+    boolean sparse;
+    // the time after which documents expire, -1 if not a TTL index
+    long expireAfterSeconds = -1;
+
+    MongoIndex(String collection) {
+        this.collection = Objects.requireNonNull(collection, "collection");
+    }
+
+    public MongoIndex ascending(String... fields) {
+        for (String field : fields)
+            keys.put(field, 1);
+        return this;
+    }
+
+    public MongoIndex descending(String... fields) {
+        for (String field : fields)
+            keys.put(field, -1);
+        return this;
+    }
+
+    public MongoIndex name(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public MongoIndex unique() {
+        this.unique = true;
+        return this;
+    }
+
+    public MongoIndex sparse() {
+        this.sparse = true;
+        return this;
+    }
+
+    /**
+     * Make this a TTL index, the server deletes documents after
+     * the given time has passed since the date in the indexed field.
+     *
+     * @param time The time.
+     * @param unit The time unit.
+     * @return This.
+     */
+    public MongoIndex expireAfter(long time, TimeUnit unit) {
+        this.expireAfterSeconds = unit.toSeconds(time);
+        return this;
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public boolean isUnique() {
+        return unique;
+    }
+
+    public boolean isTTL() {
+        return expireAfterSeconds != -1;
+    }
+
+    /**
+     * Create the keys document of this index.
+     *
+     * @return The keys.
+     * @throws IllegalStateException If no fields were declared, or a TTL index has more than one.
+     */
+    public Document toKeys() {
+        if (keys.isEmpty())
+            throw new IllegalStateException("index on " + collection + " has no fields");
+        if (isTTL() && keys.size() != 1)
+            throw new IllegalStateException("TTL index on " + collection + " must have exactly one field");
+        return new Document(keys);
+    }
+
+    /**
+     * Create the options of this index.
+     *
+     * @return The options.
+     */
+    public IndexOptions toOptions() {
+        IndexOptions options = new IndexOptions()
+                .unique(unique)
+                .sparse(sparse);
+        if (name != null)
+            options.name(name);
+        if (isTTL())
+            options.expireAfter(expireAfterSeconds, TimeUnit.SECONDS);
+        return options;
+    }
+
+    @Override
+    public String toString() {
+        return collection + keys +
+                (unique ? " unique" : "") +
+                (sparse ? " sparse" : "") +
+                (isTTL() ? " expireAfter=" + expireAfterSeconds + "s" : "");
+    }
+
+}
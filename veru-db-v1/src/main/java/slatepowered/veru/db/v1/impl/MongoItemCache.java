@@ -0,0 +1,59 @@
+package slatepowered.veru.db.v1.impl;
+
+import org.bson.Document;
+import slatepowered.veru.db.v1.LruCache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+
+/**
+ * Read-through cache of the documents of one collection, used by
+ * {@link MongoDatabaseItem#pull()} for items using the same key field.
+ */
+public class MongoItemCache extends LruCache<Object, Document> {
+
+    // the name of the key field the documents are cached by
+    final String keyName;
+
+    public MongoItemCache(String keyName, int maxSize, long ttl, TimeUnit unit) {
+        super(maxSize, ttl, unit);
+        this.keyName = keyName;
+    }
+
+    // incremented on invalidation so pulls which
+    // started before do not cache stale documents
+    long generation; // guarded by this
+
+    public String getKeyName() {
+        return keyName;
+    }
+
+    synchronized long generation() {
+        return generation;
+    }
+
+    // caches the document unless invalidated since the given generation
+    synchronized void put(Object key, Document document, long generation) {
+        if (this.generation == generation)
+            put(key, document);
+    }
+
+    @Override
+    public synchronized void invalidate(Object key) {
+        generation++;
+        super.invalidate(key);
+    }
+
+    @Override
+    public synchronized void invalidateIf(BiPredicate<Object, Document> predicate) {
+        generation++;
+        super.invalidateIf(predicate);
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        generation++;
+        super.invalidateAll();
+    }
+
+}
@@ -0,0 +1,172 @@
+package slatepowered.veru.db.v1.impl;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Loads many {@link MongoDatabaseItem}s of one collection at once
+ * using {@code $in} queries, chunked by the bulk pull batch size of
+ * the database. Asynchronous loads execute the chunks concurrently,
+ * synchronous loads execute them one after another on the calling
+ * thread as it may be a database executor thread itself.
+ */
+final class MongoItemLoader {
+
+    final MongoDatabase database;
+    final MongoCollection<Document> collection;
+    final String keyName;
+
+    // the items in request order
+    final List<MongoDatabaseItem> items;
+    // the distinct keys which need to be queried
+    final List<Object> missing = new ArrayList<>();
+
+    // the cache to fill or null and its generation before querying
+    final MongoItemCache cache;
+    final long generation;
+
+    MongoItemLoader(MongoDatabase database, MongoCollection<Document> collection,
+                    String keyName, List<?> keys) {
+        this.database = database;
+        this.collection = collection;
+        this.keyName = keyName;
+        this.items = new ArrayList<>(keys.size());
+
+        // make sure writes pending for the items are visible
+        MongoWriteBehind writeBehind = database.writeBehind;
+        if (writeBehind != null)
+            writeBehind.flush(collection, keyName, keys);
+
+        MongoItemCache cache = database.getItemCache(collection.getNamespace().getCollectionName());
+        if (cache != null && !cache.keyName.equals(keyName))
+            cache = null;
+        this.cache = cache;
+        this.generation = cache != null ? cache.generation() : 0;
+
+        Set<Object> seen = new HashSet<>();
+        for (Object key : keys) {
+            MongoDatabaseItem item = new MongoDatabaseItem(database, keyName, collection, key);
+            items.add(item);
+
+            // try and serve from cache
+            Document cached = cache != null ? cache.get(key) : null;
+            if (cached != null) {
+                item.document = (Document) MongoDatabaseItem.copyValue(cached);
+                continue;
+            }
+
+            item.document = null;
+            if (seen.add(normalize(key)))
+                missing.add(key);
+        }
+    }
+
+    // normalizes numbers, which the server compares by value, so documents
+    // are matched to the items like by the $in query, for example int32
+    // keys of stored documents to requested long keys
+    static Object normalize(Object key) {
+        if (Decimal128.NEGATIVE_ZERO.equals(key))
+            return 0L;
+        if (key instanceof Decimal128 && ((Decimal128) key).isFinite())
+            key = ((Decimal128) key).bigDecimalValue();
+        if (key instanceof Integer || key instanceof Long || key instanceof Short || key instanceof Byte)
+            return ((Number) key).longValue();
+        if (key instanceof Double || key instanceof Float) {
+            double value = ((Number) key).doubleValue();
+            long integral = (long) value;
+            return integral == value ? (Object) integral : (Object) value;
+        }
+
+        if (key instanceof BigDecimal) {
+            BigDecimal value = (BigDecimal) key;
+            try {
+                return value.longValueExact();
+            } catch (ArithmeticException e) {
+                return value.doubleValue();
+            }
+        }
+
+        return key;
+    }
+
+    // creates the chunks of keys to query
+    private List<List<Object>> chunks() {
+        int batchSize = Math.max(1, database.bulkPullBatchSize);
+        List<List<Object>> chunks = new ArrayList<>((missing.size() + batchSize - 1) / batchSize);
+        for (int i = 0; i < missing.size(); i += batchSize)
+            chunks.add(missing.subList(i, Math.min(missing.size(), i + batchSize)));
+        return chunks;
+    }
+
+    // queries the documents for the given chunk of keys
+    private Map<Object, Document> fetch(List<Object> chunk) {
+        Map<Object, Document> found = new HashMap<>(chunk.size() * 2);
+        boolean raw = database.isRawDocuments(collection.getNamespace().getCollectionName());
+        for (Document document : MongoDatabase.findDocuments(collection, Filters.in(keyName, chunk), null, raw))
+            found.put(normalize(MongoDatabaseItem.getPath(document, keyName)), document);
+        return found;
+    }
+
+    // fills the items with the fetched documents
+    private List<MongoDatabaseItem> complete(Map<Object, Document> found) {
+        Set<Object> used = new HashSet<>();
+        for (MongoDatabaseItem item : items) {
+            if (item.document != null)
+                continue;
+            Document document = found.get(normalize(item.key));
+            if (document == null)
+                continue;
+
+            if (used.add(normalize(item.key))) {
+                item.document = document;
+                if (cache != null)
+                    cache.put(item.key, (Document) MongoDatabaseItem.copyValue(document), generation);
+            } else {
+                // duplicate keys get their own copy
+                item.document = (Document) MongoDatabaseItem.copyValue(document);
+            }
+        }
+
+        return items;
+    }
+
+    List<MongoDatabaseItem> load() {
+        List<List<Object>> chunks = chunks();
+        if (chunks.isEmpty())
+            return items;
+        if (chunks.size() == 1)
+            return complete(fetch(chunks.get(0)));
+
+        Map<Object, Document> found = new HashMap<>(missing.size() * 2);
+        for (List<Object> chunk : chunks)
+            found.putAll(fetch(chunk));
+        return complete(found);
+    }
+
+    CompletableFuture<List<MongoDatabaseItem>> loadAsync() {
+        List<List<Object>> chunks = chunks();
+        if (chunks.isEmpty())
+            return CompletableFuture.completedFuture(items);
+        return loadAsync(chunks);
+    }
+
+    private CompletableFuture<List<MongoDatabaseItem>> loadAsync(List<List<Object>> chunks) {
+        List<CompletableFuture<Map<Object, Document>>> futures = new ArrayList<>(chunks.size());
+        for (List<Object> chunk : chunks)
+            futures.add(CompletableFuture.supplyAsync(() -> fetch(chunk), database.executor()));
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(__ -> {
+            Map<Object, Document> found = new HashMap<>(missing.size() * 2);
+            for (CompletableFuture<Map<Object, Document>> future : futures)
+                found.putAll(future.join());
+            return complete(found);
+        });
+    }
+
+}
@@ -0,0 +1,300 @@
+package slatepowered.veru.db.v1.impl;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * A scan over a whole collection which splits it into ranges of a field
+ * and reads the ranges concurrently on a fork-join pool. The documents
+ * are buffered in a bounded queue and passed to the consumer on the
+ * calling thread, so a slow consumer slows down the reads instead of
+ * buffering the collection in memory.
+ *
+ * The range boundaries are computed with {@code $bucketAuto} over a
+ * {@code $sample} of the collection. The field should be indexed and
+ * hold values of one type in all documents, as documents where it is
+ * missing or of another type are not in any range. This holds for
+ * the default {@code _id} field.
+ *
+ * @see MongoDatabase#scan(MongoCollection)
+ */
+public class MongoPartitionedScan {
+
+    // marks the end of a partition in the queue
+    static final Object END = new Object();
+
+    // the database and collection to scan
+    final MongoDatabase database;
+    final MongoCollection<Document> collection;
+
+    // the field to partition by
+    String field = "_id";
+
+    // the filter and projection of the scanned documents, may be null
+    Bson filter;
+    Bson projection;
+
+    // the amount of partitions to split into
+    int partitions = Runtime.getRuntime().availableProcessors() * 2;
+
+    // the amount of sampled documents per partition
+    // used to compute the boundaries
+    int samplesPerPartition = 32;
+
+    // the amount of partitions read concurrently
+    int parallelism = Runtime.getRuntime().availableProcessors();
+
+    // the pool to read on, a pool is created
+    // for each scan if null
+    ForkJoinPool pool;
+
+    // the maximum amount of buffered documents
+    int bufferSize = 1024;
+
+    // the amount of documents per batch
+    int batchSize = 256;
+
+    MongoPartitionedScan(MongoDatabase database, MongoCollection<Document> collection) {
+        this.database = database;
+        this.collection = collection;
+    }
+
+    /**
+     * Set the field to partition the collection by, which
+     * should be indexed. Defaults to {@code _id}.
+     *
+     * @param field The field.
+     * @return This.
+     */
+    public MongoPartitionedScan field(String field) {
+        this.field = Objects.requireNonNull(field, "field");
+        return this;
+    }
+
+    public MongoPartitionedScan filter(Bson filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    public MongoPartitionedScan projection(Bson projection) {
+        this.projection = projection;
+        return this;
+    }
+
+    /**
+     * Set the amount of ranges to split the collection into, more
+     * partitions than threads balance uneven ranges better.
+     *
+     * @param partitions The amount of partitions.
+     * @return This.
+     */
+    public MongoPartitionedScan partitions(int partitions) {
+        if (partitions < 1)
+            throw new IllegalArgumentException("partitions must be at least 1");
+        this.partitions = partitions;
+        return this;
+    }
+
+    public MongoPartitionedScan samplesPerPartition(int samplesPerPartition) {
+        this.samplesPerPartition = Math.max(1, samplesPerPartition);
+        return this;
+    }
+
+    /**
+     * Set the amount of partitions read concurrently
+     * on the pool created for the scan.
+     *
+     * @param parallelism The parallelism.
+     * @return This.
+     */
+    public MongoPartitionedScan parallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Set the pool to read the partitions on instead of creating
+     * one for the scan, the pool is not shut down.
+     *
+     * @param pool The pool or null to create one.
+     * @return This.
+     */
+    public MongoPartitionedScan pool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    public MongoPartitionedScan bufferSize(int bufferSize) {
+        this.bufferSize = Math.max(1, bufferSize);
+        return this;
+    }
+
+    public MongoPartitionedScan batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Compute the lower boundaries of all partitions but the first,
+     * in ascending order.
+     *
+     * @return The boundaries.
+     */
+    public List<Object> boundaries() {
+        List<Object> boundaries = new ArrayList<>();
+        if (partitions <= 1)
+            return boundaries;
+
+        List<Bson> pipeline = new ArrayList<>();
+        if (filter != null)
+            pipeline.add(Aggregates.match(filter));
+        pipeline.add(Aggregates.sample(partitions * samplesPerPartition));
+        pipeline.add(Aggregates.bucketAuto("$" + field, partitions));
+
+        Object last = null;
+        boolean first = true;
+        for (Document bucket : collection.aggregate(pipeline).allowDiskUse(true)) {
+            Object min = bucket.get("_id", Document.class).get("min");
+            if (first) {
+                // the first range is unbounded below
+                first = false;
+            } else if (min != null && !min.equals(last)) {
+                boundaries.add(min);
+            }
+
+            last = min;
+        }
+
+        return boundaries;
+    }
+
+    /**
+     * Create the filter of each partition from the given boundaries,
+     * combined with the filter of this scan. The first and last
+     * partitions are unbounded below and above.
+     *
+     * @param boundaries The boundaries in ascending order.
+     * @return The filters, one more than boundaries.
+     * @see #boundaries()
+     */
+    public List<Bson> partitionFilters(List<Object> boundaries) {
+        List<Bson> filters = new ArrayList<>(boundaries.size() + 1);
+        if (boundaries.isEmpty()) {
+            filters.add(filter != null ? filter : new Document());
+            return filters;
+        }
+
+        for (int i = 0; i <= boundaries.size(); i++) {
+            Bson range;
+            if (i == 0) range = Filters.lt(field, boundaries.get(0));
+            else if (i == boundaries.size()) range = Filters.gte(field, boundaries.get(i - 1));
+            else range = Filters.and(Filters.gte(field, boundaries.get(i - 1)), Filters.lt(field, boundaries.get(i)));
+            filters.add(filter != null ? Filters.and(filter, range) : range);
+        }
+
+        return filters;
+    }
+
+    /**
+     * Scan the collection, passing every document to the given
+     * consumer on the calling thread. If reading a partition or the
+     * consumer fails, all partitions are stopped and the error is
+     * rethrown.
+     *
+     * @param consumer The consumer.
+     * @return The amount of scanned documents.
+     */
+    public long forEach(Consumer<? super Document> consumer) {
+        List<Bson> filters = partitionFilters(boundaries());
+        boolean raw = database.isRawDocuments(collection.getNamespace().getCollectionName());
+
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(bufferSize);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        // set when the scan is stopped early
+        AtomicBoolean stopped = new AtomicBoolean();
+
+        ForkJoinPool pool = this.pool != null ? this.pool : new ForkJoinPool(Math.min(parallelism, filters.size()));
+        try {
+            for (Bson partition : filters) {
+                pool.execute(() -> {
+                    try (MongoCursor<Document> cursor = MongoDatabase.findDocuments(collection, partition, projection, raw)
+                            .batchSize(batchSize).iterator()) {
+                        while (cursor.hasNext()) {
+                            if (!offer(queue, cursor.next(), stopped))
+                                return;
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    } finally {
+                        offer(queue, END, stopped);
+                    }
+                });
+            }
+
+            long count = 0;
+            int remaining = filters.size();
+            while (remaining > 0) {
+                Object element = queue.take();
+                if (element == END) {
+                    remaining--;
+                    Throwable t = error.get();
+                    if (t instanceof RuntimeException)
+                        throw (RuntimeException) t;
+                    if (t instanceof Error)
+                        throw (Error) t;
+                    if (t != null)
+                        throw new IllegalStateException("failed to scan partition of " + collection.getNamespace(), t);
+                    continue;
+                }
+
+                consumer.accept((Document) element);
+                count++;
+            }
+
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while scanning " + collection.getNamespace(), e);
+        } finally {
+            stopped.set(true);
+
+            queue.clear();
+            if (this.pool == null)
+                pool.shutdown();
+        }
+    }
+
+    // offers the element to the queue, waiting for space
+    // until the scan is stopped
+    private static boolean offer(BlockingQueue<Object> queue, Object element, AtomicBoolean stopped) {
+        try {
+            for (;;) {
+                if (stopped.get())
+                    return false;
+                if (queue.offer(element, 50, TimeUnit.MILLISECONDS))
+                    return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+}
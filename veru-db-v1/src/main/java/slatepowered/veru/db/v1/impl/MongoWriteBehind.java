@@ -0,0 +1,617 @@
+package slatepowered.veru.db.v1.impl;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.*;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Opt-in write-behind queue for {@link MongoDatabaseItem#push()}.
+ *
+ * Pushes are enqueued instead of being written immediately, repeated
+ * pushes of the same key are coalesced into one pending write and pending
+ * writes are flushed on a background thread as one unordered bulk write
+ * per collection.
+ *
+ * A pending write is flushed once no push for its key happened for the
+ * flush window, or at the latest once it has been pending for the max
+ * latency, whichever comes first.
+ *
+ * Failed writes stay pending and are retried with exponential backoff,
+ * later pushes of the same key are applied on top of them. Explicit
+ * flushes rethrow the failure.
+ */
+public class MongoWriteBehind {
+
+    private static final Logger LOGGER = Logger.getLogger("veru-db");
+
+    // the database this queue writes to
+    final MongoDatabase database;
+
+    // the pending writes by key
+    final ConcurrentHashMap<PendingKey, PendingWrite> pending = new ConcurrentHashMap<>();
+
+    // ensures flushes happen in order
+    final Object flushLock = new Object();
+
+    // the flush window in nanoseconds
+    volatile long flushWindow = TimeUnit.MILLISECONDS.toNanos(50);
+    // the maximum time a write may be pending in nanoseconds
+    volatile long maxLatency = TimeUnit.MILLISECONDS.toNanos(500);
+    // the amount of pending keys at which to flush immediately
+    volatile int maxPending = 10_000;
+    // the delay before the first retry of a failed write in nanoseconds,
+    // doubled for every further attempt up to the max retry delay
+    volatile long retryDelay = TimeUnit.MILLISECONDS.toNanos(100);
+    volatile long maxRetryDelay = TimeUnit.SECONDS.toNanos(30);
+    // the amount of retries after which a failed write is dropped
+    volatile int maxRetries = 10;
+
+    // the flush scheduler, created on start
+    ScheduledExecutorService scheduler;
+    // whether a full flush has been requested
+    final AtomicBoolean flushRequested = new AtomicBoolean();
+    // whether this queue has been closed, enqueues hold the read lock
+    // so no write is queued after close flushed the queue
+    volatile boolean closed = false;
+    final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    /* Statistics */
+    final LongAdder enqueued = new LongAdder();
+    final LongAdder coalesced = new LongAdder();
+    final LongAdder written = new LongAdder();
+    final LongAdder bulkWrites = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+
+    public MongoWriteBehind(MongoDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Set the flush window, a pending write is flushed once
+     * its key has not been pushed again for this duration.
+     *
+     * @param time The duration.
+     * @param unit The time unit.
+     * @return This.
+     */
+    public MongoWriteBehind flushWindow(long time, TimeUnit unit) {
+        this.flushWindow = unit.toNanos(time);
+        return this;
+    }
+
+    /**
+     * Set the maximum duration a write may be pending
+     * before it is flushed, regardless of new pushes.
+     *
+     * @param time The duration.
+     * @param unit The time unit.
+     * @return This.
+     */
+    public MongoWriteBehind maxLatency(long time, TimeUnit unit) {
+        this.maxLatency = unit.toNanos(time);
+        return this;
+    }
+
+    /**
+     * Set the amount of pending keys at which all
+     * pending writes are flushed immediately.
+     *
+     * @param maxPending The amount of keys.
+     * @return This.
+     */
+    public MongoWriteBehind maxPending(int maxPending) {
+        this.maxPending = maxPending;
+        return this;
+    }
+
+    /**
+     * Set the delay before retrying a failed write, which is doubled
+     * for every further attempt up to the given maximum.
+     *
+     * @param delay The delay of the first retry.
+     * @param maxDelay The maximum delay.
+     * @param unit The time unit.
+     * @return This.
+     */
+    public MongoWriteBehind retryDelay(long delay, long maxDelay, TimeUnit unit) {
+        this.retryDelay = unit.toNanos(delay);
+        this.maxRetryDelay = unit.toNanos(maxDelay);
+        return this;
+    }
+
+    /**
+     * Set the amount of retries after which a failed write is
+     * dropped and logged.
+     *
+     * @param maxRetries The amount of retries.
+     * @return This.
+     */
+    public MongoWriteBehind maxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * Start the background flush thread.
+     *
+     * @return This.
+     */
+    public synchronized MongoWriteBehind start() {
+        if (scheduler != null || closed)
+            return this;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "veru-db-write-behind-" + database.name());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long tick = Math.max(TimeUnit.MILLISECONDS.toNanos(1), Math.min(flushWindow, maxLatency) / 2);
+        scheduler.scheduleWithFixedDelay(() -> flush(false), tick, tick, TimeUnit.NANOSECONDS);
+        return this;
+    }
+
+    /**
+     * Enqueue the pending changes of the given item, clearing them
+     * from the item.
+     *
+     * @param item The item.
+     * @param replace Whether to replace the full document.
+     * @return False if this queue has been closed and the item
+     *         should be pushed synchronously instead.
+     */
+    boolean enqueue(MongoDatabaseItem item, boolean replace) {
+        closeLock.readLock().lock();
+        try {
+            if (closed)
+                return false;
+            if (!item.hasChanges() && (!replace || item.document == null))
+                return true;
+
+            long now = System.nanoTime();
+            PendingKey key = new PendingKey(item.collection.getNamespace().getFullName(), item.keyName, item.key);
+            pending.compute(key, (k, write) -> {
+                if (write == null) {
+                    write = new PendingWrite(item.collection, item.keyName, item.key, now);
+                } else {
+                    coalesced.increment();
+                    write.lastQueued = now;
+                }
+
+                write.merge(item, replace);
+                return write;
+            });
+
+            item.changes.clear();
+            item.removals.clear();
+            enqueued.increment();
+
+            // the scheduler is only shut down after closing
+            if (pending.size() >= maxPending && scheduler != null && flushRequested.compareAndSet(false, true)) {
+                scheduler.execute(() -> {
+                    flushRequested.set(false);
+                    flush(true);
+                });
+            }
+
+            return true;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flush all pending writes now, blocking until written.
+     *
+     * @throws MongoException If a write failed, the failed writes stay pending.
+     */
+    public void flush() {
+        RuntimeException error;
+        synchronized (flushLock) {
+            error = write(new ArrayList<>(pending.keySet()), true);
+        }
+
+        if (error != null)
+            throw error;
+    }
+
+    /**
+     * Flush the pending write for the given key if present,
+     * blocking until written.
+     *
+     * @param collection The collection.
+     * @param keyName The key field name.
+     * @param key The key value.
+     * @throws MongoException If the write failed, it stays pending then.
+     */
+    public void flush(MongoCollection<Document> collection, String keyName, Object key) {
+        flush(collection, keyName, Collections.singletonList(key));
+    }
+
+    /**
+     * Flush the pending writes for the given keys in one bulk write,
+     * blocking until written.
+     *
+     * @param collection The collection.
+     * @param keyName The key field name.
+     * @param keys The key values.
+     * @throws MongoException If a write failed, the failed writes stay pending.
+     */
+    public void flush(MongoCollection<Document> collection, String keyName, Collection<?> keys) {
+        if (pending.isEmpty())
+            return;
+        String namespace = collection.getNamespace().getFullName();
+        List<PendingKey> pendingKeys = new ArrayList<>();
+        for (Object key : keys) {
+            PendingKey pendingKey = new PendingKey(namespace, keyName, key);
+            if (pending.containsKey(pendingKey))
+                pendingKeys.add(pendingKey);
+        }
+
+        if (pendingKeys.isEmpty())
+            return;
+
+        RuntimeException error;
+        synchronized (flushLock) {
+            error = write(pendingKeys, true);
+        }
+
+        if (error != null)
+            throw error;
+    }
+
+    // flushes all due pending writes or all pending writes if forced,
+    // logging failures as the writes are retried later
+    void flush(boolean all) {
+        try {
+            synchronized (flushLock) {
+                if (pending.isEmpty())
+                    return;
+
+                long now = System.nanoTime();
+                long window = flushWindow;
+                long latency = maxLatency;
+
+                List<PendingKey> keys = new ArrayList<>();
+                for (Map.Entry<PendingKey, PendingWrite> entry : pending.entrySet()) {
+                    PendingWrite write = entry.getValue();
+                    if (write.retryAt != 0 && now - write.retryAt < 0)
+                        continue;
+                    if (!all && now - write.lastQueued < window && now - write.firstQueued < latency)
+                        continue;
+                    keys.add(entry.getKey());
+                }
+
+                write(keys, false);
+            }
+        } catch (Throwable t) {
+            LOGGER.log(Level.SEVERE, "Failed to flush write-behind queue of database " + database.name(), t);
+        }
+    }
+
+    // takes the pending writes for the given keys and writes them as one bulk
+    // write per collection, failed writes are queued again in front of any
+    // newer write of the same key, returns the first failure
+    private RuntimeException write(List<PendingKey> keys, boolean explicit) {
+        // group by collection
+        Map<String, List<PendingWrite>> byCollection = new HashMap<>();
+        for (PendingKey key : keys) {
+            PendingWrite write = pending.remove(key);
+            if (write != null)
+                byCollection.computeIfAbsent(key.namespace, __ -> new ArrayList<>()).add(write);
+        }
+
+        RuntimeException error = null;
+        for (List<PendingWrite> group : byCollection.values()) {
+            List<WriteModel<Document>> models = new ArrayList<>(group.size());
+            for (PendingWrite write : group)
+                models.add(write.toModel());
+
+            MongoCollection<Document> collection = group.get(0).collection;
+            RuntimeException groupError = null;
+            Set<Integer> failedIndexes = null;
+            try {
+                collection.bulkWrite(models, new BulkWriteOptions().ordered(false));
+            } catch (MongoBulkWriteException e) {
+                // only the writes with errors failed
+                failedIndexes = new HashSet<>();
+                for (BulkWriteError writeError : e.getWriteErrors())
+                    failedIndexes.add(writeError.getIndex());
+                if (e.getWriteConcernError() != null)
+                    failedIndexes = null;
+                groupError = e;
+                LOGGER.log(explicit ? Level.FINE : Level.WARNING, "Write-behind bulk write of " + models.size() +
+                        " items to " + collection.getNamespace() + " failed", e);
+            } catch (RuntimeException e) {
+                groupError = e;
+                LOGGER.log(explicit ? Level.FINE : Level.WARNING, "Write-behind bulk write of " + models.size() +
+                        " items to " + collection.getNamespace() + " failed", e);
+            }
+
+            if (error == null)
+                error = groupError;
+            boolean allFailed = groupError != null && failedIndexes == null;
+            bulkWrites.increment();
+            MongoItemCache cache = database.getItemCache(collection.getNamespace().getCollectionName());
+            for (int i = 0; i < group.size(); i++) {
+                PendingWrite write = group.get(i);
+                if (allFailed || failedIndexes != null && failedIndexes.contains(i)) {
+                    failed.increment();
+                    requeue(write);
+                    continue;
+                }
+
+                written.increment();
+                // invalidate any copies cached while pending
+                if (cache != null && cache.keyName.equals(write.keyName))
+                    cache.invalidate(write.key);
+            }
+        }
+
+        return error;
+    }
+
+    // queues a failed write again with backoff, before newer writes of its key
+    private void requeue(PendingWrite write) {
+        if (write.attempts >= maxRetries) {
+            dropped.increment();
+            LOGGER.severe("Dropping write-behind write of " + write.keyName + "=" + write.key + " to " +
+                    write.collection.getNamespace() + " after " + (write.attempts + 1) + " failed attempts");
+            return;
+        }
+
+        write.attempts++;
+        write.retryAt = System.nanoTime() + Math.min(maxRetryDelay, retryDelay << Math.min(30, write.attempts - 1));
+        if (write.retryAt == 0)
+            write.retryAt = 1;
+        PendingKey key = new PendingKey(write.collection.getNamespace().getFullName(), write.keyName, write.key);
+        pending.merge(key, write, (newer, failed) -> failed.then(newer));
+    }
+
+    /**
+     * Get the amount of keys with a pending write.
+     *
+     * @return The pending count.
+     */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    public long getEnqueuedCount() {
+        return enqueued.sum();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    public long getBulkWriteCount() {
+        return bulkWrites.sum();
+    }
+
+    /**
+     * Get the amount of failed write attempts, failed
+     * writes are retried until dropped.
+     *
+     * @return The failed count.
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * Get the amount of writes dropped after failing
+     * more often than the max retries.
+     *
+     * @return The dropped count.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stop accepting new writes, flush all pending
+     * writes and stop the background thread.
+     *
+     * @throws MongoException If writes failed, they stay pending then.
+     */
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+
+        synchronized (this) {
+            if (scheduler != null)
+                scheduler.shutdown();
+        }
+
+        flush();
+    }
+
+    /* Pending Writes */
+
+    static final class PendingKey {
+
+        final String namespace;
+        final String keyName;
+        final Object key;
+
+        PendingKey(String namespace, String keyName, Object key) {
+            this.namespace = namespace;
+            this.keyName = keyName;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PendingKey that = (PendingKey) o;
+            return namespace.equals(that.namespace) && keyName.equals(that.keyName) && Objects.equals(key, that.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return (namespace.hashCode() * 31 + keyName.hashCode()) * 31 + Objects.hashCode(key);
+        }
+
+    }
+
+    static final class PendingWrite {
+
+        final MongoCollection<Document> collection;
+        final String keyName;
+        final Object key;
+
+        // the coalesced fields to set and unset
+        final LinkedHashMap<String, Object> sets = new LinkedHashMap<>();
+        final LinkedHashSet<String> unsets = new LinkedHashSet<>();
+        // the full replacement, if requested
+        Document replacement;
+
+        // the times this write was first and last queued
+        final long firstQueued;
+        volatile long lastQueued;
+
+        // the amount of failed attempts and the time
+        // of the next attempt, 0 if not failed yet
+        int attempts;
+        long retryAt;
+
+        PendingWrite(MongoCollection<Document> collection, String keyName, Object key, long now) {
+            this.collection = collection;
+            this.keyName = keyName;
+            this.key = key;
+            this.firstQueued = now;
+            this.lastQueued = now;
+        }
+
+        // applies the given newer write on top of this failed write
+        PendingWrite then(PendingWrite newer) {
+            if (newer.replacement != null)
+                return newer;
+            for (Map.Entry<String, Object> entry : newer.sets.entrySet())
+                mergeSet(entry.getKey(), entry.getValue());
+            for (String path : newer.unsets)
+                mergeUnset(path);
+            lastQueued = newer.lastQueued;
+            return this;
+        }
+
+        // merges the pending changes of the given item into this write
+        void merge(MongoDatabaseItem item, boolean replace) {
+            if (replace && item.document != null) {
+                replacement = (Document) MongoDatabaseItem.copyValue(item.document);
+                sets.clear();
+                unsets.clear();
+                return;
+            }
+
+            for (Map.Entry<String, Object> entry : item.changes.entrySet())
+                mergeSet(entry.getKey(), MongoDatabaseItem.copyValue(entry.getValue()));
+            for (String path : item.removals)
+                mergeUnset(path);
+        }
+
+        void mergeSet(String path, Object val) {
+            if (replacement != null) {
+                MongoDatabaseItem.putPath(replacement, path, val);
+                return;
+            }
+
+            removeChildren(path);
+            String parent = findParent(path);
+            if (parent != null) {
+                Object parentValue = sets.get(parent);
+                if (!(parentValue instanceof Document)) {
+                    // parent was unset or is not a document
+                    parentValue = new Document();
+                    unsets.remove(parent);
+                    sets.put(parent, parentValue);
+                }
+
+                MongoDatabaseItem.putPath((Document) parentValue, path.substring(parent.length() + 1), val);
+                return;
+            }
+
+            unsets.remove(path);
+            sets.put(path, val);
+        }
+
+        void mergeUnset(String path) {
+            if (replacement != null) {
+                MongoDatabaseItem.removePath(replacement, path);
+                return;
+            }
+
+            removeChildren(path);
+            String parent = findParent(path);
+            if (parent != null) {
+                Object parentValue = sets.get(parent);
+                if (parentValue instanceof Document)
+                    MongoDatabaseItem.removePath((Document) parentValue, path.substring(parent.length() + 1));
+                return;
+            }
+
+            sets.remove(path);
+            unsets.add(path);
+        }
+
+        private void removeChildren(String path) {
+            String prefix = path + ".";
+            sets.keySet().removeIf(k -> k.startsWith(prefix));
+            unsets.removeIf(k -> k.startsWith(prefix));
+        }
+
+        private String findParent(String path) {
+            for (int i = path.indexOf('.'); i != -1; i = path.indexOf('.', i + 1)) {
+                String parent = path.substring(0, i);
+                if (sets.containsKey(parent) || unsets.contains(parent))
+                    return parent;
+            }
+
+            return null;
+        }
+
+        WriteModel<Document> toModel() {
+            Bson filter = Filters.eq(keyName, key);
+            if (replacement != null) {
+                if (!replacement.containsKey(keyName))
+                    replacement.put(keyName, key);
+                return new ReplaceOneModel<>(filter, replacement, new ReplaceOptions().upsert(true));
+            }
+
+            List<Bson> bsons = new ArrayList<>(sets.size() + unsets.size());
+            for (Map.Entry<String, Object> entry : sets.entrySet())
+                bsons.add(Updates.set(entry.getKey(), entry.getValue()));
+            for (String path : unsets)
+                bsons.add(Updates.unset(path));
+            return new UpdateOneModel<>(filter, Updates.combine(bsons), new UpdateOptions().upsert(true));
+        }
+
+    }
+
+}
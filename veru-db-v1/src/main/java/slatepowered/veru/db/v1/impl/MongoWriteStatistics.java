@@ -0,0 +1,94 @@
+package slatepowered.veru.db.v1.impl;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the writes performed by {@link MongoDatabaseItem}s
+ * of a database, mainly to measure how much is saved by only
+ * sending the changed fields instead of the full document.
+ */
+public class MongoWriteStatistics {
+
+    // the amount of delta updates sent
+    final LongAdder deltaPushes = new LongAdder();
+    // the amount of full replacements sent
+    final LongAdder fullPushes = new LongAdder();
+    // the amount of fields sent
+    final LongAdder fieldsWritten = new LongAdder();
+    // the amount of fields not sent because they were unchanged
+    final LongAdder fieldsSaved = new LongAdder();
+    // the amount of bytes sent, only tracked if enabled
+    final LongAdder bytesWritten = new LongAdder();
+    // the amount of bytes not sent, only tracked if enabled
+    final LongAdder bytesSaved = new LongAdder();
+
+    // whether to calculate the encoded sizes of
+    // the updates, this costs some CPU per push
+    volatile boolean trackBytes = false;
+
+    /**
+     * Set whether the encoded byte sizes of the updates should be
+     * calculated, this requires encoding the full document on every
+     * push so it is disabled by default.
+     *
+     * @param trackBytes Whether to track byte sizes.
+     * @return This.
+     */
+    public MongoWriteStatistics trackBytes(boolean trackBytes) {
+        this.trackBytes = trackBytes;
+        return this;
+    }
+
+    public boolean isTrackingBytes() {
+        return trackBytes;
+    }
+
+    public long getDeltaPushes() {
+        return deltaPushes.sum();
+    }
+
+    public long getFullPushes() {
+        return fullPushes.sum();
+    }
+
+    public long getFieldsWritten() {
+        return fieldsWritten.sum();
+    }
+
+    public long getFieldsSaved() {
+        return fieldsSaved.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    /**
+     * Reset all counters to zero.
+     */
+    public void reset() {
+        deltaPushes.reset();
+        fullPushes.reset();
+        fieldsWritten.reset();
+        fieldsSaved.reset();
+        bytesWritten.reset();
+        bytesSaved.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "MongoWriteStatistics{" +
+                "deltaPushes=" + getDeltaPushes() +
+                ", fullPushes=" + getFullPushes() +
+                ", fieldsWritten=" + getFieldsWritten() +
+                ", fieldsSaved=" + getFieldsSaved() +
+                ", bytesWritten=" + getBytesWritten() +
+                ", bytesSaved=" + getBytesSaved() +
+                '}';
+    }
+
+}
@@ -0,0 +1,762 @@
+package slatepowered.veru.db.v1.impl;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, segmented log of documents keyed by collection
+ * and key, backing the {@link FileDatabase}.
+ *
+ * Every write appends the full document (or a tombstone) to the active
+ * segment, the location of the latest record for every key is kept in an
+ * in-memory index. Sealed segments are memory-mapped for reads, segments
+ * with mostly dead records are compacted in the background by re-appending
+ * their live records and deleting the segment.
+ *
+ * On a clean close the index is written to a snapshot file which is
+ * memory-mapped and loaded on the next open, otherwise the index is
+ * recovered by scanning all segments, truncating a torn tail.
+ */
+final class SegmentLog implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger("veru-db");
+
+    static final byte OP_PUT = 1;
+    static final byte OP_DELETE = 2;
+
+    // the size of the record header, being
+    // the payload length and checksum
+    static final int HEADER_SIZE = 8;
+
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String SNAPSHOT_FILE = "index.snapshot";
+    static final int SNAPSHOT_MAGIC = 0x56455255;
+
+    static long location(int segment, long offset) {
+        return ((long) segment << 40) | offset;
+    }
+
+    static int segmentOf(long location) {
+        return (int) (location >>> 40);
+    }
+
+    static long offsetOf(long location) {
+        return location & ((1L << 40) - 1);
+    }
+
+    /**
+     * One segment file of the log.
+     */
+    static final class Segment {
+
+        final int id;
+        final Path path;
+        final FileChannel channel;
+
+        // the amount of bytes written
+        volatile long size;
+        // the amount of bytes taken by dead records
+        final AtomicLong deadBytes = new AtomicLong();
+        // the read-only mapping, set once sealed
+        volatile MappedByteBuffer mapped;
+
+        Segment(int id, Path path, FileChannel channel, long size) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        // seals this segment, making it read-only and mapped
+        void seal() throws IOException {
+            channel.force(true);
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        // reads the given amount of bytes at the given offset
+        byte[] read(long offset, int length) throws IOException {
+            byte[] bytes = new byte[length];
+            MappedByteBuffer m = mapped;
+            if (m != null) {
+                ByteBuffer dup = m.duplicate();
+                dup.position((int) offset);
+                dup.get(bytes);
+                return bytes;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0)
+                    throw new EOFException("unexpected end of segment " + path);
+            }
+
+            return bytes;
+        }
+
+        int readInt(long offset) throws IOException {
+            return ByteBuffer.wrap(read(offset, 4)).getInt();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+
+            }
+        }
+
+    }
+
+    /**
+     * A decoded record.
+     */
+    static final class Record {
+
+        final byte op;
+        final String collection;
+        final Object key;
+        final Map<String, Object> document;
+        // the total size including the header
+        final int size;
+
+        Record(byte op, String collection, Object key, Map<String, Object> document, int size) {
+            this.op = op;
+            this.collection = collection;
+            this.key = key;
+            this.document = document;
+            this.size = size;
+        }
+
+    }
+
+    ///////////////////////////////////
+
+    // the directory containing the segments
+    final Path directory;
+
+    // the maximum size of a segment before rolling
+    final long maxSegmentSize;
+
+    // whether writes wait for an fsync
+    final boolean durable;
+
+    // the segments by id
+    final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // the segment currently written to
+    volatile Segment active;
+
+    // the location of the latest record by key, by collection
+    final ConcurrentHashMap<String, ConcurrentHashMap<Object, Long>> index = new ConcurrentHashMap<>();
+
+    // guards segments from being removed while read
+    final ReentrantReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+
+    // serializes appends
+    final Object writeLock = new Object();
+
+    // striped locks for read-modify-write updates of keys
+    final Object[] keyLocks = new Object[64];
+
+    /* Group Commit */
+    long writeSequence; // guarded by writeLock
+    volatile long syncedSequence;
+    volatile long syncRequested;
+    final Object syncMonitor = new Object();
+    volatile IOException syncFailure;
+
+    // background tasks
+    final Thread syncThread;
+    final ScheduledExecutorService background;
+
+    // the threshold of dead bytes to segment size to compact at
+    final double compactionThreshold;
+
+    // serializes compaction runs
+    final Object compactionLock = new Object();
+
+    volatile boolean closed = false;
+
+    SegmentLog(Path directory, long maxSegmentSize, boolean durable, long syncIntervalMillis,
+               double compactionThreshold, long compactionIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        this.durable = durable;
+        this.compactionThreshold = compactionThreshold;
+        for (int i = 0; i < keyLocks.length; i++)
+            keyLocks[i] = new Object();
+
+        Files.createDirectories(directory);
+        open();
+
+        background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "veru-db-segment-log-" + directory.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        background.scheduleWithFixedDelay(this::compactSafely,
+                compactionIntervalMillis, compactionIntervalMillis, TimeUnit.MILLISECONDS);
+
+        if (durable) {
+            syncThread = new Thread(this::runGroupCommit, "veru-db-group-commit-" + directory.getFileName());
+            syncThread.setDaemon(true);
+            syncThread.start();
+        } else {
+            syncThread = null;
+            background.scheduleWithFixedDelay(this::syncSafely,
+                    syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /* Opening and Recovery */
+
+    private void open() throws IOException {
+        // open all segments in order
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream)
+                paths.add(path);
+        }
+
+        paths.sort(Comparator.comparingInt(SegmentLog::segmentIdOf));
+        for (Path path : paths) {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(segmentIdOf(path), path, channel, channel.size());
+            segments.put(segment.id, segment);
+        }
+
+        // load the snapshot or recover by scanning
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (!loadSnapshot(snapshot)) {
+            index.clear();
+            for (Segment segment : segments.values())
+                segment.deadBytes.set(0);
+            for (Segment segment : segments.values())
+                recover(segment, segment == segments.lastEntry().getValue());
+        }
+
+        // the snapshot is only valid until the next write
+        Files.deleteIfExists(snapshot);
+
+        // seal all but the last segment
+        if (segments.isEmpty()) {
+            active = createSegment(1);
+        } else {
+            for (Segment segment : segments.headMap(segments.lastKey()).values())
+                segment.seal();
+            active = segments.lastEntry().getValue();
+        }
+    }
+
+    private static int segmentIdOf(Path path) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        Path path = directory.resolve(String.format("%08d", id) + SEGMENT_SUFFIX);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, path, channel, 0);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    // scans the given segment, applying all valid records to the
+    // index and truncating the segment at the first invalid record
+    private void recover(Segment segment, boolean last) throws IOException {
+        long offset = 0;
+        long size = segment.size;
+        while (offset + HEADER_SIZE <= size) {
+            Record record = readRecord(segment, offset, size);
+            if (record == null)
+                break;
+            applyToIndex(record, location(segment.id, offset));
+            offset += record.size;
+        }
+
+        if (offset < size) {
+            if (last) {
+                LOGGER.warning("Truncating torn tail of segment " + segment.path + " at " + offset + " (size " + size + ")");
+                segment.channel.truncate(offset);
+                segment.size = offset;
+            } else {
+                LOGGER.severe("Corrupt record in segment " + segment.path + " at " + offset + ", ignoring the rest of the segment");
+                segment.deadBytes.addAndGet(size - offset);
+            }
+        }
+    }
+
+    // reads the record at the given offset, returns
+    // null if the record is incomplete or corrupt
+    private Record readRecord(Segment segment, long offset, long limit) throws IOException {
+        if (offset + HEADER_SIZE > limit)
+            return null;
+        ByteBuffer header = ByteBuffer.wrap(segment.read(offset, HEADER_SIZE));
+        int length = header.getInt();
+        int checksum = header.getInt();
+        if (length <= 0 || offset + HEADER_SIZE + length > limit)
+            return null;
+
+        byte[] payload = segment.read(offset + HEADER_SIZE, length);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        if ((int) crc.getValue() != checksum)
+            return null;
+
+        try {
+            return decode(payload, HEADER_SIZE + length);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Record decode(byte[] payload, int size) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        String collection = ValueCodec.readString(in);
+        Object key = ValueCodec.read(in);
+        Map<String, Object> document = op == OP_PUT ? (Map<String, Object>) ValueCodec.read(in) : null;
+        return new Record(op, collection, key, document, size);
+    }
+
+    // applies the given record to the index, marking replaced records dead
+    private void applyToIndex(Record record, long location) throws IOException {
+        ConcurrentHashMap<Object, Long> keys = index.computeIfAbsent(record.collection, __ -> new ConcurrentHashMap<>());
+        Long old = record.op == OP_PUT ? keys.put(record.key, location) : keys.remove(record.key);
+        if (old != null)
+            markDead(old);
+        if (record.op == OP_DELETE)
+            // tombstones are dead from the start, compaction
+            // keeps them as long as they are still required
+            segments.get(segmentOf(location)).deadBytes.addAndGet(record.size);
+    }
+
+    private void markDead(long location) throws IOException {
+        Segment segment = segments.get(segmentOf(location));
+        if (segment != null)
+            segment.deadBytes.addAndGet(HEADER_SIZE + segment.readInt(offsetOf(location)));
+    }
+
+    /* Snapshot */
+
+    // loads the index snapshot by memory mapping it
+    private boolean loadSnapshot(Path path) {
+        if (!Files.exists(path))
+            return false;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int length = buffer.limit() - 4;
+            if (length < 4)
+                return false;
+
+            // verify checksum
+            byte[] body = new byte[length];
+            buffer.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body, 0, body.length);
+            if ((int) crc.getValue() != buffer.getInt())
+                return false;
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+            if (in.readInt() != SNAPSHOT_MAGIC)
+                return false;
+
+            // verify the segments are unchanged
+            int segmentCount = in.readInt();
+            if (segmentCount != segments.size())
+                return false;
+            for (int i = 0; i < segmentCount; i++) {
+                Segment segment = segments.get(in.readInt());
+                long size = in.readLong();
+                long dead = in.readLong();
+                if (segment == null || segment.size != size)
+                    return false;
+                segment.deadBytes.set(dead);
+            }
+
+            int collectionCount = in.readInt();
+            for (int i = 0; i < collectionCount; i++) {
+                String collection = ValueCodec.readString(in);
+                int keyCount = in.readInt();
+                ConcurrentHashMap<Object, Long> keys = new ConcurrentHashMap<>(Math.max(16, keyCount * 2));
+                for (int j = 0; j < keyCount; j++) {
+                    Object key = ValueCodec.read(in);
+                    keys.put(key, in.readLong());
+                }
+
+                index.put(collection, keys);
+            }
+
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to load index snapshot " + path + ", recovering from segments", e);
+            return false;
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        ValueCodec.Output output = ValueCodec.output();
+        DataOutputStream out = output.data;
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(segments.size());
+        for (Segment segment : segments.values()) {
+            out.writeInt(segment.id);
+            out.writeLong(segment.size);
+            out.writeLong(segment.deadBytes.get());
+        }
+
+        out.writeInt(index.size());
+        for (Map.Entry<String, ConcurrentHashMap<Object, Long>> entry : index.entrySet()) {
+            ValueCodec.writeString(out, entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (Map.Entry<Object, Long> key : entry.getValue().entrySet()) {
+                ValueCodec.write(out, key.getKey());
+                out.writeLong(key.getValue());
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(output.buffer(), 0, output.size());
+        out.writeInt((int) crc.getValue());
+
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(output.buffer(), 0, output.size());
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        }
+
+        Files.move(temp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /* Reading */
+
+    /**
+     * Get the latest document stored for the given key.
+     *
+     * @param collection The collection.
+     * @param key The key.
+     * @return The document or null if absent.
+     */
+    Map<String, Object> get(String collection, Object key) throws IOException {
+        ConcurrentHashMap<Object, Long> keys = index.get(collection);
+        if (keys == null)
+            return null;
+
+        segmentsLock.readLock().lock();
+        try {
+            Long location = keys.get(key);
+            if (location == null)
+                return null;
+            Segment segment = segments.get(segmentOf(location));
+            Record record = readRecord(segment, offsetOf(location), segment.size);
+            if (record == null)
+                throw new IOException("corrupt record for key " + key + " in " + segment.path);
+            return record.document;
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the keys stored in the given collection.
+     *
+     * @param collection The collection.
+     * @return The keys.
+     */
+    Set<Object> keys(String collection) {
+        ConcurrentHashMap<Object, Long> keys = index.get(collection);
+        return keys == null ? Collections.emptySet() : Collections.unmodifiableSet(keys.keySet());
+    }
+
+    Set<String> collections() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    /* Writing */
+
+    /**
+     * Atomically update the document for the given key, the
+     * function receives a copy of the current document or null
+     * and returns the new document or null to delete it.
+     *
+     * @param collection The collection.
+     * @param key The key.
+     * @param function The update function.
+     */
+    void update(String collection, Object key, Function<Map<String, Object>, Map<String, Object>> function) throws IOException {
+        long sequence;
+        synchronized (keyLocks[(Objects.hashCode(key) ^ collection.hashCode()) & (keyLocks.length - 1)]) {
+            Map<String, Object> document = function.apply(get(collection, key));
+            sequence = document != null ? append(OP_PUT, collection, key, document) :
+                    append(OP_DELETE, collection, key, null);
+        }
+
+        awaitSync(sequence);
+    }
+
+    // appends a record, updating the index, and returns the write sequence
+    private long append(byte op, String collection, Object key, Map<String, Object> document) throws IOException {
+        if (closed)
+            throw new IllegalStateException("segment log is closed");
+
+        // encode the record
+        ValueCodec.Output output = ValueCodec.output();
+        DataOutputStream out = output.data;
+        out.writeInt(0); // length
+        out.writeInt(0); // checksum
+        out.writeByte(op);
+        ValueCodec.writeString(out, collection);
+        ValueCodec.write(out, key);
+        if (op == OP_PUT)
+            ValueCodec.write(out, document);
+
+        byte[] bytes = output.buffer();
+        int size = output.size();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER_SIZE, size - HEADER_SIZE);
+        ByteBuffer record = ByteBuffer.wrap(bytes, 0, size);
+        record.putInt(0, size - HEADER_SIZE);
+        record.putInt(4, (int) crc.getValue());
+
+        synchronized (writeLock) {
+            long location = write(record, size);
+            applyToIndex(new Record(op, collection, key, null, size), location);
+            return ++writeSequence;
+        }
+    }
+
+    // writes the given encoded record to the active segment, guarded by the write lock
+    private long write(ByteBuffer record, int size) throws IOException {
+        Segment segment = active;
+        if (segment.size > 0 && segment.size + size > maxSegmentSize)
+            segment = roll();
+
+        long offset = segment.size;
+        while (record.hasRemaining())
+            segment.channel.write(record, offset + record.position());
+        segment.size = offset + size;
+        return location(segment.id, offset);
+    }
+
+    // seals the active segment and starts a new one, guarded by the write lock
+    private Segment roll() throws IOException {
+        Segment old = active;
+        old.seal();
+        Segment segment = createSegment(old.id + 1);
+        active = segment;
+        try {
+            background.execute(this::compactSafely);
+        } catch (RejectedExecutionException ignored) {
+            // closing
+        }
+
+        return segment;
+    }
+
+    /* Syncing */
+
+    // blocks until the given write sequence has been synced
+    private void awaitSync(long sequence) throws IOException {
+        if (!durable || syncedSequence >= sequence)
+            return;
+
+        synchronized (syncMonitor) {
+            if (syncRequested < sequence)
+                syncRequested = sequence;
+            syncMonitor.notifyAll();
+
+            boolean interrupted = false;
+            while (syncedSequence < sequence && !closed) {
+                if (syncFailure != null)
+                    throw syncFailure;
+                try {
+                    syncMonitor.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    // syncs all writes requested by writers in one
+    // fsync, so concurrent writers share the cost
+    private void runGroupCommit() {
+        while (!closed) {
+            synchronized (syncMonitor) {
+                while (syncRequested <= syncedSequence && !closed) {
+                    try {
+                        syncMonitor.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+
+            try {
+                sync();
+                syncFailure = null;
+            } catch (IOException e) {
+                syncFailure = e;
+            }
+
+            synchronized (syncMonitor) {
+                syncMonitor.notifyAll();
+            }
+        }
+    }
+
+    // forces all writes up to now to disk
+    void sync() throws IOException {
+        long sequence;
+        Segment segment;
+        synchronized (writeLock) {
+            sequence = writeSequence;
+            segment = active;
+        }
+
+        // earlier segments were forced when sealed, concurrent
+        // syncs may finish out of order so only advance
+        segment.channel.force(false);
+        synchronized (syncMonitor) {
+            if (syncedSequence < sequence)
+                syncedSequence = sequence;
+            syncMonitor.notifyAll();
+        }
+    }
+
+    private void syncSafely() {
+        try {
+            sync();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to sync segment log " + directory, e);
+        }
+    }
+
+    /* Compaction */
+
+    private void compactSafely() {
+        try {
+            compact();
+        } catch (Throwable t) {
+            LOGGER.log(Level.SEVERE, "Failed to compact segment log " + directory, t);
+        }
+    }
+
+    /**
+     * Compact all sealed segments in which the ratio of dead
+     * bytes exceeds the compaction threshold.
+     */
+    void compact() throws IOException {
+        synchronized (compactionLock) {
+            for (Segment segment : new ArrayList<>(segments.values())) {
+                if (closed || background.isShutdown())
+                    return;
+                if (segment == active || segment.size == 0)
+                    continue;
+                if ((double) segment.deadBytes.get() / segment.size < compactionThreshold)
+                    continue;
+                compact(segment);
+            }
+        }
+    }
+
+    // re-appends the live records of the given sealed segment and deletes it
+    private void compact(Segment segment) throws IOException {
+        boolean oldest = segments.firstKey() == segment.id;
+        long offset = 0;
+        while (offset < segment.size) {
+            Record record = readRecord(segment, offset, segment.size);
+            if (record == null)
+                break;
+            long location = location(segment.id, offset);
+            offset += record.size;
+
+            synchronized (writeLock) {
+                ConcurrentHashMap<Object, Long> keys = index.get(record.collection);
+                if (record.op == OP_PUT) {
+                    // relocate if still the latest record
+                    Long current = keys != null ? keys.get(record.key) : null;
+                    if (current == null || current != location)
+                        continue;
+                    ByteBuffer bytes = ByteBuffer.wrap(segment.read(offsetOf(location), record.size));
+                    keys.put(record.key, write(bytes, record.size));
+                } else if (!oldest && (keys == null || !keys.containsKey(record.key))) {
+                    // older segments may still contain records
+                    // for this key, so keep the tombstone
+                    ByteBuffer bytes = ByteBuffer.wrap(segment.read(offsetOf(location), record.size));
+                    long relocated = write(bytes, record.size);
+                    segments.get(segmentOf(relocated)).deadBytes.addAndGet(record.size);
+                }
+            }
+        }
+
+        // make sure the relocated records are durable
+        // before the segment is deleted
+        sync();
+
+        segmentsLock.writeLock().lock();
+        try {
+            segments.remove(segment.id);
+        } finally {
+            segmentsLock.writeLock().unlock();
+        }
+
+        segment.close();
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            // mapped files may not be deletable on some platforms
+            segment.path.toFile().deleteOnExit();
+        }
+    }
+
+    /* Closing */
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+            background.shutdown();
+            try {
+                background.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            synchronized (writeLock) {
+                sync();
+                closed = true;
+                writeSnapshot();
+            }
+        }
+
+        synchronized (syncMonitor) {
+            syncMonitor.notifyAll();
+        }
+
+        for (Segment segment : segments.values())
+            segment.close();
+    }
+
+}
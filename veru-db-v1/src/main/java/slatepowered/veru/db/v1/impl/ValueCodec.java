@@ -0,0 +1,185 @@
+package slatepowered.veru.db.v1.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact binary encoding of document values, used by the
+ * file database to store documents without depending on BSON.
+ *
+ * Supports null, booleans, numbers, characters, strings, byte
+ * arrays, UUIDs, dates, lists and string keyed maps.
+ */
+final class ValueCodec {
+
+    static final byte NULL = 0;
+    static final byte FALSE = 1;
+    static final byte TRUE = 2;
+    static final byte BYTE = 3;
+    static final byte SHORT = 4;
+    static final byte INT = 5;
+    static final byte LONG = 6;
+    static final byte FLOAT = 7;
+    static final byte DOUBLE = 8;
+    static final byte CHAR = 9;
+    static final byte STRING = 10;
+    static final byte BYTES = 11;
+    static final byte UUID = 12;
+    static final byte DATE = 13;
+    static final byte LIST = 14;
+    static final byte MAP = 15;
+
+    // static utility class
+    // no instantiating
+    private ValueCodec() { }
+
+    /**
+     * Create a new output buffer to encode into.
+     *
+     * @return The buffer.
+     */
+    static Output output() {
+        return new Output();
+    }
+
+    @SuppressWarnings("rawtypes")
+    static void write(DataOutputStream out, Object val) throws IOException {
+        if (val == null) {
+            out.writeByte(NULL);
+        } else if (val instanceof Boolean) {
+            out.writeByte((Boolean) val ? TRUE : FALSE);
+        } else if (val instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) val);
+        } else if (val instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) val);
+        } else if (val instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) val);
+        } else if (val instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) val);
+        } else if (val instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) val;
+            out.writeByte(MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!(entry.getKey() instanceof String))
+                    throw new IllegalArgumentException("map keys must be strings, got " + entry.getKey());
+                writeString(out, (String) entry.getKey());
+                write(out, entry.getValue());
+            }
+        } else if (val instanceof List) {
+            List list = (List) val;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (Object element : list)
+                write(out, element);
+        } else if (val instanceof java.util.UUID) {
+            java.util.UUID uuid = (java.util.UUID) val;
+            out.writeByte(UUID);
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        } else if (val instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) val);
+        } else if (val instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) val);
+        } else if (val instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) val);
+        } else if (val instanceof Character) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) val);
+        } else if (val instanceof byte[]) {
+            byte[] bytes = (byte[]) val;
+            out.writeByte(BYTES);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (val instanceof Date) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) val).getTime());
+        } else {
+            throw new IllegalArgumentException("unsupported value type " + val.getClass().getName());
+        }
+    }
+
+    static Object read(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL: return null;
+            case FALSE: return false;
+            case TRUE: return true;
+            case BYTE: return in.readByte();
+            case SHORT: return in.readShort();
+            case INT: return in.readInt();
+            case LONG: return in.readLong();
+            case FLOAT: return in.readFloat();
+            case DOUBLE: return in.readDouble();
+            case CHAR: return in.readChar();
+            case STRING: return readString(in);
+            case BYTES: {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return bytes;
+            }
+            case UUID: return new java.util.UUID(in.readLong(), in.readLong());
+            case DATE: return new Date(in.readLong());
+            case LIST: {
+                int size = in.readInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++)
+                    list.add(read(in));
+                return list;
+            }
+            case MAP: return readMap(in, in.readInt());
+            default: throw new IOException("unknown value type " + type);
+        }
+    }
+
+    /**
+     * Read a map with the given amount of entries.
+     */
+    static Map<String, Object> readMap(DataInput in, int size) throws IOException {
+        Map<String, Object> map = new LinkedHashMap<>(Math.max(16, size * 2));
+        for (int i = 0; i < size; i++)
+            map.put(readString(in), read(in));
+        return map;
+    }
+
+    static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Byte array output which exposes its buffer.
+     */
+    static final class Output extends ByteArrayOutputStream {
+
+        final DataOutputStream data = new DataOutputStream(this);
+
+        Output() {
+            super(256);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+    }
+
+}
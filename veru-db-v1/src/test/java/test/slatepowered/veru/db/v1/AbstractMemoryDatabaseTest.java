@@ -0,0 +1,45 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import slatepowered.veru.db.v1.DatabaseManager;
+import slatepowered.veru.db.v1.QueryPool;
+import slatepowered.veru.db.v1.impl.MemoryDatabase;
+import slatepowered.veru.db.v1.impl.MemoryDatabaseItem;
+import slatepowered.veru.db.v1.impl.MemoryDatabaseType;
+
+/**
+ * Sets up a logged in in-memory database with a query pool
+ * holding the {@code getCoins} query for every test.
+ */
+abstract class AbstractMemoryDatabaseTest {
+
+    DatabaseManager manager;
+    MemoryDatabase database;
+    QueryPool pool;
+
+    @BeforeEach
+    void setUp() {
+        manager = new DatabaseManager();
+        database = new MemoryDatabase(manager, "test");
+        manager.addDatabase(database);
+        database.login(null);
+
+        pool = database.queryPool();
+        pool.putQuery("getCoins", MemoryDatabaseType.INSTANCE, (query, db, vals) ->
+                db.item("players", vals.get("key")).pull().get("coins", Integer.class, 0));
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.close();
+    }
+
+    // stores the coins of the given player
+    void setCoins(Object key, int coins) {
+        MemoryDatabaseItem item = database.item("players", key);
+        item.set("coins", coins);
+        item.push();
+    }
+
+}
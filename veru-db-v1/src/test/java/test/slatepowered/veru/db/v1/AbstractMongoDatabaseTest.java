@@ -0,0 +1,49 @@
+package test.slatepowered.veru.db.v1;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoException;
+import org.bson.BsonDocument;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import slatepowered.veru.db.v1.DatabaseManager;
+import slatepowered.veru.db.v1.Login;
+import slatepowered.veru.db.v1.impl.MongoDatabase;
+import slatepowered.veru.db.v1.impl.MongoDatabaseItem;
+
+/**
+ * Sets up a logged in Mongo database for every test without a server.
+ *
+ * Clients connect lazily, so everything not reaching the server works,
+ * while reads and writes fail quickly once server selection times out.
+ */
+abstract class AbstractMongoDatabaseTest {
+
+    MongoDatabase database;
+
+    @BeforeEach
+    void setUp() {
+        database = new MongoDatabase(new DatabaseManager(), "test");
+        database.login(Login.ofURI("mongodb://localhost:27999/?serverSelectionTimeoutMS=200", "test"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        try {
+            database.close();
+        } catch (MongoException ignored) {
+            // pending writes fail to flush
+        }
+    }
+
+    // creates an item in the players collection
+    MongoDatabaseItem item(Object key) {
+        return new MongoDatabaseItem(database, "_id", database.getDatabaseClient().getCollection("players"), key);
+    }
+
+    // encodes the given filter or update for comparison
+    static BsonDocument encode(Bson bson) {
+        return bson.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+
+}
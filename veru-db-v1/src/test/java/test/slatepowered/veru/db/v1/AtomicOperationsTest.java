@@ -0,0 +1,60 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.ItemConflictException;
+import slatepowered.veru.db.v1.impl.MemoryDatabaseItem;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class AtomicOperationsTest extends AbstractMemoryDatabaseTest {
+
+    @Test
+    void testOperationsWithoutPull() {
+        MemoryDatabaseItem a = database.item("players", "a");
+        MemoryDatabaseItem b = database.item("players", "a");
+        a.increment("coins", 5);
+        a.addToSet("tags", "x");
+        a.push();
+        b.increment("coins", 2);
+        b.addToSet("tags", "x");
+        b.append("tags", "y");
+        b.push();
+
+        // b pushed without pulling but sees the result of both
+        Assertions.assertEquals(7, b.get("coins", Integer.class));
+        Assertions.assertEquals(Arrays.asList("x", "y"), b.get("tags", List.class));
+    }
+
+    @Test
+    void testMaxAndPop() {
+        MemoryDatabaseItem item = database.item("players", "a");
+        item.max("best", 10);
+        item.append("tags", "x");
+        item.append("tags", "y");
+        item.push();
+
+        MemoryDatabaseItem pulled = database.item("players", "a").pull();
+        pulled.max("best", 3);
+        pulled.pop("tags", true);
+        pulled.push();
+        Assertions.assertEquals(10, database.item("players", "a").pull().get("best", Integer.class));
+        Assertions.assertEquals(Arrays.asList("y"), database.item("players", "a").pull().get("tags", List.class));
+    }
+
+    @Test
+    void testCompareAndSet() {
+        setCoins("a", 7);
+        MemoryDatabaseItem first = database.item("players", "a").pull();
+        MemoryDatabaseItem second = database.item("players", "a").pull();
+        first.compareAndSet("version", null, 1);
+        first.increment("coins", 1);
+        first.push();
+        second.compareAndSet("version", null, 1);
+        second.increment("coins", 1);
+        Assertions.assertThrows(ItemConflictException.class, second::push);
+        Assertions.assertEquals(8, database.item("players", "a").pull().get("coins", Integer.class));
+    }
+
+}
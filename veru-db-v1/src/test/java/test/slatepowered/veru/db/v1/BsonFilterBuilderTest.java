@@ -0,0 +1,55 @@
+package test.slatepowered.veru.db.v1;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonDocument;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.data.Values;
+import slatepowered.veru.db.v1.impl.BsonFilterBuilder;
+import slatepowered.veru.db.v1.impl.BsonFilterTemplate;
+
+import java.util.Arrays;
+
+import static slatepowered.veru.db.v1.impl.BsonFilterBuilder.param;
+
+public class BsonFilterBuilderTest {
+
+    static BsonDocument encode(Bson filter) {
+        return filter.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+
+    @Test
+    void testFlatAnd() {
+        Bson filter = new BsonFilterBuilder()
+                .eq("a", 1)
+                .gt("b", 2)
+                .exists("c")
+                .regex("d", "^x")
+                .build();
+        Assertions.assertEquals(BsonDocument.parse("{a: 1, b: {$gt: 2}, c: {$exists: true}, d: {$regex: '^x', $options: ''}}"),
+                encode(filter));
+
+        // operators on the same field are merged
+        Assertions.assertEquals(BsonDocument.parse("{a: {$gte: 1, $lt: 5}, b: 2}"),
+                encode(new BsonFilterBuilder().range("a", 1, 5).eq("b", 2).build()));
+        Assertions.assertEquals(BsonDocument.parse("{a: 1}"), encode(new BsonFilterBuilder().eq("a", 1).build()));
+    }
+
+    @Test
+    void testTemplate() {
+        BsonFilterTemplate template = new BsonFilterBuilder()
+                .eq("type", "player")
+                .range("level", param("min"), param("max"))
+                .in("name", param("names"))
+                .template();
+        Assertions.assertEquals(Arrays.asList("min", "max", "names"), template.getParameterNames());
+        Assertions.assertThrows(IllegalStateException.class, () -> new BsonFilterBuilder().eq("a", param("a")).build());
+
+        BsonDocument expected = BsonDocument.parse("{$and: [{type: 'player'}, {level: {$gte: 1}}, {level: {$lt: 5}}, {name: {$in: ['a', 'b']}}]}");
+        Assertions.assertEquals(expected, encode(template.bind(1, 5, Arrays.asList("a", "b"))));
+        Assertions.assertEquals(expected, encode(template.bind(Values.ofVarargs("min", 1, "max", 5, "names", new String[] { "a", "b" }))));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> template.bind(1));
+    }
+
+}
@@ -0,0 +1,76 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.data.Values;
+import slatepowered.veru.db.v1.ConcurrencyLimiter;
+import slatepowered.veru.db.v1.QueryRejectedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+public class ConcurrencyLimiterTest extends AbstractMemoryDatabaseTest {
+
+    ConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUpLimiter() {
+        database.latency(50, 0, TimeUnit.MILLISECONDS);
+        limiter = new ConcurrencyLimiter().limits(2, 2);
+        database.concurrencyLimiter(limiter);
+    }
+
+    List<CompletableFuture<Integer>> submit(int count) {
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            futures.add(pool.queryAsync("getCoins", "key", "a"));
+        return futures;
+    }
+
+    @Test
+    void testReject() {
+        List<CompletableFuture<Integer>> futures = submit(5);
+        Assertions.assertEquals(2, limiter.getInflight());
+
+        int rejected = 0;
+        for (CompletableFuture<Integer> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                Assertions.assertTrue(e.getCause() instanceof QueryRejectedException);
+                rejected++;
+            }
+        }
+
+        Assertions.assertEquals(3, rejected);
+        Assertions.assertEquals(3, limiter.getRejected());
+    }
+
+    @Test
+    void testQueue() {
+        limiter.policy(ConcurrencyLimiter.Policy.QUEUE);
+        for (CompletableFuture<Integer> future : submit(5))
+            Assertions.assertEquals(0, (int) future.join());
+        Assertions.assertEquals(0, limiter.getInflight());
+        Assertions.assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    void testCallersGivingUpKeepLimit() {
+        for (CompletableFuture<Integer> future : submit(2))
+            future.cancel(false);
+        CompletableFuture<Integer> timed = pool.queryAsync("getCoins", Values.ofVarargs("key", "a"), 1, TimeUnit.MILLISECONDS);
+        Assertions.assertThrows(CompletionException.class, timed::join);
+
+        // the slots are free again without shrinking the limit
+        for (CompletableFuture<Integer> future : submit(2))
+            Assertions.assertEquals(0, (int) future.join());
+        Assertions.assertEquals(0, limiter.getDecreases());
+        Assertions.assertEquals(2, limiter.getLimit());
+    }
+
+}
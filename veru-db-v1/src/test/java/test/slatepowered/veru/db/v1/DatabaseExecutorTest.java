@@ -0,0 +1,78 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.data.Values;
+import slatepowered.veru.db.v1.DatabaseExecutor;
+import slatepowered.veru.db.v1.DatabaseManager;
+import slatepowered.veru.db.v1.DatabaseQuery;
+import slatepowered.veru.db.v1.QueryCursor;
+import slatepowered.veru.db.v1.QueryPool;
+import slatepowered.veru.db.v1.StreamQuery;
+import slatepowered.veru.db.v1.impl.MemoryDatabase;
+import slatepowered.veru.db.v1.impl.MemoryDatabaseType;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class DatabaseExecutorTest {
+
+    @Test
+    void testSaturatedRunsOnCaller() throws InterruptedException {
+        DatabaseExecutor executor = DatabaseExecutor.bounded(1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assertions.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // the worker is busy and the queue is full
+        executor.execute(() -> { });
+        Thread caller = Thread.currentThread();
+        Thread[] ranOn = new Thread[1];
+        executor.execute(() -> ranOn[0] = Thread.currentThread());
+        Assertions.assertSame(caller, ranOn[0]);
+        Assertions.assertEquals(1, executor.callerRunsCount());
+
+        release.countDown();
+        executor.shutdown();
+        Assertions.assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+    }
+
+    @Test
+    void testManagerOwnsDefaultExecutor() {
+        DatabaseManager manager = new DatabaseManager();
+        DatabaseExecutor created = manager.executor();
+        DatabaseExecutor custom = DatabaseExecutor.bounded(1, 1);
+
+        // the created executor is shut down when replaced
+        manager.executor(custom);
+        Assertions.assertThrows(RejectedExecutionException.class, () -> created.execute(() -> { }));
+
+        // executors set by the caller are left running
+        manager.close();
+        custom.execute(() -> { });
+        custom.shutdown();
+    }
+
+    @Test
+    void testQueryWithoutDatabase() {
+        // pools without a current database run async work on the shared executor
+        QueryPool pool = new DatabaseManager().queryPool();
+        pool.putQuery("answer", MemoryDatabaseType.INSTANCE, (query, db, vals) -> 42);
+        pool.<Integer, MemoryDatabase>putStreamQuery("all", MemoryDatabaseType.INSTANCE, (query, db, vals) -> null);
+
+        DatabaseQuery<Integer, MemoryDatabase> query = pool.getQuery("answer", MemoryDatabaseType.INSTANCE);
+        Assertions.assertEquals(42, (int) query.doAsync(null, new Values()).join());
+        StreamQuery<Integer, MemoryDatabase> stream = (StreamQuery<Integer, MemoryDatabase>) pool.<QueryCursor<Integer>, MemoryDatabase>getQuery("all", MemoryDatabaseType.INSTANCE);
+        Assertions.assertNotNull(stream.publish(null, new Values()));
+    }
+
+}
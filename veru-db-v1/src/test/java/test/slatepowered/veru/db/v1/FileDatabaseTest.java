@@ -0,0 +1,79 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import slatepowered.veru.db.v1.DatabaseManager;
+import slatepowered.veru.db.v1.Login;
+import slatepowered.veru.db.v1.impl.FileDatabase;
+import slatepowered.veru.db.v1.impl.FileDatabaseItem;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+public class FileDatabaseTest {
+
+    static FileDatabase open(Path dir) {
+        DatabaseManager manager = new DatabaseManager();
+        FileDatabase database = new FileDatabase(manager, "test")
+                .maxSegmentSize(4096);
+        manager.addDatabase(database);
+        database.login(Login.ofPath(dir));
+        return database;
+    }
+
+    @Test
+    void testPushPullReopen(@TempDir Path dir) {
+        FileDatabase database = open(dir);
+        for (int i = 0; i < 200; i++) {
+            FileDatabaseItem item = database.item("players", "p" + (i % 20));
+            item.set("coins", i);
+            item.set("stats.kills", i * 2);
+            item.push();
+        }
+
+        database.item("players", "p0").delete();
+        database.compact();
+        Assertions.assertEquals(199, database.item("players", "p19").pull().get("coins", Integer.class));
+        database.close();
+
+        FileDatabase reopened = open(dir);
+        Assertions.assertFalse(reopened.item("players", "p0").pull().available());
+        FileDatabaseItem item = reopened.item("players", "p19").pull();
+        Assertions.assertEquals(199, item.get("coins", Integer.class));
+        Assertions.assertEquals(398, item.get("stats.kills", Integer.class));
+        Assertions.assertEquals(19, reopened.keys("players").size());
+        reopened.close();
+    }
+
+    @Test
+    void testRecoverTornTail(@TempDir Path dir) throws IOException {
+        FileDatabase database = open(dir);
+        FileDatabaseItem item = database.item("players", "a");
+        item.set("coins", 5);
+        item.push();
+        item.set("coins", 6);
+        item.push();
+        database.close();
+
+        // simulate a crash during the last write
+        Files.delete(dir.resolve("index.snapshot"));
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.filter(p -> p.toString().endsWith(".seg")).sorted().reduce((a, b) -> b).get();
+        }
+
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        FileDatabase reopened = open(dir);
+        Assertions.assertEquals(5, reopened.item("players", "a").pull().get("coins", Integer.class));
+        reopened.close();
+    }
+
+}
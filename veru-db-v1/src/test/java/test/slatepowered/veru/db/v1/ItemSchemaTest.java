@@ -0,0 +1,32 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.ItemSchema;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ItemSchemaTest {
+
+    @Test
+    void testIncludes() {
+        ItemSchema schema = ItemSchema.of("coins", "stats.kills", "inventory");
+        Assertions.assertTrue(schema.includes("coins"));
+        Assertions.assertTrue(schema.includes("stats.kills"));
+        Assertions.assertTrue(schema.includes("inventory.slots.0"));
+
+        // a declared child does not cover its parent or siblings
+        Assertions.assertFalse(schema.includes("stats"));
+        Assertions.assertFalse(schema.includes("stats.deaths"));
+        Assertions.assertFalse(schema.includes("coinsSpent"));
+    }
+
+    @Test
+    void testOf() {
+        Assertions.assertEquals(ItemSchema.of("a", "b"), ItemSchema.of(Arrays.asList("b", "a", "b")));
+        Assertions.assertEquals(2, ItemSchema.of("a", "b", "a").getFields().size());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ItemSchema.of(Collections.emptyList()));
+    }
+
+}
@@ -0,0 +1,107 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.DatabaseManager;
+import slatepowered.veru.db.v1.ItemConflictException;
+import slatepowered.veru.db.v1.Login;
+import slatepowered.veru.db.v1.impl.JdbcDatabase;
+import slatepowered.veru.db.v1.impl.JdbcDatabaseItem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class JdbcDatabaseTest {
+
+    @Test
+    void testPushPull() {
+        DatabaseManager manager = new DatabaseManager();
+        JdbcDatabase database = new JdbcDatabase(manager, "test")
+                .maxPoolSize(2);
+        manager.addDatabase(database);
+        database.login(Login.ofJdbc("jdbc:h2:mem:veru_test;DB_CLOSE_DELAY=-1", "sa", ""));
+        database.withConnection(c -> c.createStatement().execute(
+                "CREATE TABLE players (id VARCHAR(36) PRIMARY KEY, coins INT, name VARCHAR(64))"));
+
+        JdbcDatabaseItem item = database.item("players", "id", "a");
+        item.set("coins", 5);
+        item.set("name", "alice");
+        item.push();
+
+        JdbcDatabaseItem pulled = database.item("players", "id", "a").pull();
+        Assertions.assertTrue(pulled.available());
+        Assertions.assertEquals(5, pulled.get("coins", Integer.class));
+        Assertions.assertEquals(5L, pulled.get("COINS", Long.class));
+
+        // column names differing in case are one change
+        pulled.set("Coins", 6);
+        pulled.set("coins", 5);
+        pulled.push();
+
+        pulled.unset("name");
+        pulled.push();
+        Assertions.assertNull(database.item("players", "id", "a").pull().get("name", String.class));
+        Assertions.assertEquals(5, database.item("players", "id", "a").pull().get("coins", Integer.class));
+
+        // batched push
+        List<JdbcDatabaseItem> items = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            JdbcDatabaseItem batchItem = database.item("players", "id", "p" + i);
+            batchItem.set("coins", i);
+            items.add(batchItem);
+        }
+
+        database.pushAll(items);
+        Assertions.assertEquals(42, database.item("players", "id", "p42").pull().get("coins", Integer.class));
+        Assertions.assertFalse(database.item("players", "id", "missing").pull().available());
+        Assertions.assertTrue(database.getStatementCacheHits() > 0);
+        Assertions.assertTrue(database.getOpenConnections() <= 2);
+
+        database.item("players", "id", "a").delete();
+        Assertions.assertFalse(database.item("players", "id", "a").pull().available());
+        database.close();
+    }
+
+    @Test
+    void testAtomicOperations() {
+        DatabaseManager manager = new DatabaseManager();
+        JdbcDatabase database = new JdbcDatabase(manager, "test");
+        manager.addDatabase(database);
+        database.login(Login.ofJdbc("jdbc:h2:mem:veru_atomic;DB_CLOSE_DELAY=-1", "sa", ""));
+        database.withConnection(c -> c.createStatement().execute(
+                "CREATE TABLE players (id VARCHAR(36) PRIMARY KEY, coins INT, best INT, version INT)"));
+
+        // increments are applied to the stored value, not the local copy
+        JdbcDatabaseItem item = database.item("players", "id", "a");
+        item.increment("coins", 5);
+        item.push();
+        Assertions.assertEquals(5, item.get("coins", Integer.class));
+        database.item("players", "id", "a").increment("coins", 5).push();
+        Assertions.assertEquals(10, database.item("players", "id", "a").pull().get("coins", Integer.class));
+
+        JdbcDatabaseItem best = database.item("players", "id", "a");
+        best.max("best", 7);
+        best.increment("coins", 1);
+        best.push();
+        database.item("players", "id", "a").max("best", 3).push();
+        JdbcDatabaseItem pulled = database.item("players", "id", "a").pull();
+        Assertions.assertEquals(7, pulled.get("best", Integer.class));
+        Assertions.assertEquals(11, pulled.get("coins", Integer.class));
+
+        // compare and set checks the stored value
+        database.item("players", "id", "a").compareAndSet("version", null, 1).push();
+        JdbcDatabaseItem stale = database.item("players", "id", "a");
+        stale.compareAndSet("version", null, 2);
+        Assertions.assertThrows(ItemConflictException.class, stale::push);
+        database.item("players", "id", "a").compareAndSet("version", 1, 2).push();
+        Assertions.assertEquals(2, database.item("players", "id", "a").pull().get("version", Integer.class));
+        Assertions.assertThrows(ItemConflictException.class, () ->
+                database.item("players", "id", "missing").compareAndSet("version", 1, 2).push());
+
+        // list operations can not be applied to columns
+        Assertions.assertThrows(IllegalArgumentException.class, () ->
+                database.item("players", "id", "a").addToSet("coins", 1));
+        database.close();
+    }
+
+}
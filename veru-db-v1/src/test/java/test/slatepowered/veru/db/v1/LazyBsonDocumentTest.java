@@ -0,0 +1,108 @@
+package test.slatepowered.veru.db.v1;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Decoder;
+import org.bson.codecs.DocumentCodec;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.impl.LazyBsonDocument;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+public class LazyBsonDocumentTest {
+
+    static final Decoder<Document> DECODER = MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+
+    static Document stored() {
+        return new Document("_id", "a")
+                .append("coins", 5)
+                .append("stats", new Document("kills", 3).append("deaths", 1))
+                .append("tags", Arrays.asList("x", "y"));
+    }
+
+    static LazyBsonDocument lazy(Document document) {
+        return new LazyBsonDocument(new RawBsonDocument(document, new DocumentCodec()), DECODER);
+    }
+
+    @Test
+    void testGetPutRemove() {
+        LazyBsonDocument document = lazy(stored());
+        Assertions.assertEquals(4, document.size());
+        Assertions.assertEquals(5, document.get("coins"));
+        Assertions.assertEquals(new Document("kills", 3).append("deaths", 1), document.get("stats"));
+        Assertions.assertNull(document.get("missing"));
+        Assertions.assertTrue(document.containsKey("tags"));
+
+        Assertions.assertEquals(5, document.put("coins", 6));
+        Assertions.assertNull(document.put("rank", "gold"));
+        Assertions.assertEquals(Arrays.asList("x", "y"), document.remove("tags"));
+        Assertions.assertEquals(4, document.size());
+        Assertions.assertFalse(document.containsKey("tags"));
+
+        // materializing keeps the stored order and appends new fields
+        Assertions.assertEquals(Arrays.asList("_id", "coins", "stats", "rank"), new ArrayList<>(document.keySet()));
+        Assertions.assertEquals(6, document.get("coins"));
+    }
+
+    @Test
+    void testEqualsAndCopy() {
+        LazyBsonDocument document = lazy(stored());
+        Assertions.assertEquals(lazy(stored()), document);
+        Assertions.assertNotEquals(lazy(stored().append("coins", 6)), document);
+        Assertions.assertEquals(stored().hashCode(), document.hashCode());
+
+        // like plain documents only documents of the same class are equal
+        Assertions.assertNotEquals(stored(), document);
+        Assertions.assertNotEquals(document, stored());
+        Assertions.assertEquals(stored(), new Document(document));
+
+        LazyBsonDocument source = lazy(stored());
+        source.put("coins", 7);
+        LazyBsonDocument copy = source.copy(value -> value);
+        Assertions.assertNotNull(copy);
+        copy.put("coins", 8);
+        Assertions.assertEquals(7, source.get("coins"));
+        Assertions.assertEquals(8, copy.get("coins"));
+        Assertions.assertEquals(stored().append("coins", 8), new Document(copy));
+
+        // nothing to share once decoded
+        Assertions.assertNull(document.copy(value -> value));
+    }
+
+    @Test
+    void testConcurrentGet() throws Exception {
+        Document stored = new Document();
+        for (int i = 0; i < 64; i++)
+            stored.append("f" + i, i);
+
+        for (int round = 0; round < 20; round++) {
+            LazyBsonDocument document = lazy(stored);
+            CountDownLatch start = new CountDownLatch(1);
+            List<CompletableFuture<Void>> readers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                readers.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+
+                    for (int i = 0; i < 64; i++)
+                        Assertions.assertEquals(i, document.get("f" + i));
+                }));
+            }
+
+            start.countDown();
+            for (CompletableFuture<Void> reader : readers)
+                reader.get();
+            Assertions.assertEquals(stored, new Document(document));
+        }
+    }
+
+}
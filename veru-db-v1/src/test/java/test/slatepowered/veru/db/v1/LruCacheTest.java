@@ -0,0 +1,43 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.LruCache;
+
+import java.util.concurrent.TimeUnit;
+
+public class LruCacheTest {
+
+    @Test
+    void testEviction() {
+        LruCache<String, Integer> cache = new LruCache<>(2, 0, TimeUnit.SECONDS);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        Assertions.assertEquals(1, cache.get("a"));
+
+        // b is the least recently used
+        cache.put("c", 3);
+        Assertions.assertNull(cache.get("b"));
+        Assertions.assertEquals(1, cache.get("a"));
+        Assertions.assertEquals(3, cache.get("c"));
+        Assertions.assertEquals(1, cache.getEvictions());
+        Assertions.assertEquals(3, cache.getHits());
+        Assertions.assertEquals(1, cache.getMisses());
+
+        cache.invalidateIf((key, value) -> value > 2);
+        Assertions.assertEquals(1, cache.size());
+        cache.invalidate("a");
+        Assertions.assertNull(cache.get("a"));
+    }
+
+    @Test
+    void testExpiry() throws InterruptedException {
+        LruCache<String, Integer> cache = new LruCache<>(10, 20, TimeUnit.MILLISECONDS);
+        cache.put("a", 1);
+        Thread.sleep(50);
+        Assertions.assertNull(cache.get("a"));
+        Assertions.assertEquals(1, cache.getExpirations());
+        Assertions.assertEquals(0, cache.size());
+    }
+
+}
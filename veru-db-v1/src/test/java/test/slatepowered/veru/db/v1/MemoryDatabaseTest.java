@@ -0,0 +1,38 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.impl.MemoryDatabaseItem;
+
+public class MemoryDatabaseTest extends AbstractMemoryDatabaseTest {
+
+    @Test
+    void testPushPull() {
+        MemoryDatabaseItem item = database.item("players", "a");
+        item.set("coins", 5);
+        item.set("stats.kills", 2);
+        item.push();
+
+        MemoryDatabaseItem pulled = database.item("players", "a").pull();
+        Assertions.assertTrue(pulled.available());
+        Assertions.assertEquals(5, pulled.get("coins", Integer.class));
+        Assertions.assertEquals(2, pulled.get("stats.kills", Integer.class));
+
+        pulled.unset("stats");
+        pulled.set("stats.deaths", 1);
+        pulled.push();
+
+        MemoryDatabaseItem again = database.item("players", "a").pull();
+        Assertions.assertNull(again.get("stats.kills", Integer.class));
+        Assertions.assertEquals(1, again.get("stats.deaths", Integer.class));
+        Assertions.assertFalse(database.item("players", "b").pull().available());
+    }
+
+    @Test
+    void testQueryPool() {
+        Assertions.assertEquals(0, (int) pool.querySync("getCoins", "key", "a"));
+        setCoins("a", 7);
+        Assertions.assertEquals(7, (int) pool.<Integer>queryAsync("getCoins", "key", "a").join());
+    }
+
+}
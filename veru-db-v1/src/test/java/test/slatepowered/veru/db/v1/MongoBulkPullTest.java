@@ -0,0 +1,147 @@
+package test.slatepowered.veru.db.v1;
+
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.impl.MongoDatabaseItem;
+import slatepowered.veru.db.v1.impl.MongoItemCache;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class MongoBulkPullTest extends AbstractMongoDatabaseTest {
+
+    /**
+     * A collection answering the {@code $in} queries of bulk pulls from
+     * the given documents, comparing numbers by value like the server.
+     */
+    static final class FakeCollection {
+
+        final List<Document> documents;
+
+        // the keys of every query
+        final List<List<BsonValue>> queries = new ArrayList<>();
+
+        FakeCollection(Document... documents) {
+            this.documents = Arrays.asList(documents);
+        }
+
+        @SuppressWarnings("unchecked")
+        MongoCollection<Document> proxy() {
+            return (MongoCollection<Document>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { MongoCollection.class }, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getNamespace": return new MongoNamespace("test", "scores");
+                            case "find": return find((Bson) args[0]);
+                            default: throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+
+        synchronized Object find(Bson filter) {
+            List<BsonValue> keys = encode(filter).getDocument("_id").getArray("$in").getValues();
+            queries.add(keys);
+            List<Document> found = new ArrayList<>();
+            for (Document document : documents) {
+                BsonValue id = encode(Filters.eq("_id", document.get("_id"))).get("_id");
+                for (BsonValue key : keys) {
+                    if (id.equals(key) || id.isNumber() && key.isNumber() &&
+                            id.asNumber().doubleValue() == key.asNumber().doubleValue()) {
+                        found.add(document);
+                        break;
+                    }
+                }
+            }
+
+            return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { FindIterable.class }, (proxy, method, args) -> {
+                if (!method.getName().equals("iterator"))
+                    throw new UnsupportedOperationException(method.getName());
+                Iterator<Document> iterator = found.iterator();
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MongoCursor.class }, (cursor, m, a) -> {
+                    switch (m.getName()) {
+                        case "hasNext": return iterator.hasNext();
+                        case "next": return iterator.next();
+                        case "close": return null;
+                        default: throw new UnsupportedOperationException(m.getName());
+                    }
+                });
+            });
+        }
+
+    }
+
+    static Document score(int id, int points) {
+        return new Document("_id", id).append("points", points);
+    }
+
+    @Test
+    void testCachedKeysInRequestOrder() {
+        // all keys are served from the cache so nothing is queried
+        MongoItemCache cache = database.enableItemCache("players", "_id", 100, 1, TimeUnit.MINUTES);
+        cache.put("a", new Document("_id", "a").append("coins", 1));
+        cache.put("b", new Document("_id", "b").append("coins", 2));
+
+        List<MongoDatabaseItem> items = database.pullAll("players", "_id", Arrays.asList("b", "a", "b"));
+        Assertions.assertEquals(3, items.size());
+        Assertions.assertEquals(2, items.get(0).get("coins", Integer.class));
+        Assertions.assertEquals(1, items.get(1).get("coins", Integer.class));
+
+        // duplicate keys get their own copy
+        Assertions.assertNotSame(items.get(0).document(), items.get(2).document());
+        items.get(0).set("coins", 5);
+        Assertions.assertEquals(2, items.get(2).get("coins", Integer.class));
+
+        List<MongoDatabaseItem> async = database.pullAllAsync("players", "_id", Arrays.asList("a", "b")).join();
+        Assertions.assertEquals(1, async.get(0).get("coins", Integer.class));
+        Assertions.assertEquals(2, database.getItemCache("players").get("b").get("coins"));
+    }
+
+    @Test
+    void testChunkedQueries() {
+        database.bulkPullBatchSize(2);
+        FakeCollection collection = new FakeCollection(score(1, 10), score(2, 20), score(3, 30), score(4, 40));
+
+        // distinct keys are queried in chunks of the batch size
+        List<MongoDatabaseItem> items = database.pullAll(collection.proxy(), "_id", Arrays.asList(4, 2, 9, 1, 3, 2));
+        Assertions.assertEquals(3, collection.queries.size());
+        Assertions.assertEquals(Arrays.asList(2, 2, 1), Arrays.asList(collection.queries.get(0).size(),
+                collection.queries.get(1).size(), collection.queries.get(2).size()));
+
+        Assertions.assertEquals(6, items.size());
+        Assertions.assertEquals(40, items.get(0).get("points", Integer.class));
+        Assertions.assertEquals(20, items.get(1).get("points", Integer.class));
+        Assertions.assertFalse(items.get(2).available());
+        Assertions.assertEquals(10, items.get(3).get("points", Integer.class));
+        Assertions.assertEquals(30, items.get(4).get("points", Integer.class));
+        Assertions.assertNotSame(items.get(1).document(), items.get(5).document());
+
+        List<MongoDatabaseItem> async = database.pullAllAsync(collection.proxy(), "_id", Arrays.asList(3, 9, 1)).join();
+        Assertions.assertEquals(30, async.get(0).get("points", Integer.class));
+        Assertions.assertFalse(async.get(1).available());
+        Assertions.assertEquals(10, async.get(2).get("points", Integer.class));
+    }
+
+    @Test
+    void testNumericKeysMatchByValue() {
+        // the stored int32 keys match long and double keys in the query
+        FakeCollection collection = new FakeCollection(score(1, 10), score(2, 20));
+        List<MongoDatabaseItem> items = database.pullAll(collection.proxy(), "_id", Arrays.asList(1L, 2.0, 1));
+        Assertions.assertEquals(1, collection.queries.size());
+        Assertions.assertEquals(2, collection.queries.get(0).size());
+        for (MongoDatabaseItem item : items)
+            Assertions.assertTrue(item.available());
+        Assertions.assertEquals(20, items.get(1).get("points", Integer.class));
+    }
+
+}
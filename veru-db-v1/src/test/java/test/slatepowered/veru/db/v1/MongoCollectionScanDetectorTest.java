@@ -0,0 +1,60 @@
+package test.slatepowered.veru.db.v1;
+
+import com.mongodb.client.model.IndexOptions;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.impl.MongoCollectionScanDetector;
+import slatepowered.veru.db.v1.impl.MongoIndex;
+
+import java.util.concurrent.TimeUnit;
+
+public class MongoCollectionScanDetectorTest {
+
+    @Test
+    void testFilterAndShape() {
+        BsonDocument find = BsonDocument.parse("{find: 'players', filter: {name: 'a', level: {$gt: 5}}}");
+        BsonDocument aggregate = BsonDocument.parse("{aggregate: 'players', pipeline: [{$match: {name: 'b'}}, {$limit: 1}]}");
+        BsonDocument update = BsonDocument.parse("{update: 'players', updates: [{q: {_id: 1}, u: {$set: {a: 1}}}]}");
+        Assertions.assertEquals(find.get("filter"), MongoCollectionScanDetector.filterOf("find", find));
+        Assertions.assertEquals(BsonDocument.parse("{name: 'b'}"), MongoCollectionScanDetector.filterOf("aggregate", aggregate));
+        Assertions.assertEquals(BsonDocument.parse("{_id: 1}"), MongoCollectionScanDetector.filterOf("update", update));
+        Assertions.assertNull(MongoCollectionScanDetector.filterOf("aggregate", BsonDocument.parse("{aggregate: 'players', pipeline: []}")));
+
+        // the shape does not depend on the values
+        String shape = MongoCollectionScanDetector.shapeOf(find.get("filter"));
+        Assertions.assertEquals("{name,level:{$gt}}", shape);
+        Assertions.assertEquals(shape, MongoCollectionScanDetector.shapeOf(BsonDocument.parse("{name: 'x', level: {$gt: 1}}")));
+        Assertions.assertEquals("{$or{a}{b:{$in}}}", MongoCollectionScanDetector.shapeOf(BsonDocument.parse("{$or: [{a: 1}, {b: {$in: [1, 2]}}]}")));
+        Assertions.assertEquals("{b:{$in}}", MongoCollectionScanDetector.shapeOf(BsonDocument.parse("{b: {$in: [{x: 1}, {x: 2}, {x: 3}]}}")));
+        Assertions.assertEquals("{}", MongoCollectionScanDetector.shapeOf(null));
+    }
+
+    @Test
+    void testHasCollectionScan() {
+        BsonDocument scan = BsonDocument.parse("{queryPlanner: {winningPlan: {stage: 'LIMIT', inputStage: {stage: 'COLLSCAN'}}, " +
+                "rejectedPlans: []}}");
+        BsonDocument index = BsonDocument.parse("{queryPlanner: {winningPlan: {stage: 'FETCH', inputStage: {stage: 'IXSCAN'}}, " +
+                "rejectedPlans: [{stage: 'COLLSCAN'}]}}");
+        Assertions.assertTrue(MongoCollectionScanDetector.hasCollectionScan(scan, false));
+        Assertions.assertFalse(MongoCollectionScanDetector.hasCollectionScan(index, false));
+    }
+
+    @Test
+    void testIndex() {
+        MongoIndex index = MongoIndex.on("players").ascending("name").descending("level").unique().name("by_name");
+        Assertions.assertEquals(new Document("name", 1).append("level", -1), index.toKeys());
+        IndexOptions options = index.toOptions();
+        Assertions.assertTrue(options.isUnique());
+        Assertions.assertFalse(options.isSparse());
+        Assertions.assertEquals("by_name", options.getName());
+        Assertions.assertNull(options.getExpireAfter(TimeUnit.SECONDS));
+
+        MongoIndex ttl = MongoIndex.on("sessions").ascending("createdAt").expireAfter(1, TimeUnit.HOURS);
+        Assertions.assertEquals(3600L, ttl.toOptions().getExpireAfter(TimeUnit.SECONDS));
+        Assertions.assertThrows(IllegalStateException.class, () -> ttl.ascending("other").toKeys());
+        Assertions.assertThrows(IllegalStateException.class, () -> MongoIndex.on("empty").toKeys());
+    }
+
+}
@@ -0,0 +1,108 @@
+package test.slatepowered.veru.db.v1;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoException;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.impl.LazyBsonDocument;
+import slatepowered.veru.db.v1.impl.MongoDatabaseItem;
+
+import java.util.concurrent.TimeUnit;
+
+public class MongoDatabaseItemTest extends AbstractMongoDatabaseTest {
+
+    @Test
+    void testDelta() {
+        MongoDatabaseItem item = item("a");
+        item.set("coins", 5);
+        item.set("stats.kills", 2);
+        item.unset("rank");
+        Assertions.assertEquals(BsonDocument.parse("{$set: {coins: 5, 'stats.kills': 2}, $unset: {rank: ''}}"),
+                encode(item.createUpdate()));
+
+        // setting a removed path sends the value instead
+        item.set("rank", "gold");
+        Assertions.assertEquals(BsonDocument.parse("{$set: {coins: 5, 'stats.kills': 2, rank: 'gold'}}"),
+                encode(item.createUpdate()));
+    }
+
+    @Test
+    void testCollapse() {
+        // changes to children are replaced by a change of the parent
+        MongoDatabaseItem item = item("a");
+        item.set("stats.kills", 2);
+        item.unset("stats.deaths");
+        item.set("stats", new Document("wins", 1));
+        Assertions.assertEquals(BsonDocument.parse("{$set: {stats: {wins: 1}}}"), encode(item.createUpdate()));
+
+        // changes to the children of a pending parent re-send the parent
+        item.set("stats.kills", 3);
+        Assertions.assertEquals(BsonDocument.parse("{$set: {stats: {wins: 1, kills: 3}}}"), encode(item.createUpdate()));
+
+        MongoDatabaseItem removed = item("a");
+        removed.unset("stats");
+        removed.set("stats.kills", 1);
+        Assertions.assertEquals(BsonDocument.parse("{$set: {stats: {kills: 1}}}"), encode(removed.createUpdate()));
+    }
+
+    @Test
+    void testOperations() {
+        MongoDatabaseItem item = item("a");
+        item.increment("coins", 5);
+        item.increment("coins", 2);
+        item.max("best", 10);
+        item.addToSet("tags", "x");
+        item.pop("queue", true);
+        Assertions.assertEquals(BsonDocument.parse("{$inc: {coins: 7}, $max: {best: 10}, " +
+                        "$addToSet: {tags: {$each: ['x']}}, $pop: {queue: -1}}"),
+                encode(item.createUpdate()));
+
+        // operations on a pending set update its value instead
+        MongoDatabaseItem set = item("a");
+        set.set("coins", 1);
+        set.increment("coins", 2);
+        Assertions.assertEquals(BsonDocument.parse("{$set: {coins: 3}}"), encode(set.createUpdate()));
+
+        MongoDatabaseItem nested = item("a");
+        nested.increment("stats.kills", 1);
+        Assertions.assertThrows(IllegalStateException.class, () -> nested.increment("stats", 1));
+    }
+
+    @Test
+    void testFailedPushKeepsChanges() {
+        // the unreachable server fails every write
+        MongoDatabaseItem item = item("a");
+        item.set("coins", 5);
+        item.unset("rank");
+        Assertions.assertThrows(MongoException.class, item::push);
+        Assertions.assertTrue(item.hasChanges());
+        Assertions.assertEquals(BsonDocument.parse("{$set: {coins: 5}, $unset: {rank: ''}}"), encode(item.createUpdate()));
+
+        MongoDatabaseItem atomic = item("a");
+        atomic.increment("coins", 2);
+        Assertions.assertThrows(MongoException.class, atomic::push);
+        Assertions.assertEquals(BsonDocument.parse("{$inc: {coins: 2}}"), encode(atomic.createUpdate()));
+
+        Assertions.assertThrows(MongoException.class, () -> item.push(true));
+        Assertions.assertEquals(BsonDocument.parse("{$set: {coins: 5}, $unset: {rank: ''}}"), encode(item.createUpdate()));
+    }
+
+    @Test
+    void testPlainDocument() {
+        // lazily decoded documents are handed out as plain documents
+        Document stored = new Document("_id", "a").append("coins", 5);
+        database.enableItemCache("players", "_id", 10, 1, TimeUnit.MINUTES).put("a", new LazyBsonDocument(
+                new RawBsonDocument(stored, new DocumentCodec()), MongoClientSettings.getDefaultCodecRegistry().get(Document.class)));
+
+        MongoDatabaseItem item = item("a").pull();
+        Assertions.assertEquals(5, item.get("coins", Integer.class));
+        Assertions.assertSame(Document.class, item.document().getClass());
+        Assertions.assertEquals(stored, item.document());
+        Assertions.assertEquals(item.document(), stored);
+    }
+
+}
@@ -0,0 +1,36 @@
+package test.slatepowered.veru.db.v1;
+
+import com.mongodb.client.MongoClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.DatabaseManager;
+import slatepowered.veru.db.v1.Login;
+import slatepowered.veru.db.v1.impl.MongoDatabase;
+import slatepowered.veru.db.v1.impl.MongoDatabaseType;
+
+public class MongoDatabaseTest {
+
+    @Test
+    void testSharedClient() {
+        // clients connect lazily so no server is needed
+        DatabaseManager manager = new DatabaseManager();
+        MongoDatabase a = new MongoDatabase(manager, "a");
+        MongoDatabase b = new MongoDatabase(manager, "b");
+        MongoDatabase c = new MongoDatabase(manager, "c");
+        a.login(Login.ofURI("mongodb://localhost:27999", "a"));
+        b.login(Login.ofURI("mongodb://localhost:27999", "b"));
+        c.login(Login.ofURI("mongodb://localhost:27999", "c").poolSize(0, 4));
+
+        MongoClient client = a.getClient();
+        Assertions.assertSame(client, b.getClient());
+        Assertions.assertNotSame(client, c.getClient());
+        Assertions.assertEquals(2, MongoDatabaseType.getSharedReferences(client));
+
+        a.close();
+        Assertions.assertEquals(1, MongoDatabaseType.getSharedReferences(client));
+        b.close();
+        c.close();
+        Assertions.assertEquals(0, MongoDatabaseType.getSharedReferences(client));
+    }
+
+}
@@ -0,0 +1,48 @@
+package test.slatepowered.veru.db.v1;
+
+import com.mongodb.client.model.Filters;
+import org.bson.BsonDocument;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.impl.MongoPartitionedScan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class MongoPartitionedScanTest extends AbstractMongoDatabaseTest {
+
+    static List<BsonDocument> encodeAll(List<Bson> filters) {
+        List<BsonDocument> encoded = new ArrayList<>();
+        for (Bson filter : filters)
+            encoded.add(encode(filter));
+        return encoded;
+    }
+
+    @Test
+    void testPartitionFilters() {
+        MongoPartitionedScan scan = database.scan("players").field("level");
+        Assertions.assertEquals(Arrays.asList(
+                BsonDocument.parse("{level: {$lt: 10}}"),
+                BsonDocument.parse("{level: {$gte: 10, $lt: 20}}"),
+                BsonDocument.parse("{level: {$gte: 20}}")
+        ), encodeAll(scan.partitionFilters(Arrays.asList(10, 20))));
+
+        // a single partition scans everything matching the filter
+        Assertions.assertEquals(Collections.singletonList(new BsonDocument()),
+                encodeAll(scan.partitionFilters(Collections.emptyList())));
+        scan.filter(Filters.eq("type", "player"));
+        Assertions.assertEquals(Collections.singletonList(BsonDocument.parse("{type: 'player'}")),
+                encodeAll(scan.partitionFilters(Collections.emptyList())));
+        Assertions.assertEquals(BsonDocument.parse("{type: 'player', level: {$lt: 10}}"),
+                encodeAll(scan.partitionFilters(Collections.singletonList(10))).get(0));
+    }
+
+    @Test
+    void testSinglePartitionNeedsNoBoundaries() {
+        Assertions.assertTrue(database.scan("players").partitions(1).boundaries().isEmpty());
+    }
+
+}
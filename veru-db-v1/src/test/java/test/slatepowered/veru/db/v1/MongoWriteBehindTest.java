@@ -0,0 +1,63 @@
+package test.slatepowered.veru.db.v1;
+
+import com.mongodb.MongoException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.impl.MongoDatabaseItem;
+import slatepowered.veru.db.v1.impl.MongoWriteBehind;
+
+import java.util.concurrent.TimeUnit;
+
+public class MongoWriteBehindTest extends AbstractMongoDatabaseTest {
+
+    // the write-behind queue of the database
+    MongoWriteBehind queue;
+
+    @BeforeEach
+    void enableWriteBehind() {
+        database.enableWriteBehind(queue -> queue
+                .flushWindow(1, TimeUnit.HOURS)
+                .maxLatency(1, TimeUnit.HOURS)
+                .retryDelay(1, 1, TimeUnit.HOURS)
+                .maxRetries(1));
+        queue = database.getWriteBehind();
+    }
+
+    void push(String field, Object value) {
+        MongoDatabaseItem item = item("a");
+        item.set(field, value);
+        item.push();
+    }
+
+    @Test
+    void testCoalesce() {
+        push("coins", 5);
+        push("rank", "gold");
+        Assertions.assertEquals(1, queue.pendingCount());
+        Assertions.assertEquals(2, queue.getEnqueuedCount());
+        Assertions.assertEquals(1, queue.getCoalescedCount());
+    }
+
+    @Test
+    void testFailedWritesStayPending() {
+        push("coins", 5);
+        Assertions.assertThrows(MongoException.class, queue::flush);
+        Assertions.assertEquals(1, queue.pendingCount());
+        Assertions.assertEquals(1, queue.getFailedCount());
+
+        // newer pushes are applied on top of the failed write
+        push("coins", 6);
+        Assertions.assertEquals(1, queue.pendingCount());
+
+        // dropped once out of retries
+        Assertions.assertThrows(MongoException.class, database::disableWriteBehind);
+        Assertions.assertEquals(0, queue.pendingCount());
+        Assertions.assertEquals(1, queue.getDroppedCount());
+
+        // pushes after closing are written directly
+        Assertions.assertThrows(MongoException.class, () -> push("coins", 7));
+        Assertions.assertEquals(2, queue.getEnqueuedCount());
+    }
+
+}
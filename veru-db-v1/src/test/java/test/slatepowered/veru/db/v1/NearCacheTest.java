@@ -0,0 +1,90 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.DatabaseExecutor;
+import slatepowered.veru.db.v1.NearCache;
+import slatepowered.veru.db.v1.impl.MemoryDatabaseItem;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class NearCacheTest extends AbstractMemoryDatabaseTest {
+
+    MemoryDatabaseItem config;
+    NearCache<MemoryDatabaseItem> cache;
+
+    @BeforeEach
+    void setUpCache() {
+        config = database.item("config", "server");
+        config.set("motd", "hello");
+        config.push();
+        cache = new NearCache<MemoryDatabaseItem>(database, 100, TimeUnit.MILLISECONDS)
+                .refreshAhead(0.5);
+    }
+
+    @AfterEach
+    void closeCache() {
+        cache.close();
+    }
+
+    String motd() {
+        return cache.get("server").get("motd", String.class);
+    }
+
+    void setMotd(String motd) {
+        config.set("motd", motd);
+        config.push();
+    }
+
+    @Test
+    void testPin() {
+        Assertions.assertEquals("hello", cache.pin("server", () -> database.item("config", "server")).get("motd", String.class));
+        Assertions.assertNull(cache.get("other"));
+
+        // a failed first load does not pin the key
+        Assertions.assertThrows(IllegalStateException.class, () -> cache.pin("broken", () -> {
+            throw new IllegalStateException("failed");
+        }));
+        Assertions.assertFalse(cache.isPinned("broken"));
+
+        Assertions.assertTrue(cache.unpin("server"));
+        Assertions.assertNull(cache.get("server"));
+    }
+
+    @Test
+    void testRefresh() throws InterruptedException {
+        cache.pin("server", () -> database.item("config", "server"));
+
+        // refreshed on request
+        setMotd("changed");
+        Assertions.assertEquals("changed", cache.refresh("server").join().get("motd", String.class));
+        Assertions.assertEquals("changed", motd());
+
+        // refreshed ahead of expiry without blocking reads
+        setMotd("ahead");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"ahead".equals(motd()) && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Assertions.assertEquals("ahead", motd());
+    }
+
+    @Test
+    void testRefreshOffCaller() {
+        // refreshes must not run on the reading thread even
+        // if the database executor runs work on the caller
+        database.executor(DatabaseExecutor.callerRuns());
+        AtomicReference<Thread> loadedOn = new AtomicReference<>();
+        cache.pin("server", () -> {
+            loadedOn.set(Thread.currentThread());
+            return database.item("config", "server");
+        });
+
+        setMotd("changed");
+        Assertions.assertEquals("changed", cache.refresh("server").join().get("motd", String.class));
+        Assertions.assertNotSame(Thread.currentThread(), loadedOn.get());
+    }
+
+}
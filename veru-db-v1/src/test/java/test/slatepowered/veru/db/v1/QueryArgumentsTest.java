@@ -0,0 +1,65 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.BoundQuery;
+import slatepowered.veru.db.v1.QueryParameter;
+import slatepowered.veru.db.v1.QueryParameters;
+import slatepowered.veru.db.v1.impl.MemoryDatabaseType;
+
+import java.util.concurrent.TimeUnit;
+
+public class QueryArgumentsTest extends AbstractMemoryDatabaseTest {
+
+    @BeforeEach
+    void setUpBonus() {
+        QueryParameters params = new QueryParameters();
+        QueryParameter<String> key = params.add("key", String.class);
+        QueryParameter<Integer> bonus = params.add("bonus", Integer.class);
+        pool.putQuery("getCoinsBonus", MemoryDatabaseType.INSTANCE, params, (query, db, args) ->
+                db.item("players", args.get(key)).pull().get("coins", Integer.class, 0) + args.get(bonus, 0));
+        setCoins("a", 3);
+    }
+
+    @Test
+    void testPositional() {
+        Assertions.assertEquals(5, (int) pool.call("getCoinsBonus", "a", 2));
+        Assertions.assertEquals(4, (int) pool.<Integer>callAsync("getCoinsBonus", "a", 1).join());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> pool.call("getCoinsBonus", "a", "2"));
+
+        // values are bound by name
+        Assertions.assertEquals(3, (int) pool.querySync("getCoinsBonus", "key", "a"));
+    }
+
+    @Test
+    void testValuesQuery() {
+        // queries reading values can be called with arguments once declared
+        Assertions.assertThrows(IllegalStateException.class, () -> pool.call("getCoins", "a"));
+        QueryParameters keyOnly = new QueryParameters();
+        keyOnly.add("key", String.class);
+        pool.getQuery("getCoins").parameters(keyOnly);
+        Assertions.assertEquals(3, (int) pool.call("getCoins", "a"));
+    }
+
+    @Test
+    void testBoundCall() {
+        BoundQuery<Integer, ?> bound = pool.resolve("getCoinsBonus");
+        Assertions.assertEquals(5, (int) bound.call("a", 2));
+        Assertions.assertEquals(4, (int) bound.callAsync("a", 1).join());
+
+        // the arity of a registered query can not change
+        Assertions.assertThrows(IllegalStateException.class, () ->
+                bound.getQuery().getParameters().add("extra"));
+    }
+
+    @Test
+    void testValuesAndArgumentsShareResults() {
+        pool.getQuery("getCoinsBonus").cache(10, 1, TimeUnit.MINUTES);
+        Assertions.assertEquals(5, (int) pool.call("getCoinsBonus", "a", 2));
+        setCoins("a", 10);
+        Assertions.assertEquals(5, (int) pool.querySync("getCoinsBonus", "key", "a", "bonus", 2));
+        Assertions.assertEquals(13, (int) pool.querySync("getCoinsBonus", "key", "a", "bonus", 3));
+    }
+
+}
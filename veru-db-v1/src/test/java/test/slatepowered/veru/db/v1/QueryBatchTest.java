@@ -0,0 +1,72 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.DatabaseExecutor;
+import slatepowered.veru.db.v1.QueryBatch;
+import slatepowered.veru.db.v1.impl.MemoryDatabaseType;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class QueryBatchTest extends AbstractMemoryDatabaseTest {
+
+    @Test
+    void testConcurrent() {
+        // each execution waits until another one started, which
+        // only happens in time if the batch runs them concurrently
+        CountDownLatch started = new CountDownLatch(2);
+        pool.putQuery("awaitPeer", MemoryDatabaseType.INSTANCE, (query, db, vals) -> {
+            started.countDown();
+            try {
+                return started.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        QueryBatch batch = pool.batch();
+        for (int i = 0; i < 8; i++)
+            batch.add("awaitPeer");
+        QueryBatch.Result result = batch.execute();
+        Assertions.assertEquals(8, result.size());
+        for (int i = 0; i < 8; i++)
+            Assertions.assertTrue((boolean) result.get(i));
+    }
+
+    @Test
+    void testExecutorOverride() {
+        // every query runs on its executor, none on the caller
+        Thread caller = Thread.currentThread();
+        pool.putQuery("thread", MemoryDatabaseType.INSTANCE, (query, db, vals) -> Thread.currentThread());
+        pool.getQuery("thread").executor(DatabaseExecutor.shared());
+
+        QueryBatch.Result result = pool.batch().add("thread").add("thread").execute();
+        for (int i = 0; i < 2; i++)
+            Assertions.assertNotSame(caller, result.get(i));
+    }
+
+    @Test
+    void testFailures() {
+        pool.putQuery("fail", MemoryDatabaseType.INSTANCE, (query, db, vals) -> {
+            throw new IllegalStateException("failed");
+        });
+
+        QueryBatch batch = pool.batch();
+        batch.add("getCoins", "key", "a");
+        batch.add("fail");
+        batch.add("missing");
+
+        QueryBatch.Result result = batch.execute();
+        Assertions.assertEquals(3, result.size());
+        Assertions.assertEquals(0, (int) result.get(0));
+        Assertions.assertTrue(result.getError(1) instanceof IllegalStateException);
+        Assertions.assertTrue(result.getError(2) instanceof IllegalArgumentException);
+        Assertions.assertEquals(2, result.getFailures().size());
+        Assertions.assertThrows(CompletionException.class, () -> result.get(1));
+
+        Assertions.assertEquals(2, batch.executeAsync().join().getFailures().size());
+    }
+
+}
@@ -0,0 +1,29 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class QueryCoalesceTest extends AbstractMemoryDatabaseTest {
+
+    @Test
+    void testCoalesce() {
+        database.latency(50, 0, TimeUnit.MILLISECONDS);
+        pool.getQuery("getCoins").coalesce(true);
+
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            futures.add(pool.queryAsync("getCoins", "key", "a"));
+        futures.add(pool.queryAsync("getCoins", "key", "b"));
+        for (CompletableFuture<Integer> future : futures)
+            Assertions.assertEquals(0, (int) future.join());
+
+        Assertions.assertEquals(2, manager.getQueryMetrics("getCoins").getCount());
+        Assertions.assertEquals(9, manager.getQueryMetrics("getCoins").getCollapsed());
+    }
+
+}
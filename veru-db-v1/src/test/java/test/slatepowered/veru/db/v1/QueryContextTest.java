@@ -0,0 +1,20 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.QueryContext;
+import slatepowered.veru.db.v1.impl.MemoryDatabaseType;
+
+public class QueryContextTest extends AbstractMemoryDatabaseTest {
+
+    @Test
+    void testCurrent() {
+        // the executing query is visible to the implementation
+        pool.putQuery("currentOp", MemoryDatabaseType.INSTANCE, (query, db, vals) ->
+                QueryContext.current().getOperation());
+        Assertions.assertEquals("currentOp", pool.querySync("currentOp"));
+        Assertions.assertEquals("currentOp", pool.queryAsync("currentOp").join());
+        Assertions.assertNull(QueryContext.current());
+    }
+
+}
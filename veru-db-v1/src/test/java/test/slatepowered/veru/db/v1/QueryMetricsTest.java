@@ -0,0 +1,72 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.data.Values;
+import slatepowered.veru.db.v1.DatabaseManager;
+import slatepowered.veru.db.v1.QueryMetrics;
+import slatepowered.veru.db.v1.impl.MemoryDatabase;
+import slatepowered.veru.db.v1.impl.MemoryDatabaseType;
+import slatepowered.veru.db.v1.impl.MongoDatabase;
+import slatepowered.veru.db.v1.impl.MongoDatabaseType;
+
+public class QueryMetricsTest extends AbstractMemoryDatabaseTest {
+
+    @Test
+    void testCountsAndErrors() {
+        pool.putQuery("fail", MemoryDatabaseType.INSTANCE, (query, db, vals) -> {
+            throw new IllegalStateException("fail");
+        });
+
+        setCoins("a", 5);
+        Assertions.assertEquals(5, (int) pool.querySync("getCoins", "key", "a"));
+        Assertions.assertEquals(5, (int) pool.queryAsync("getCoins", "key", "a").join());
+        Assertions.assertThrows(IllegalStateException.class, () -> pool.querySync("fail"));
+
+        QueryMetrics metrics = manager.getQueryMetrics("getCoins");
+        Assertions.assertEquals(2, metrics.getCount());
+        Assertions.assertEquals(0, metrics.getErrors());
+        Assertions.assertEquals(2, metrics.getLatency().getCount());
+        Assertions.assertEquals(1, metrics.getQueueWait().getCount());
+        Assertions.assertEquals(1, manager.getQueryMetrics("fail").getErrors());
+
+        manager.resetQueryMetrics();
+        Assertions.assertEquals(0, metrics.getCount());
+    }
+
+    @Test
+    void testDisabled() {
+        // queries still run but are not measured
+        pool.querySync("getCoins", "key", "a");
+        manager.metricsEnabled(false);
+        setCoins("a", 3);
+        Assertions.assertEquals(3, (int) pool.querySync("getCoins", "key", "a"));
+        Assertions.assertEquals(3, (int) pool.queryAsync("getCoins", "key", "a").join());
+        Assertions.assertEquals(1, manager.getQueryMetrics("getCoins").getCount());
+    }
+
+    @Test
+    void testByTypeAndManager() {
+        // the same operation on another type is measured separately
+        pool.putQuery("getCoins", MongoDatabaseType.INSTANCE, (query, db, vals) -> 1);
+        MongoDatabase mongo = new MongoDatabase(manager, "mongo");
+        pool.getQuery("getCoins", MongoDatabaseType.INSTANCE).doSync(mongo, new Values());
+        pool.querySync("getCoins", "key", "a");
+        pool.querySync("getCoins", "key", "a");
+
+        Assertions.assertEquals(2, manager.getQueryMetrics("getCoins", MemoryDatabaseType.INSTANCE).getCount());
+        Assertions.assertEquals(1, manager.getQueryMetrics("getCoins", MongoDatabaseType.INSTANCE).getCount());
+        Assertions.assertThrows(IllegalStateException.class, () -> manager.getQueryMetrics("getCoins"));
+        Assertions.assertEquals(2, manager.getAllQueryMetrics().size());
+
+        // executions on databases of other managers are measured there
+        DatabaseManager other = new DatabaseManager();
+        MemoryDatabase otherDatabase = new MemoryDatabase(other, "other");
+        otherDatabase.login(null);
+        pool.getQuery("getCoins").doSync(otherDatabase, Values.ofVarargs("key", "a"));
+        Assertions.assertEquals(1, other.getQueryMetrics("getCoins").getCount());
+        Assertions.assertEquals(2, manager.getQueryMetrics("getCoins", MemoryDatabaseType.INSTANCE).getCount());
+        other.close();
+    }
+
+}
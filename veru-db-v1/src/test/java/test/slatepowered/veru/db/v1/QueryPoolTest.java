@@ -0,0 +1,49 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.BoundQuery;
+import slatepowered.veru.db.v1.QueryPool;
+import slatepowered.veru.db.v1.impl.MemoryDatabaseType;
+import slatepowered.veru.db.v1.impl.MongoDatabaseType;
+
+public class QueryPoolTest extends AbstractMemoryDatabaseTest {
+
+    @Test
+    void testLookup() {
+        // enough queries to grow the table a few times
+        for (int i = 0; i < 100; i++) {
+            int n = i;
+            pool.putQuery("op" + i, MemoryDatabaseType.INSTANCE, (query, db, vals) -> n);
+        }
+
+        for (int i = 0; i < 100; i++)
+            Assertions.assertEquals(i, (int) pool.querySync("op" + i));
+        Assertions.assertNull(pool.getQuery("op100"));
+
+        // the same operation on another type is a different query
+        Assertions.assertNull(pool.getQuery("op1", MongoDatabaseType.INSTANCE));
+        Assertions.assertNotNull(pool.getQuery("op1", MemoryDatabaseType.INSTANCE));
+
+        // replacing keeps a single entry
+        pool.putQuery("op1", MemoryDatabaseType.INSTANCE, (query, db, vals) -> -1);
+        Assertions.assertEquals(-1, (int) pool.querySync("op1"));
+    }
+
+    @Test
+    void testForkAndResolve() {
+        QueryPool fork = pool.fork();
+        fork.putQuery("local", MemoryDatabaseType.INSTANCE, (query, db, vals) -> 1);
+
+        // forks see the queries of their parents but not the other way around
+        Assertions.assertSame(pool.getQuery("getCoins"), fork.getQuery("getCoins"));
+        Assertions.assertNull(pool.getQuery("local"));
+
+        setCoins("a", 4);
+        BoundQuery<Integer, ?> bound = fork.resolve("getCoins");
+        Assertions.assertSame(database, bound.getDatabase());
+        Assertions.assertEquals(4, (int) bound.sync("key", "a"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> pool.resolve("local"));
+    }
+
+}
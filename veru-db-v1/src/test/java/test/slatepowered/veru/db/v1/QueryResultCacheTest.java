@@ -0,0 +1,63 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.QueryCursor;
+import slatepowered.veru.db.v1.QueryPool;
+import slatepowered.veru.db.v1.QueryResultCache;
+import slatepowered.veru.db.v1.StreamQuery;
+import slatepowered.veru.db.v1.impl.MemoryDatabase;
+import slatepowered.veru.db.v1.impl.MemoryDatabaseItem;
+import slatepowered.veru.db.v1.impl.MemoryDatabaseType;
+
+import java.util.concurrent.TimeUnit;
+
+public class QueryResultCacheTest extends AbstractMemoryDatabaseTest {
+
+    QueryPool fork;
+
+    @BeforeEach
+    void setUpCache() {
+        pool.getQuery("getCoins").cache(100, 1, TimeUnit.MINUTES, "coins");
+
+        // writes declared in a fork invalidate the root caches
+        fork = pool.fork();
+        fork.putQuery("setCoins", MemoryDatabaseType.INSTANCE, (query, db, vals) -> {
+            MemoryDatabaseItem item = db.item("players", vals.get("key"));
+            item.set("coins", vals.get("coins"));
+            item.push();
+            return null;
+        });
+        fork.getQuery("setCoins").invalidates("coins");
+    }
+
+    @Test
+    void testInvalidation() {
+        Assertions.assertEquals(0, (int) pool.querySync("getCoins", "key", "a"));
+        setCoins("a", 3);
+        // undeclared writes are not seen until invalidated
+        Assertions.assertEquals(0, (int) pool.<Integer>queryAsync("getCoins", "key", "a").join());
+
+        fork.querySync("setCoins", "key", "a", "coins", 5);
+        Assertions.assertEquals(5, (int) fork.<Integer>queryAsync("getCoins", "key", "a").join());
+        setCoins("a", 6);
+        pool.invalidate("coins");
+        Assertions.assertEquals(6, (int) pool.querySync("getCoins", "key", "a"));
+
+        QueryResultCache cache = pool.getQuery("getCoins").getResultCache();
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertEquals(3, cache.getMisses());
+        Assertions.assertEquals(2, cache.getInvalidations());
+        Assertions.assertEquals(3, manager.getQueryMetrics("getCoins").getCount());
+    }
+
+    @Test
+    void testStreamQueryNotCacheable() {
+        StreamQuery<Integer, MemoryDatabase> query = new StreamQuery<>("allCoins", MemoryDatabaseType.INSTANCE,
+                (q, db, vals) -> QueryCursor.empty());
+        Assertions.assertThrows(IllegalStateException.class, () -> query.cache(10, 1, TimeUnit.MINUTES));
+        Assertions.assertNull(query.getResultCache());
+    }
+
+}
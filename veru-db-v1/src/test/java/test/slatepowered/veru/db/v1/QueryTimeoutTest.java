@@ -0,0 +1,105 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.data.Values;
+import slatepowered.veru.db.v1.QueryContext;
+import slatepowered.veru.db.v1.QueryTimeoutException;
+import slatepowered.veru.db.v1.impl.MemoryDatabaseType;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class QueryTimeoutTest extends AbstractMemoryDatabaseTest {
+
+    CountDownLatch release;
+    ExecutorService executor;
+
+    @BeforeEach
+    void setUpBlocking() {
+        // calls with the block value block the only thread until released
+        release = new CountDownLatch(1);
+        executor = Executors.newSingleThreadExecutor();
+        pool.putQuery("blocking", MemoryDatabaseType.INSTANCE, (query, db, vals) -> {
+            if (vals.get("block") != null) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            return 0;
+        });
+        pool.getQuery("blocking").executor(executor);
+    }
+
+    @AfterEach
+    void shutDownBlocking() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testQueuedTimeoutAndCancel() throws InterruptedException {
+        // the later calls are queued behind the first
+        CompletableFuture<Integer> first = pool.queryAsync("blocking", "block", true);
+        CompletableFuture<Integer> timed = pool.queryAsync("blocking", Values.ofVarargs("key", "a"), 20, TimeUnit.MILLISECONDS);
+        CompletableFuture<Integer> cancelled = pool.queryAsync("blocking", "key", "a");
+        cancelled.cancel(false);
+
+        CompletionException e = Assertions.assertThrows(CompletionException.class, timed::join);
+        Assertions.assertTrue(e.getCause() instanceof QueryTimeoutException);
+        release.countDown();
+        Assertions.assertEquals(0, (int) first.join());
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        // neither queued call was executed
+        Assertions.assertEquals(1, manager.getQueryMetrics("blocking").getCount());
+        Assertions.assertEquals(1, manager.getQueryMetrics("blocking").getTimeouts());
+        Assertions.assertEquals(2, manager.getQueryMetrics("blocking").getCancelled());
+    }
+
+    @Test
+    void testCoalescedDeadlines() throws InterruptedException {
+        pool.getQuery("blocking").coalesce(true);
+        CompletableFuture<Integer> first = pool.queryAsync("blocking", "block", true);
+
+        // a caller timing out does not fail others joining its execution
+        CompletableFuture<Integer> timed = pool.queryAsync("blocking", Values.ofVarargs("key", "a"), 20, TimeUnit.MILLISECONDS);
+        CompletableFuture<Integer> waiting = pool.queryAsync("blocking", "key", "a");
+
+        // an execution is skipped once all its callers gave up
+        CompletableFuture<Integer> alone = pool.queryAsync("blocking", Values.ofVarargs("key", "b"), 20, TimeUnit.MILLISECONDS);
+
+        CompletionException e = Assertions.assertThrows(CompletionException.class, timed::join);
+        Assertions.assertTrue(e.getCause() instanceof QueryTimeoutException);
+        Assertions.assertThrows(CompletionException.class, alone::join);
+        release.countDown();
+        Assertions.assertEquals(0, (int) first.join());
+        Assertions.assertEquals(0, (int) waiting.join());
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        Assertions.assertEquals(2, manager.getQueryMetrics("blocking").getCount());
+        Assertions.assertEquals(1, manager.getQueryMetrics("blocking").getCollapsed());
+        Assertions.assertEquals(1, manager.getQueryMetrics("blocking").getCancelled());
+    }
+
+    @Test
+    void testDeadlineVisible() {
+        pool.putQuery("remaining", MemoryDatabaseType.INSTANCE, (query, db, vals) -> QueryContext.remainingMillis());
+        Assertions.assertEquals(-1L, (long) pool.querySync("remaining"));
+        pool.getQuery("remaining").timeout(10, TimeUnit.SECONDS);
+        long remaining = pool.querySync("remaining");
+        Assertions.assertTrue(remaining > 0 && remaining <= 10_000);
+    }
+
+}
@@ -0,0 +1,137 @@
+package test.slatepowered.veru.db.v1;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import slatepowered.veru.db.v1.QueryCursor;
+import slatepowered.veru.db.v1.QueryPublisher;
+import slatepowered.veru.db.v1.impl.MemoryDatabase;
+import slatepowered.veru.db.v1.impl.MemoryDatabaseType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+public class StreamQueryTest extends AbstractMemoryDatabaseTest {
+
+    @BeforeEach
+    void setUpStream() {
+        for (int i = 0; i < 100; i++)
+            setCoins(i, i);
+        pool.<Integer, MemoryDatabase>putStreamQuery("allCoins", MemoryDatabaseType.INSTANCE, (query, db, vals) ->
+                db.scan("players").map(item -> item.get("coins", Integer.class)));
+    }
+
+    @Test
+    void testStream() {
+        try (Stream<Integer> stream = pool.queryStream("allCoins")) {
+            Assertions.assertEquals(4950, stream.mapToInt(Integer::intValue).sum());
+        }
+    }
+
+    @Test
+    void testCursorClose() {
+        QueryCursor<Integer> cursor = pool.queryCursor("allCoins");
+        Assertions.assertTrue(cursor.hasNext());
+        cursor.close();
+        Assertions.assertFalse(cursor.hasNext());
+    }
+
+    @Test
+    void testPublisherCancel() {
+        // request three, then cancel
+        List<Integer> received = new ArrayList<>();
+        CompletableFuture<Void> cancelled = new CompletableFuture<>();
+        QueryPublisher<Integer> publisher = pool.queryPublisher("allCoins");
+        publisher.subscribe(new QueryPublisher.Subscriber<Integer>() {
+            QueryPublisher.Subscription subscription;
+
+            @Override
+            public void onSubscribe(QueryPublisher.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(3);
+            }
+
+            @Override
+            public void onNext(Integer item) {
+                received.add(item);
+                if (received.size() == 3) {
+                    subscription.cancel();
+                    cancelled.complete(null);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                cancelled.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                cancelled.completeExceptionally(new AssertionError("completed after cancel"));
+            }
+        });
+
+        cancelled.join();
+        Assertions.assertEquals(3, received.size());
+    }
+
+    @Test
+    void testPublisherReadsOnDemand() {
+        // count the checks of the cursor, which may fetch the next batch
+        AtomicInteger checks = new AtomicInteger();
+        Iterator<Integer> source = Arrays.asList(1, 2).iterator();
+        Iterator<Integer> counting = new Iterator<Integer>() {
+            @Override
+            public boolean hasNext() {
+                checks.incrementAndGet();
+                return source.hasNext();
+            }
+
+            @Override
+            public Integer next() {
+                return source.next();
+            }
+        };
+
+        List<Integer> received = new ArrayList<>();
+        AtomicBoolean completed = new AtomicBoolean();
+        List<QueryPublisher.Subscription> subscriptions = new ArrayList<>();
+        new QueryPublisher<>(() -> QueryCursor.of(counting, null), Runnable::run).subscribe(new QueryPublisher.Subscriber<Integer>() {
+            @Override
+            public void onSubscribe(QueryPublisher.Subscription subscription) {
+                subscriptions.add(subscription);
+            }
+
+            @Override
+            public void onNext(Integer item) {
+                received.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                Assertions.fail(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                completed.set(true);
+            }
+        });
+
+        subscriptions.get(0).request(2);
+        Assertions.assertEquals(Arrays.asList(1, 2), received);
+        Assertions.assertEquals(2, checks.get());
+        Assertions.assertFalse(completed.get());
+
+        // the end is only detected once more is requested
+        subscriptions.get(0).request(1);
+        Assertions.assertTrue(completed.get());
+    }
+
+}